@@ -0,0 +1,257 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.floodlightcontroller.core.IOFSwitch;
+
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFBarrierRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the barrier requests the slices of a switch send within
+ * a short window into a single barrier to the switch.  Each slice's
+ * barrier is mapped in the switch XidMap like any other message, when
+ * the switch answers the one barrier every waiting slice gets a barrier
+ * reply with its own xid, in the order the slices sent them.
+ * A slice that sends anything else while its barrier is waiting
+ * pushes the barrier out first so nothing it sends after a barrier
+ * gets ahead of it.  Barriers are written to the switch outside the
+ * coalescer lock, a slice stays marked as waiting until its barrier
+ * has been written so anything it sends next still waits for it
+ * @author aragusa
+ *
+ */
+
+public class BarrierCoalescer {
+
+	/**
+	 * a slice barrier waiting on the switch barrier
+	 */
+	private static class Waiter {
+		private final Proxy proxy;
+		//the switch xid the slice's barrier was mapped to
+		private final int xid;
+
+		private Waiter(Proxy proxy, int xid){
+			this.proxy = proxy;
+			this.xid = xid;
+		}
+	}
+
+	private final IOFSwitch sw;
+	private final Timer timer;
+	private final long window;
+	private List<Waiter> pending;
+	private TimerTask flushTask;
+	//switch barrier xid -> slice barriers it answers
+	private final HashMap<Integer, List<Waiter>> inFlight;
+	//slices with a barrier in pending or still being written, checked on every message
+	private final Set<Proxy> waiting = Collections.newSetFromMap(new ConcurrentHashMap<Proxy, Boolean>());
+	//one flush writes to the switch at a time so barriers go out in order
+	private final Object writeLock = new Object();
+	private long coalesced = 0;
+
+	private static final Logger log = LoggerFactory.getLogger(BarrierCoalescer.class);
+
+	/**
+	 * @param sw the switch the barriers go to
+	 * @param timer runs the end of each window
+	 * @param window in milliseconds
+	 */
+	public BarrierCoalescer(IOFSwitch sw, Timer timer, long window){
+		this.sw = sw;
+		this.timer = timer;
+		this.window = window;
+		this.pending = new ArrayList<Waiter>();
+		this.inFlight = new HashMap<Integer, List<Waiter>>();
+	}
+
+	/**
+	 * adds a slice barrier to the current window, starting one if needed
+	 * @param proxy the slice sending the barrier
+	 * @param xid the switch xid its barrier was mapped to
+	 */
+	public synchronized void addBarrier(Proxy proxy, int xid){
+		pending.add(new Waiter(proxy, xid));
+		waiting.add(proxy);
+		if(flushTask != null){
+			return;
+		}
+		flushTask = new TimerTask(){
+			@Override
+			public void run(){
+				flush();
+			}
+		};
+		timer.schedule(flushTask, window);
+	}
+
+	/**
+	 * sends the switch barrier now if the proxy has a barrier waiting
+	 * @param proxy
+	 */
+	public void flushIfWaiting(Proxy proxy){
+		if(waiting.contains(proxy)){
+			this.flush();
+		}
+	}
+
+	/**
+	 * sends one barrier to the switch for every slice barrier in the window
+	 */
+	public void flush(){
+		synchronized(writeLock){
+			OFBarrierRequest barrier;
+			List<Waiter> sent;
+			synchronized(this){
+				if(flushTask != null){
+					flushTask.cancel();
+					flushTask = null;
+				}
+				if(pending.isEmpty()){
+					return;
+				}
+				barrier = new OFBarrierRequest();
+				barrier.setXid(sw.getNextTransactionId());
+				inFlight.put(barrier.getXid(), pending);
+				coalesced += pending.size() - 1;
+				sent = pending;
+				pending = new ArrayList<Waiter>();
+			}
+			log.debug("Sending barrier " + barrier.getXid() + " for " + sent.size() + " slice barriers to switch " + sw.getStringId());
+			try {
+				sw.write(barrier, null);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			sw.flush();
+			synchronized(this){
+				for(Waiter waiter : sent){
+					if(!isPending(waiter.proxy)){
+						waiting.remove(waiter.proxy);
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isPending(Proxy proxy){
+		for(Waiter waiter : pending){
+			if(waiter.proxy == proxy){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * answers every slice barrier the switch barrier covered
+	 * @param xid the xid of the barrier reply from the switch
+	 * @return false if the xid is not a coalesced barrier
+	 */
+	public boolean barrierReply(int xid){
+		List<Waiter> waiters;
+		synchronized(this){
+			waiters = inFlight.remove(xid);
+		}
+		if(waiters == null){
+			return false;
+		}
+		for(Waiter waiter : waiters){
+			if(!waiter.proxy.getAdminStatus()){
+				log.debug("slice disabled... skipping");
+				continue;
+			}
+			//the proxy puts back the slice's xid and truncates its xid map
+			//through its inbox so the reply stays behind the slice's errors
+			OFBarrierReply reply = new OFBarrierReply();
+			reply.setXid(waiter.xid);
+			try{
+				waiter.proxy.deliver(reply, null);
+			}catch (Exception e){
+				log.error("FSFW experienced an error:" + e.getMessage(), e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * drops the barriers of a proxy that is going away
+	 * @param proxy
+	 */
+	public synchronized void removeProxy(Proxy proxy){
+		removeWaiters(pending, proxy);
+		waiting.remove(proxy);
+		for(List<Waiter> waiters : inFlight.values()){
+			removeWaiters(waiters, proxy);
+		}
+	}
+
+	private static void removeWaiters(List<Waiter> waiters, Proxy proxy){
+		for(int i = waiters.size() - 1; i >= 0; i--){
+			if(waiters.get(i).proxy == proxy){
+				waiters.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * stops the window, the switch is gone
+	 */
+	public synchronized void clear(){
+		if(flushTask != null){
+			flushTask.cancel();
+			flushTask = null;
+		}
+		pending.clear();
+		inFlight.clear();
+		waiting.clear();
+	}
+
+	/**
+	 * number of slice barriers waiting on a switch barrier
+	 */
+	public synchronized int getPending(){
+		int count = pending.size();
+		for(List<Waiter> waiters : inFlight.values()){
+			count += waiters.size();
+		}
+		return count;
+	}
+
+	/**
+	 * total barriers saved by coalescing
+	 */
+	public synchronized long getCoalesced(){
+		return coalesced;
+	}
+
+	public long getWindow(){
+		return window;
+	}
+}
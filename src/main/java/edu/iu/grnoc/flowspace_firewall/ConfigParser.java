@@ -83,6 +83,23 @@ public final class ConfigParser {
 		return true;
 	}
 	
+	/**
+	 * returns the integer value of an optional attribute
+	 * or null if the attribute is not set
+	 */
+	private static Integer parseOptionalInt(Node node, String attribute, String xmlFile) throws NumberFormatException{
+		Node attr = node.getAttributes().getNamedItem(attribute);
+		if(attr == null){
+			return null;
+		}
+		try{
+			return Integer.parseInt(attr.getTextContent());
+		}catch (NumberFormatException e){
+			log.error("Problem parsing " + xmlFile + ": " + e.getMessage());
+			throw e;
+		}
+	}
+	
 	public static FlowSpaceFirewallParams parseFlowSpaceFirewallParams(String xmlFile) throws IOException, SAXException, ParserConfigurationException, InvalidConfigException, XPathExpressionException, NumberFormatException{
 		FlowSpaceFirewallParams flowSpaceFirewallParams = new FlowSpaceFirewallParams();
 		
@@ -117,18 +134,177 @@ public final class ConfigParser {
 	        String fsfwExpression = "/flowspace_firewall";
 	        Node fsfwNode = (Node) xPath.compile(fsfwExpression).evaluate(document,XPathConstants.NODE);
 	        
-	        int statsPollInterval;
+	        Integer statsPollInterval = parseOptionalInt(fsfwNode, "stats_poll_interval", xmlFile);
+	        if(statsPollInterval != null){
+	        	flowSpaceFirewallParams.setStatsPollInterval(statsPollInterval);
+	        }
+	        
+	        Integer statsReplyMaxLength = parseOptionalInt(fsfwNode, "stats_reply_max_length", xmlFile);
+	        if(statsReplyMaxLength != null){
+	        	if(statsReplyMaxLength < FlowSpaceFirewallParams.MIN_STATS_REPLY_MAX_LENGTH || statsReplyMaxLength > StatsReplyPacker.MAX_LENGTH){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"stats_reply_max_length must be between " + FlowSpaceFirewallParams.MIN_STATS_REPLY_MAX_LENGTH +
+	        				" and " + StatsReplyPacker.MAX_LENGTH
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setStatsReplyMaxLength(statsReplyMaxLength);
+	        }
 	        
-	        if(fsfwNode.getAttributes().getNamedItem("stats_poll_interval") != null){
-	        	try{
-	        		statsPollInterval = Integer.parseInt(fsfwNode.getAttributes().getNamedItem("stats_poll_interval").getTextContent());
+	        Integer topFlows = parseOptionalInt(fsfwNode, "top_flows", xmlFile);
+	        if(topFlows != null){
+	        	if(topFlows < 1 || topFlows > FlowSpaceFirewallParams.MAX_TOP_FLOWS){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"top_flows must be between 1 and " + FlowSpaceFirewallParams.MAX_TOP_FLOWS
+	        				);
+	        		throw Exception;
 	        	}
-	        	catch (NumberFormatException e){
-	        		log.error("Problem parsing " + xmlFile + ": " + e.getMessage());
-	        		throw e;
+	        	flowSpaceFirewallParams.setTopFlows(topFlows);
+	        }
+	        
+	        Integer timeoutResolution = parseOptionalInt(fsfwNode, "timeout_resolution", xmlFile);
+	        if(timeoutResolution != null){
+	        	if(timeoutResolution < FlowSpaceFirewallParams.MIN_TIMEOUT_RESOLUTION || timeoutResolution > FlowSpaceFirewallParams.MAX_TIMEOUT_RESOLUTION){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"timeout_resolution must be between " + FlowSpaceFirewallParams.MIN_TIMEOUT_RESOLUTION +
+	        				" and " + FlowSpaceFirewallParams.MAX_TIMEOUT_RESOLUTION
+	        				);
+	        		throw Exception;
 	        	}
+	        	flowSpaceFirewallParams.setTimeoutResolution(timeoutResolution);
+	        }
 	        
-	        	flowSpaceFirewallParams.setStatsPollInterval(statsPollInterval);
+	        Integer idleProbeLead = parseOptionalInt(fsfwNode, "idle_probe_lead", xmlFile);
+	        if(idleProbeLead != null){
+	        	if(idleProbeLead < 0 || idleProbeLead > FlowSpaceFirewallParams.MAX_IDLE_PROBE_LEAD){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"idle_probe_lead must be between 0 and " + FlowSpaceFirewallParams.MAX_IDLE_PROBE_LEAD
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setIdleProbeLead(idleProbeLead);
+	        }
+	        
+	        Integer highWatermark = parseOptionalInt(fsfwNode, "controller_high_watermark", xmlFile);
+	        if(highWatermark != null){
+	        	if(highWatermark < 1 || highWatermark > FlowSpaceFirewallParams.MAX_CONTROLLER_WATERMARK){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"controller_high_watermark must be between 1 and " + FlowSpaceFirewallParams.MAX_CONTROLLER_WATERMARK
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setControllerHighWatermark(highWatermark);
+	        }
+	        
+	        Integer lowWatermark = parseOptionalInt(fsfwNode, "controller_low_watermark", xmlFile);
+	        if(lowWatermark != null){
+	        	flowSpaceFirewallParams.setControllerLowWatermark(lowWatermark);
+	        }
+	        if(flowSpaceFirewallParams.getControllerLowWatermark() < 0 ||
+	        		flowSpaceFirewallParams.getControllerLowWatermark() >= flowSpaceFirewallParams.getControllerHighWatermark()){
+	        	InvalidConfigException Exception = new InvalidConfigException(
+	        			"controller_low_watermark must be at least 0 and below controller_high_watermark"
+	        			);
+	        	throw Exception;
+	        }
+	        
+	        Integer controllerQueueSize = parseOptionalInt(fsfwNode, "controller_queue_size", xmlFile);
+	        if(controllerQueueSize != null){
+	        	if(controllerQueueSize < 1 || controllerQueueSize > FlowSpaceFirewallParams.MAX_CONTROLLER_QUEUE_SIZE){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"controller_queue_size must be between 1 and " + FlowSpaceFirewallParams.MAX_CONTROLLER_QUEUE_SIZE
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setControllerQueueSize(controllerQueueSize);
+	        }
+	        
+	        Integer xidMapCapacity = parseOptionalInt(fsfwNode, "xid_map_capacity", xmlFile);
+	        if(xidMapCapacity != null){
+	        	if(xidMapCapacity < XidMap.MIN_CAPACITY || xidMapCapacity > XidMap.MAX_CAPACITY){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"xid_map_capacity must be between " + XidMap.MIN_CAPACITY + " and " + XidMap.MAX_CAPACITY
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setXidMapCapacity(xidMapCapacity);
+	        }
+	        
+	        Integer barrierWindow = parseOptionalInt(fsfwNode, "barrier_coalesce_window", xmlFile);
+	        if(barrierWindow != null){
+	        	if(barrierWindow < 0 || barrierWindow > FlowSpaceFirewallParams.MAX_BARRIER_COALESCE_WINDOW){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"barrier_coalesce_window must be between 0 and " + FlowSpaceFirewallParams.MAX_BARRIER_COALESCE_WINDOW
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setBarrierCoalesceWindow(barrierWindow);
+	        }
+	        
+	        Integer connectRate = parseOptionalInt(fsfwNode, "controller_connect_rate", xmlFile);
+	        if(connectRate != null){
+	        	if(connectRate < 1 || connectRate > FlowSpaceFirewallParams.MAX_CONTROLLER_CONNECT_RATE){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"controller_connect_rate must be between 1 and " + FlowSpaceFirewallParams.MAX_CONTROLLER_CONNECT_RATE
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setControllerConnectRate(connectRate);
+	        }
+	        
+	        Integer workerThreads = parseOptionalInt(fsfwNode, "slice_worker_threads", xmlFile);
+	        if(workerThreads != null){
+	        	if(workerThreads < 1 || workerThreads > FlowSpaceFirewallParams.MAX_SLICE_WORKER_THREADS){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"slice_worker_threads must be between 1 and " + FlowSpaceFirewallParams.MAX_SLICE_WORKER_THREADS
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setSliceWorkerThreads(workerThreads);
+	        }
+	        
+	        Integer inboxSize = parseOptionalInt(fsfwNode, "slice_inbox_size", xmlFile);
+	        if(inboxSize != null){
+	        	if(inboxSize < 1 || inboxSize > FlowSpaceFirewallParams.MAX_SLICE_INBOX_SIZE){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"slice_inbox_size must be between 1 and " + FlowSpaceFirewallParams.MAX_SLICE_INBOX_SIZE
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setSliceInboxSize(inboxSize);
+	        }
+	        
+	        Integer slicingThreads = parseOptionalInt(fsfwNode, "slicing_threads", xmlFile);
+	        if(slicingThreads != null){
+	        	if(slicingThreads < 0 || slicingThreads > FlowSpaceFirewallParams.MAX_SLICING_THREADS){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"slicing_threads must be between 0 and " + FlowSpaceFirewallParams.MAX_SLICING_THREADS
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setSlicingThreads(slicingThreads);
+	        }
+	        
+	        Integer channelMemory = parseOptionalInt(fsfwNode, "slicing_channel_memory", xmlFile);
+	        if(channelMemory != null){
+	        	if(channelMemory < 0){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"slicing_channel_memory can not be negative"
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setSlicingChannelMemory(channelMemory);
+	        }
+	        
+	        Integer totalMemory = parseOptionalInt(fsfwNode, "slicing_total_memory", xmlFile);
+	        if(totalMemory != null){
+	        	if(totalMemory < 0){
+	        		InvalidConfigException Exception = new InvalidConfigException(
+	        				"slicing_total_memory can not be negative"
+	        				);
+	        		throw Exception;
+	        	}
+	        	flowSpaceFirewallParams.setSlicingTotalMemory(totalMemory);
 	        }
 		}catch (SAXException e) {
 			log.error("Problems parsing " + xmlFile + ": " + e.getMessage());
@@ -248,12 +424,19 @@ public final class ConfigParser {
 	        NodeList slices = (NodeList) sliceExpression.evaluate(document,XPathConstants.NODESET);
 	        
 	        HashMap<String,Long> switchDPID = new HashMap<String,Long>();
+	        //optional budget shared by every slice on a switch
+	        HashMap<String,RateTracker> switchRates = new HashMap<String,RateTracker>();
 	        
 	        for(int i=0;i<switches.getLength();i++){
 	        	Node mySwitch = switches.item(i);
 	        	String dpidStr = (String) mySwitch.getAttributes().getNamedItem("dpid").getTextContent();
 	        	Long DPID = HexString.toLong(dpidStr);
-	        	switchDPID.put(mySwitch.getAttributes().getNamedItem("name").getTextContent(), DPID);
+	        	String switchName = mySwitch.getAttributes().getNamedItem("name").getTextContent();
+	        	switchDPID.put(switchName, DPID);
+	        	Node max_rate = mySwitch.getAttributes().getNamedItem("max_rate");
+	        	if(max_rate != null){
+	        		switchRates.put(switchName, new RateTracker(1000, Integer.parseInt(max_rate.getTextContent())));
+	        	}
 	        }
 	              
 	        
@@ -295,8 +478,67 @@ public final class ConfigParser {
 	        				slicer.setMaxFlows(numberOfFlows);      				
 	        				int flowRate = Integer.parseInt(switchConfig.getAttributes().getNamedItem("flow_rate").getTextContent());
 	        				slicer.setFlowRate(flowRate);
+	        				//packet outs and stats requests get their own budgets, flow_rate if not set
+	        				Node packet_out_rate = switchConfig.getAttributes().getNamedItem("packet_out_rate");
+	        				int packetOutRate = flowRate;
+	        				if(packet_out_rate != null){
+	        					packetOutRate = Integer.parseInt(packet_out_rate.getTextContent());
+	        				}
+	        				slicer.setPacketOutRate(packetOutRate);
+	        				Node stats_rate = switchConfig.getAttributes().getNamedItem("stats_rate");
+	        				int statsRate = flowRate;
+	        				if(stats_rate != null){
+	        					statsRate = Integer.parseInt(stats_rate.getTextContent());
+	        				}
+	        				slicer.setStatsRate(statsRate);
+	        				slicer.setSwitchRateTracker(switchRates.get(switchConfig.getAttributes().getNamedItem("name").getTextContent()));
 	        				int packetInRate = Integer.parseInt(switchConfig.getAttributes().getNamedItem("packet_in_rate").getTextContent());
 	        				slicer.setPacketInRate(packetInRate);
+	        				//packet ins over the rate are queued/shed, the slice is only disabled after sustained overload
+	        				Node packet_in_queue = switchConfig.getAttributes().getNamedItem("packet_in_queue");
+	        				if(packet_in_queue != null){
+	        					int packetInQueue = Integer.parseInt(packet_in_queue.getTextContent());
+	        					if(packetInQueue < 0){
+	        						InvalidConfigException Exception = new InvalidConfigException(
+	        								"packet_in_queue can not be negative for Slice: " + sliceName
+	        								);
+	        						throw Exception;
+	        					}
+	        					slicer.setPacketInQueueSize(packetInQueue);
+	        				}
+	        				Node packet_in_drop_policy = switchConfig.getAttributes().getNamedItem("packet_in_drop_policy");
+	        				if(packet_in_drop_policy != null){
+	        					try{
+	        						slicer.setPacketInDropPolicy(PacketInQueue.DropPolicy.valueOf(packet_in_drop_policy.getTextContent().toUpperCase()));
+	        					}catch(IllegalArgumentException e){
+	        						InvalidConfigException Exception = new InvalidConfigException(
+	        								"packet_in_drop_policy must be tail, head or sample for Slice: " + sliceName
+	        								);
+	        						throw Exception;
+	        					}
+	        				}
+	        				Node packet_in_disable_time = switchConfig.getAttributes().getNamedItem("packet_in_disable_time");
+	        				if(packet_in_disable_time != null){
+	        					int disableTime = Integer.parseInt(packet_in_disable_time.getTextContent());
+	        					if(disableTime < 0){
+	        						InvalidConfigException Exception = new InvalidConfigException(
+	        								"packet_in_disable_time can not be negative for Slice: " + sliceName
+	        								);
+	        						throw Exception;
+	        					}
+	        					slicer.setPacketInDisableTime(disableTime);
+	        				}
+	        				Node packet_in_dedup_window = switchConfig.getAttributes().getNamedItem("packet_in_dedup_window");
+	        				if(packet_in_dedup_window != null){
+	        					int dedupWindow = Integer.parseInt(packet_in_dedup_window.getTextContent());
+	        					if(dedupWindow < 0){
+	        						InvalidConfigException Exception = new InvalidConfigException(
+	        								"packet_in_dedup_window can not be negative for Slice: " + sliceName
+	        								);
+	        						throw Exception;
+	        					}
+	        					slicer.setPacketInDedupWindow(dedupWindow);
+	        				}
 	        				Node do_timeouts_node = switchConfig.getAttributes().getNamedItem("do_timeouts");
 	        				boolean do_timeouts = false;
 	        				if(do_timeouts_node != null){
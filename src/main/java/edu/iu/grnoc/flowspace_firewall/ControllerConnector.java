@@ -18,11 +18,13 @@ package edu.iu.grnoc.flowspace_firewall;
 import edu.iu.grnoc.flowspace_firewall.Proxy;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import net.floodlightcontroller.core.internal.OFMessageDecoder;
 import net.floodlightcontroller.core.internal.OFMessageEncoder;
@@ -32,36 +34,107 @@ import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.socket.SocketChannel;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
 import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
 import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Connects switches to the controller on whatever the timer
- * interval says to do it
+ * Connects proxies to their controllers.  A proxy is connected as soon
+ * as it is added and reconnected as soon as its channel closes, failed
+ * attempts back off (see ReconnectBackoff) and all attempts together are
+ * held to the connect rate so a switch full of slices coming back at once
+ * does not open every channel in the same instant.
+ * The attempts run on the netty timer, the java timer only fires
+ * a scan every so often to catch anything that was missed (ie... a slice
+ * that was re-enabled)
  * @author aragusa
  *
  */
 public class ControllerConnector extends TimerTask {
+	public static final int DEFAULT_CONNECT_RATE = 20;
     private int workerThreads = 10;    
-	private HashMap <Long, List<Proxy>> proxies;
+	private ConcurrentHashMap <Long, CopyOnWriteArrayList<Proxy>> proxies;
+	private ConcurrentHashMap <Proxy, ReconnectBackoff> reconnects;
 	NioClientSocketChannelFactory channelCreator;
 	Timer timer;
+	//netty's defaults
+	private int writeLowWatermark = 32 * 1024;
+	private int writeHighWatermark = 64 * 1024;
+	private int outboundQueueSize = ControllerOutboundQueue.DEFAULT_CAPACITY;
+	//new channels per second across every proxy
+	private RateTracker connectRate;
+	private final Random random = new Random();
+	//runs the controller handler (slicing, toSwitch) off the I/O threads, null runs it inline
+	private ExecutionHandler executionHandler;
 	private static final Logger log = LoggerFactory.getLogger(ControllerConnector.class);
 	
 	public ControllerConnector(){
-		proxies = new HashMap<Long, List<Proxy>>();
+		proxies = new ConcurrentHashMap<Long, CopyOnWriteArrayList<Proxy>>();
+		reconnects = new ConcurrentHashMap<Proxy, ReconnectBackoff>();
 
 		channelCreator = new NioClientSocketChannelFactory(
                 Executors.newCachedThreadPool(),
                 Executors.newCachedThreadPool(), workerThreads);
 		timer = new HashedWheelTimer();
-		
+		connectRate = new RateTracker(100, DEFAULT_CONNECT_RATE);
+	}
+	
+	
+	/**
+	 * sets the write watermarks (in bytes) of new controller channels
+	 * above high the controller is backed up until it drains below low
+	 * @param low
+	 * @param high
+	 */
+	public synchronized void setWriteWatermarks(int low, int high){
+		if(low < 0 || low >= high){
+			throw new IllegalArgumentException("write low watermark must be below the high watermark");
+		}
+		this.writeLowWatermark = low;
+		this.writeHighWatermark = high;
+	}
+	
+	/**
+	 * sets how many messages can wait for a backed up controller
+	 * @param size
+	 */
+	public synchronized void setOutboundQueueSize(int size){
+		this.outboundQueueSize = size;
+	}
+	
+	/**
+	 * sets how many new controller channels can be opened per second
+	 * @param rate
+	 */
+	public void setConnectRate(int rate){
+		this.connectRate.setRate(rate);
 	}
 	
+	/**
+	 * moves the handling of controller messages onto a pool so the
+	 * I/O threads only decode.  Messages from one controller are still
+	 * handled in order, and a channel stops being read once the messages
+	 * it has waiting go over channelMemory bytes (or all channels together
+	 * go over totalMemory).  Only affects channels created after this
+	 * @param threads 0 handles messages on the I/O threads
+	 * @param channelMemory
+	 * @param totalMemory
+	 */
+	public synchronized void setSlicingPool(int threads, long channelMemory, long totalMemory){
+		if(threads <= 0){
+			this.executionHandler = null;
+			return;
+		}
+		this.executionHandler = new ExecutionHandler(
+				new OrderedMemoryAwareThreadPoolExecutor(threads, channelMemory, totalMemory,
+						30, TimeUnit.SECONDS, new OFMessageSizeEstimator(), Executors.defaultThreadFactory()));
+	}
 	
 	/**
 	 * creates a new pipeline for interacting with the
@@ -69,12 +142,14 @@ public class ControllerConnector extends TimerTask {
 	 * the timeouthandler come into play
 	 * @return the pipeline (ChannelPipeline) for a new Socket.
 	 */
-	private ChannelPipeline getPipeline(){
+	private synchronized ChannelPipeline getPipeline(){
 		ChannelPipeline pipe = Channels.pipeline();
 	    
 		ChannelHandler idleHandler = new IdleStateHandler(timer, 20, 25, 0);
 	    ChannelHandler readTimeoutHandler = new ReadTimeoutHandler(timer, 30);
 	    OFControllerChannelHandler controllerHandler = new OFControllerChannelHandler();
+	    controllerHandler.setOutboundQueueSize(outboundQueueSize);
+	    controllerHandler.setConnector(this);
 		
         pipe.addLast("ofmessagedecoder", new OFMessageDecoder());
         pipe.addLast("ofmessageencoder", new OFMessageEncoder());
@@ -82,31 +157,99 @@ public class ControllerConnector extends TimerTask {
         pipe.addLast("timeout", readTimeoutHandler);
         pipe.addLast("handshaketimeout",
                      new ControllerHandshakeTimeoutHandler(controllerHandler, timer, 15));
+        if(executionHandler != null){
+        	pipe.addLast("execution", executionHandler);
+        }
         pipe.addLast("handler", controllerHandler);
         return pipe;
 	}
 	
 	/**
 	 * everytime the timer fires run this!
-	 * Looks through every proxy and determines if the proxy needs to 
-	 * attempt to connect to the controller.
+	 * Looks through every proxy and schedules a connect for any
+	 * that is not connected and has nothing pending
 	 */
-	public synchronized void run(){
+	public void run(){
 		log.debug("Looking for controllers not currently connected");
-		Iterator <Long> it = proxies.keySet().iterator();
-		while(it.hasNext()){
-			List <Proxy> ps = proxies.get(it.next());
-			Iterator <Proxy> proxyIt = ps.iterator();
-			while(proxyIt.hasNext()){
-				Proxy p = proxyIt.next();
-				log.debug("Proxy for " + p.getSwitch().getStringId() + " " + p.getSlicer().getControllerAddress().toString() + " is connected: " + p.connected());
-				if(!p.connected() && p.getAdminStatus()){
-					log.debug("Creating new Channel to " + p.getSlicer().getControllerAddress().toString() + " for switch: " + p.getSwitch().getStringId());
-					SocketChannel controller_channel = channelCreator.newChannel(getPipeline());
-					p.connect(controller_channel);
+		for(Proxy p : this.getAllProxies()){
+			log.debug("Proxy for " + p.getSwitch().getStringId() + " " + p.getSlicer().getControllerAddress().toString() + " is connected: " + p.connected());
+			if(!p.connected() && p.getAdminStatus()){
+				this.scheduleConnect(p);
+			}
+		}
+	}
+	
+	/**
+	 * schedules the next connect attempt for the proxy unless one is pending
+	 * @param p
+	 */
+	private void scheduleConnect(Proxy p){
+		ReconnectBackoff backoff = reconnects.get(p);
+		if(backoff == null || !backoff.startAttempt()){
+			return;
+		}
+		this.schedule(p, backoff, backoff.nextDelay(random));
+	}
+	
+	private void schedule(final Proxy p, final ReconnectBackoff backoff, long delay){
+		timer.newTimeout(new org.jboss.netty.util.TimerTask(){
+			@Override
+			public void run(Timeout timeout){
+				connect(p, backoff);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * runs on the netty timer, opens the channel if the proxy still needs one
+	 */
+	private void connect(Proxy p, ReconnectBackoff backoff){
+		if(reconnects.get(p) != backoff || !p.getAdminStatus() || p.connected()){
+			//removed, disabled or connected since it was scheduled
+			backoff.cancelAttempt();
+			return;
+		}
+		if(!connectRate.okToProcess()){
+			//over the connect rate, try again once there is room
+			this.schedule(p, backoff, 1000 / Math.max(1, connectRate.getMaxRate()) + random.nextInt(100));
+			return;
+		}
+		try{
+			log.debug("Creating new Channel to " + p.getSlicer().getControllerAddress().toString() + " for switch: " + p.getSwitch().getStringId());
+			SocketChannel controller_channel = channelCreator.newChannel(getPipeline());
+			synchronized(this){
+				//netty refuses a high watermark below the current low one and vice versa
+				//so set them in whichever order keeps them valid
+				if(writeHighWatermark >= 32 * 1024){
+					controller_channel.getConfig().setOption("writeBufferHighWaterMark", writeHighWatermark);
+					controller_channel.getConfig().setOption("writeBufferLowWaterMark", writeLowWatermark);
+				}else{
+					controller_channel.getConfig().setOption("writeBufferLowWaterMark", writeLowWatermark);
+					controller_channel.getConfig().setOption("writeBufferHighWaterMark", writeHighWatermark);
 				}
 			}
-			
+			p.connect(controller_channel);
+		}catch(Exception e){
+			log.error("Unable to connect slice " + p.getSlicer().getSliceName() + " to its controller: " + e.getMessage(), e);
+			backoff.attemptDone(false);
+		}
+	}
+	
+	/**
+	 * called by the channel handler when a controller channel closes
+	 * schedules the reconnect right away, backed off if it never came up
+	 * @param p
+	 * @param established true if the handshake completed on the channel
+	 */
+	public void channelClosed(Proxy p, boolean established){
+		ReconnectBackoff backoff = reconnects.get(p);
+		if(backoff == null){
+			//proxy was removed
+			return;
+		}
+		backoff.attemptDone(established);
+		if(p.getAdminStatus()){
+			this.scheduleConnect(p);
 		}
 	}
 	
@@ -114,49 +257,68 @@ public class ControllerConnector extends TimerTask {
 	 * get a list of proxies for a given switch
 	 * @param switchId (Long)
 	 * @return List <Proxy> getSwitchProxies
-	 * synchronized for thread safty
+	 * safe to iterate while proxies are added and removed
 	 */
-	public synchronized List <Proxy> getSwitchProxies(Long switchId){
+	public List <Proxy> getSwitchProxies(Long switchId){
 		log.debug("Looking for switchID: " + switchId);
 		return proxies.get(switchId);
 	}
 	
 	/**
-	 * adds a proxy to the 
+	 * adds a proxy to the list and connects it
 	 * @param switchId
 	 * @param p
-	 * synchronized for thread safty
 	 */
-	public synchronized void addProxy(Long switchId, Proxy p){
-		if(!proxies.containsKey(switchId)){
-			List <Proxy> proxyList = new ArrayList<Proxy>();
-			proxyList.add(p);
-			proxies.put(switchId, proxyList);
-		}else{
-			proxies.get(switchId).add(p);
+	public void addProxy(Long switchId, Proxy p){
+		CopyOnWriteArrayList <Proxy> proxyList = proxies.get(switchId);
+		if(proxyList == null){
+			proxyList = new CopyOnWriteArrayList<Proxy>();
+			CopyOnWriteArrayList <Proxy> existing = proxies.putIfAbsent(switchId, proxyList);
+			if(existing != null){
+				proxyList = existing;
+			}
 		}
+		proxyList.add(p);
+		reconnects.put(p, new ReconnectBackoff());
+		this.scheduleConnect(p);
 	}
 	
 	/**
 	 * removes a proxy from the list
 	 * @param switchId
 	 * @param p
-	 * synchronized for thread safty
 	 */
-	public synchronized void removeProxy(Long switchId, Proxy p){
-		if(proxies.containsKey(switchId)){
-			List <Proxy> proxyList = proxies.get(switchId);
+	public void removeProxy(Long switchId, Proxy p){
+		reconnects.remove(p);
+		List <Proxy> proxyList = proxies.get(switchId);
+		if(proxyList != null){
 			proxyList.remove(p);
 		}
 	}
 	
+	/**
+	 * removes every proxy of a switch
+	 * @param switchId
+	 * @return the proxies removed, empty if there were none
+	 */
+	public List<Proxy> removeSwitch(Long switchId){
+		List <Proxy> proxyList = proxies.remove(switchId);
+		if(proxyList == null){
+			return new ArrayList<Proxy>();
+		}
+		for(Proxy p : proxyList){
+			reconnects.remove(p);
+		}
+		return proxyList;
+	}
+	
 	/**
 	 * 
 	 */
-	public synchronized List<Proxy> getAllProxies(){
+	public List<Proxy> getAllProxies(){
 		List <Proxy> allProxies = new ArrayList<Proxy>();
-		for(Long dpid : proxies.keySet()){
-			allProxies.addAll(proxies.get(dpid));
+		for(List<Proxy> proxyList : proxies.values()){
+			allProxies.addAll(proxyList);
 		}
 		return allProxies;
 	}
@@ -0,0 +1,178 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+
+import org.openflow.protocol.OFType;
+
+/**
+ * Bounded queue for the messages to a controller that were sent
+ * while its channel was over the write high watermark.
+ * When full, packet ins are dropped first then async events
+ * (flow removed, port status).  Replies and errors are never dropped,
+ * they are queued past the bound since the controller asked for them
+ * and it can only ask for so many while its channel is backed up
+ * @author aragusa
+ *
+ */
+
+public class ControllerOutboundQueue {
+
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	private static final int DROP_FIRST = 0;
+	private static final int DROP_SECOND = 1;
+	private static final int NEVER_DROP = 2;
+
+	/**
+	 * a queued write, either a list of OFMessages or an encoded buffer
+	 */
+	public static class Entry {
+		private final Object payload;
+		private final OFType type;
+
+		private Entry(Object payload, OFType type){
+			this.payload = payload;
+			this.type = type;
+		}
+
+		public Object getPayload(){
+			return payload;
+		}
+
+		public OFType getType(){
+			return type;
+		}
+	}
+
+	private final ArrayDeque<Entry> queue;
+	private int capacity;
+	private long dropped = 0;
+
+	public ControllerOutboundQueue(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ControllerOutboundQueue(int capacity){
+		this.queue = new ArrayDeque<Entry>();
+		this.setCapacity(capacity);
+	}
+
+	private static int dropClass(OFType type){
+		switch(type){
+		case PACKET_IN:
+			return DROP_FIRST;
+		case FLOW_REMOVED:
+		case PORT_STATUS:
+			return DROP_SECOND;
+		default:
+			return NEVER_DROP;
+		}
+	}
+
+	/**
+	 * queues a write, making room by dropping a less important one if full
+	 * @param payload what gets written to the channel
+	 * @param type the type of the message(s) in the payload
+	 * @return false if the write itself was dropped
+	 */
+	public synchronized boolean offer(Object payload, OFType type){
+		return this.offer(payload, type, null);
+	}
+
+	/**
+	 * queues a write, making room by dropping a less important one if full
+	 * @param payload what gets written to the channel
+	 * @param type the type of the message(s) in the payload
+	 * @param evicted gets the queued writes dropped to make room, can be null
+	 * @return false if the write itself was dropped
+	 */
+	public synchronized boolean offer(Object payload, OFType type, List<Entry> evicted){
+		if(queue.size() >= capacity){
+			int dropClass = dropClass(type);
+			if(dropClass == DROP_FIRST){
+				dropped++;
+				return false;
+			}
+			if(!this.removeFirst(DROP_FIRST, evicted)){
+				if(dropClass == DROP_SECOND){
+					dropped++;
+					return false;
+				}
+				//a reply or error goes in over the bound if nothing can go
+				this.removeFirst(DROP_SECOND, evicted);
+			}
+		}
+		queue.add(new Entry(payload, type));
+		return true;
+	}
+
+	/**
+	 * removes the oldest queued write of the drop class
+	 */
+	private boolean removeFirst(int dropClass, List<Entry> evicted){
+		Iterator<Entry> it = queue.iterator();
+		while(it.hasNext()){
+			Entry entry = it.next();
+			if(dropClass(entry.getType()) == dropClass){
+				it.remove();
+				dropped++;
+				if(evicted != null){
+					evicted.add(entry);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized Entry poll(){
+		return queue.poll();
+	}
+
+	public synchronized boolean isEmpty(){
+		return queue.isEmpty();
+	}
+
+	public synchronized int size(){
+		return queue.size();
+	}
+
+	public synchronized void clear(){
+		queue.clear();
+	}
+
+	/**
+	 * total writes dropped
+	 */
+	public synchronized long getDropped(){
+		return dropped;
+	}
+
+	public synchronized int getCapacity(){
+		return capacity;
+	}
+
+	public synchronized void setCapacity(int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("outbound queue needs room for at least 1 message");
+		}
+		this.capacity = capacity;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+/**
+ * A multipart stats reply that has already been encoded
+ * The encoded bytes are read-only and shared, every request
+ * gets its own copy of the chunk headers with its xid patched
+ * in and slices of the shared body
+ * @author aragusa
+ *
+ */
+
+public class EncodedStatsReply {
+
+	//offset of the xid in the OpenFlow header
+	private static final int XID_OFFSET = 4;
+
+	private final ChannelBuffer encoded;
+	//start of each chunk in the encoded buffer, the last entry is the end
+	private final int[] offsets;
+	//what the stats were filtered/translated for (managed tag mode, the slice's ports...)
+	private final Object view;
+	private final int maxLength;
+
+	private EncodedStatsReply(ChannelBuffer encoded, int[] offsets, Object view, int maxLength){
+		this.encoded = encoded;
+		this.offsets = offsets;
+		this.view = view;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * packs and encodes the stats
+	 * @param stats
+	 * @param type
+	 * @param view
+	 * @param maxLength
+	 * @return
+	 */
+	public static EncodedStatsReply encode(List<? extends OFStatistics> stats, OFStatisticsType type, Object view, int maxLength){
+		List<OFMessage> replies = StatsReplyPacker.pack(stats, type, 0, maxLength);
+		int total = 0;
+		for(OFMessage reply : replies){
+			total += reply.getLengthU();
+		}
+		ChannelBuffer buf = ChannelBuffers.buffer(total);
+		int[] offsets = new int[replies.size() + 1];
+		for(int i = 0; i < replies.size(); i++){
+			offsets[i] = buf.writerIndex();
+			replies.get(i).writeTo(buf);
+		}
+		offsets[replies.size()] = buf.writerIndex();
+		return new EncodedStatsReply(ChannelBuffers.unmodifiableBuffer(buf), offsets, view, maxLength);
+	}
+
+	/**
+	 * builds the wire form of the reply for the given xid
+	 * only the headers are copied, the bodies are shared
+	 * @param xid
+	 * @return
+	 */
+	public ChannelBuffer toReply(int xid){
+		int chunks = offsets.length - 1;
+		ChannelBuffer[] parts = new ChannelBuffer[chunks * 2];
+		for(int i = 0; i < chunks; i++){
+			int start = offsets[i];
+			int length = offsets[i + 1] - start;
+			ChannelBuffer header = encoded.copy(start, OFStatisticsReply.MINIMUM_LENGTH);
+			header.setInt(XID_OFFSET, xid);
+			parts[i * 2] = header;
+			parts[i * 2 + 1] = encoded.slice(start + OFStatisticsReply.MINIMUM_LENGTH, length - OFStatisticsReply.MINIMUM_LENGTH);
+		}
+		return ChannelBuffers.wrappedBuffer(parts);
+	}
+
+	public int getChunkCount(){
+		return offsets.length - 1;
+	}
+
+	public int getLength(){
+		return offsets[offsets.length - 1];
+	}
+
+	/**
+	 * returns true if this was encoded for the same view and length limit
+	 * @param view
+	 * @param maxLength
+	 * @return
+	 */
+	public boolean isEncodedFor(Object view, int maxLength){
+		return this.view.equals(view) && this.maxLength == maxLength;
+	}
+}
@@ -1,7 +1,9 @@
 package edu.iu.grnoc.flowspace_firewall;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import org.openflow.protocol.Wildcards;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.statistics.OFFlowStatisticsReply;
 
@@ -17,6 +19,11 @@ public class FSFWOFFlowStatisticsReply extends OFFlowStatisticsReply{
 	private String sliceName;
 	private FSFWOFFlowStatisticsReply parentStat;
 	private boolean hasParent = false;
+	//what a managed tag slice's controller sees, only the counters change after it is built
+	private OFFlowStatisticsReply controllerView;
+	//the switch's counters for this flow the last time we saw them
+	private long lastRawByteCount = 0;
+	private long lastRawPacketCount = 0;
 	
 	public boolean isVerified(){
 		return verified;
@@ -85,4 +92,113 @@ public class FSFWOFFlowStatisticsReply extends OFFlowStatisticsReply{
 		return true;
 	}
 	
+	/**
+	 * returns how many bytes the switch counted since the last time we saw
+	 * this flow.  A lower counter than last time means the flow was reinstalled
+	 * @param rawByteCount
+	 * @return
+	 */
+	public long getByteDelta(long rawByteCount){
+		if(rawByteCount < this.lastRawByteCount){
+			return rawByteCount;
+		}
+		return rawByteCount - this.lastRawByteCount;
+	}
+	
+	/**
+	 * returns how many packets the switch counted since the last time we saw this flow
+	 * @param rawPacketCount
+	 * @return
+	 */
+	public long getPacketDelta(long rawPacketCount){
+		if(rawPacketCount < this.lastRawPacketCount){
+			return rawPacketCount;
+		}
+		return rawPacketCount - this.lastRawPacketCount;
+	}
+	
+	public void setLastRawCounts(long rawByteCount, long rawPacketCount){
+		this.lastRawByteCount = rawByteCount;
+		this.lastRawPacketCount = rawPacketCount;
+	}
+	
+	/**
+	 * builds the tag stripped controller view of this flow
+	 * called once when the flow is added to the cache
+	 */
+	public void buildControllerView(){
+		this.controllerView = stripManagedTag(this);
+	}
+	
+	/**
+	 * returns a copy of the tag stripped controller view with the current
+	 * counters and table.  The stripped match and actions are built once
+	 * and shared, each call gets its own header so concurrent stats
+	 * requests never see each other's (or the next poll's) counters
+	 * @return
+	 */
+	public OFFlowStatisticsReply getControllerView(){
+		OFFlowStatisticsReply view = this.controllerView;
+		if(view == null){
+			//loaded from an older cache file or the slice became managed
+			this.buildControllerView();
+			view = this.controllerView;
+		}
+		OFFlowStatisticsReply copy = new OFFlowStatisticsReply();
+		copy.setMatch(view.getMatch());
+		copy.setPriority(view.getPriority());
+		copy.setIdleTimeout(view.getIdleTimeout());
+		copy.setHardTimeout(view.getHardTimeout());
+		copy.setCookie(view.getCookie());
+		copy.setActions(view.getActions());
+		copy.setLength(view.getLength());
+		copy.setByteCount(this.getByteCount());
+		copy.setPacketCount(this.getPacketCount());
+		copy.setDurationSeconds(this.getDurationSeconds());
+		copy.setDurationNanoseconds(this.getDurationNanoseconds());
+		copy.setTableId(this.getTableId());
+		return copy;
+	}
+	
+	/**
+	 * builds the view of a flow stat a managed tag slice's controller sees
+	 * the vlan is wildcarded in the match and any vlan actions are removed
+	 * @param stat
+	 * @return a new OFFlowStatisticsReply
+	 */
+	public static OFFlowStatisticsReply stripManagedTag(OFFlowStatisticsReply stat){
+		OFFlowStatisticsReply newStat = new OFFlowStatisticsReply();
+		newStat.setMatch(stat.getMatch().clone());
+		newStat.setPriority(stat.getPriority());
+		newStat.setIdleTimeout(stat.getIdleTimeout());
+		newStat.setHardTimeout(stat.getHardTimeout());
+		newStat.setPacketCount(stat.getPacketCount());
+		newStat.setByteCount(stat.getByteCount());
+		newStat.setDurationNanoseconds(stat.getDurationNanoseconds());
+		newStat.setDurationSeconds(stat.getDurationSeconds());
+		newStat.setTableId(stat.getTableId());
+		newStat.setCookie(stat.getCookie());
+		newStat.getMatch().setDataLayerVirtualLan((short)0);
+		newStat.getMatch().setWildcards(newStat.getMatch().getWildcardObj().wildcard(Wildcards.Flag.DL_VLAN));
+		List<OFAction> newActions = new ArrayList<OFAction>();
+		int actLength = 0;
+		for(OFAction act : stat.getActions()){
+			switch(act.getType()){
+			case SET_VLAN_ID:
+				break;
+			case SET_VLAN_PCP:
+				break;
+			case STRIP_VLAN:
+				break;
+			default:
+				newActions.add(act);
+				actLength += act.getLengthU();
+				break;
+			}
+		}
+		newStat.setActions(newActions);
+		newStat.setLength((short)(OFFlowStatisticsReply.MINIMUM_LENGTH + actLength));
+		return newStat;
+	}
+	
 }
@@ -0,0 +1,260 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.action.OFActionType;
+
+/**
+ * Static helpers for comparing OFMatches the way
+ * a switch does when it answers a (non-strict)
+ * flow stats or aggregate stats request
+ * @author aragusa
+ *
+ */
+
+public final class FlowMatcher {
+
+	public static final byte ALL_TABLES = (byte)0xff;
+
+	private FlowMatcher(){
+
+	}
+
+	/**
+	 * returns true if every field the query cares about
+	 * is also set in the flow to the same value
+	 * ie... the flow is at least as specific as the query
+	 * @param query
+	 * @param flow
+	 * @return boolean
+	 */
+	public static boolean subsumes(OFMatch query, OFMatch flow){
+		int qw = query.getWildcards();
+		int fw = flow.getWildcards();
+
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_IN_PORT,
+				query.getInputPort() == flow.getInputPort())){
+			return false;
+		}
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_DL_VLAN,
+				query.getDataLayerVirtualLan() == flow.getDataLayerVirtualLan())){
+			return false;
+		}
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_DL_VLAN_PCP,
+				query.getDataLayerVirtualLanPriorityCodePoint() == flow.getDataLayerVirtualLanPriorityCodePoint())){
+			return false;
+		}
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_DL_SRC,
+				Arrays.equals(query.getDataLayerSource(), flow.getDataLayerSource()))){
+			return false;
+		}
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_DL_DST,
+				Arrays.equals(query.getDataLayerDestination(), flow.getDataLayerDestination()))){
+			return false;
+		}
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_DL_TYPE,
+				query.getDataLayerType() == flow.getDataLayerType())){
+			return false;
+		}
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_NW_PROTO,
+				query.getNetworkProtocol() == flow.getNetworkProtocol())){
+			return false;
+		}
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_NW_TOS,
+				query.getNetworkTypeOfService() == flow.getNetworkTypeOfService())){
+			return false;
+		}
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_TP_SRC,
+				query.getTransportSource() == flow.getTransportSource())){
+			return false;
+		}
+		if(!fieldOk(qw, fw, OFMatch.OFPFW_TP_DST,
+				query.getTransportDestination() == flow.getTransportDestination())){
+			return false;
+		}
+		if(!matchPrefix(query.getNetworkSource(), query.getNetworkSourceMaskLen(),
+				flow.getNetworkSource(), flow.getNetworkSourceMaskLen())){
+			return false;
+		}
+		if(!matchPrefix(query.getNetworkDestination(), query.getNetworkDestinationMaskLen(),
+				flow.getNetworkDestination(), flow.getNetworkDestinationMaskLen())){
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * a field passes if the query wildcards it, or if both
+	 * the query and the flow set it to the same value
+	 */
+	private static boolean fieldOk(int queryWildcards, int flowWildcards, int flag, boolean equal){
+		if((queryWildcards & flag) != 0){
+			return true;
+		}
+		if((flowWildcards & flag) != 0){
+			//the query asks for a specific value but the flow matches anything
+			return false;
+		}
+		return equal;
+	}
+
+	private static boolean matchPrefix(int queryAddr, int queryLen, int flowAddr, int flowLen){
+		if(queryLen <= 0){
+			return true;
+		}
+		if(flowLen < queryLen){
+			return false;
+		}
+		int mask = prefixMask(queryLen);
+		return (queryAddr & mask) == (flowAddr & mask);
+	}
+
+	private static int prefixMask(int len){
+		if(len >= 32){
+			return 0xffffffff;
+		}
+		return ~(0xffffffff >>> len);
+	}
+
+	/**
+	 * returns a copy of the match with every wildcarded field zeroed,
+	 * the ip addresses masked to their prefix and the unused wildcard
+	 * bits dropped, so two matches a switch treats as the same flow are
+	 * equal and hash the same no matter what junk is in the ignored fields
+	 * @param match
+	 * @return
+	 */
+	public static OFMatch canonical(OFMatch match){
+		OFMatch key = match.clone();
+		int w = match.getWildcards() & OFMatch.OFPFW_ALL;
+		int srcLen = match.getNetworkSourceMaskLen();
+		int dstLen = match.getNetworkDestinationMaskLen();
+		//anything past 32 bits of wildcard means the whole address
+		w &= ~(OFMatch.OFPFW_NW_SRC_MASK | OFMatch.OFPFW_NW_DST_MASK);
+		w |= (32 - srcLen) << OFMatch.OFPFW_NW_SRC_SHIFT;
+		w |= (32 - dstLen) << OFMatch.OFPFW_NW_DST_SHIFT;
+		key.setWildcards(w);
+		key.setNetworkSource(match.getNetworkSource() & prefixMaskOrZero(srcLen));
+		key.setNetworkDestination(match.getNetworkDestination() & prefixMaskOrZero(dstLen));
+
+		if((w & OFMatch.OFPFW_IN_PORT) != 0){
+			key.setInputPort((short)0);
+		}
+		if((w & OFMatch.OFPFW_DL_VLAN) != 0){
+			key.setDataLayerVirtualLan((short)0);
+		}
+		if((w & OFMatch.OFPFW_DL_VLAN_PCP) != 0){
+			key.setDataLayerVirtualLanPriorityCodePoint((byte)0);
+		}
+		if((w & OFMatch.OFPFW_DL_SRC) != 0){
+			key.setDataLayerSource(new byte[6]);
+		}
+		if((w & OFMatch.OFPFW_DL_DST) != 0){
+			key.setDataLayerDestination(new byte[6]);
+		}
+		if((w & OFMatch.OFPFW_DL_TYPE) != 0){
+			key.setDataLayerType((short)0);
+		}
+		if((w & OFMatch.OFPFW_NW_PROTO) != 0){
+			key.setNetworkProtocol((byte)0);
+		}
+		if((w & OFMatch.OFPFW_NW_TOS) != 0){
+			key.setNetworkTypeOfService((byte)0);
+		}
+		if((w & OFMatch.OFPFW_TP_SRC) != 0){
+			key.setTransportSource((short)0);
+		}
+		if((w & OFMatch.OFPFW_TP_DST) != 0){
+			key.setTransportDestination((short)0);
+		}
+		return key;
+	}
+
+	private static int prefixMaskOrZero(int len){
+		if(len <= 0){
+			return 0;
+		}
+		return prefixMask(len);
+	}
+
+	/**
+	 * returns true if the match would match every packet
+	 * @param match
+	 * @return
+	 */
+	public static boolean isWildcardAll(OFMatch match){
+		if(match == null){
+			return true;
+		}
+		int all = OFMatch.OFPFW_IN_PORT | OFMatch.OFPFW_DL_VLAN | OFMatch.OFPFW_DL_VLAN_PCP
+				| OFMatch.OFPFW_DL_SRC | OFMatch.OFPFW_DL_DST | OFMatch.OFPFW_DL_TYPE
+				| OFMatch.OFPFW_NW_PROTO | OFMatch.OFPFW_NW_TOS | OFMatch.OFPFW_TP_SRC
+				| OFMatch.OFPFW_TP_DST;
+		if((match.getWildcards() & all) != all){
+			return false;
+		}
+		return match.getNetworkSourceMaskLen() == 0 && match.getNetworkDestinationMaskLen() == 0;
+	}
+
+	/**
+	 * returns true if the out_port restriction of a stats request
+	 * allows this action list.  OFPP_NONE means no restriction
+	 * @param actions
+	 * @param outPort
+	 * @return
+	 */
+	public static boolean outputsTo(List<OFAction> actions, short outPort){
+		if(outPort == OFPort.OFPP_NONE.getValue()){
+			return true;
+		}
+		if(actions == null){
+			return false;
+		}
+		for(OFAction act : actions){
+			if(act.getType() == OFActionType.OUTPUT){
+				if(((OFActionOutput)act).getPort() == outPort){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * returns true if the request's table_id allows the given table
+	 * @param requested
+	 * @param table
+	 * @return
+	 */
+	public static boolean inTable(byte requested, byte table){
+		return requested == ALL_TABLES || requested == table;
+	}
+
+	/**
+	 * returns true if a stats request with these filters
+	 * would return every flow
+	 */
+	public static boolean isUnfiltered(OFMatch match, short outPort, byte tableId){
+		return tableId == ALL_TABLES && outPort == OFPort.OFPP_NONE.getValue() && isWildcardAll(match);
+	}
+}
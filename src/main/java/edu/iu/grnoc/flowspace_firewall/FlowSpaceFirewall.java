@@ -23,7 +23,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathExpressionException;
@@ -42,10 +46,12 @@ import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.restserver.IRestApiService;
 
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.Wildcards;
+import org.openflow.protocol.statistics.OFAggregateStatisticsReply;
 import org.openflow.protocol.statistics.OFStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,12 +74,21 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 
     private Timer statsTimer;
     private Timer controllerConnectTimer;
+    private Timer timeoutTimer;
+    private Timer packetInTimer;
+    private FlowTimeoutWheel timeoutWheel;
     
     private ArrayList<HashMap<Long, Slicer>> slices;
     private List<IOFSwitch> switches;
     private FlowStatCacher statsCacher;
     private ControllerConnector controllerConnector;
     private HashMap<Long, SwitchConfig> switchConfigs;
+    //switch xid -> owning proxy and controller xid, one per switch
+    private ConcurrentHashMap<Long, XidMap> switchXidMaps = new ConcurrentHashMap<Long, XidMap>();
+    //only used when barrier_coalesce_window is set, one per switch
+    private ConcurrentHashMap<Long, BarrierCoalescer> barrierCoalescers = new ConcurrentHashMap<Long, BarrierCoalescer>();
+    //hands switch messages to the slices off the switch thread
+    private ExecutorService sliceWorkers;
     private FlowSpaceFirewallParams flowSpaceFirewallParams;
     protected IRestApiService restApi;
     
@@ -153,11 +168,65 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
         	if(slice.containsKey(switchId)){
         		Slicer vlanSlicer = slice.get(switchId);
         		//build the controller channel
-        		controllerConnector.addProxy(switchId, new Proxy(sw, vlanSlicer, this));
+        		controllerConnector.addProxy(switchId, this.buildProxy(sw, vlanSlicer));
         	}
         }
 	}
 	
+	/**
+	 * creates the proxy for a slice on a switch with the global params applied
+	 * @param sw
+	 * @param slicer
+	 * @return
+	 */
+	private Proxy buildProxy(IOFSwitch sw, Slicer slicer){
+		Proxy proxy = new Proxy(sw, slicer, this);
+		proxy.setXidMap(this.getSwitchXidMap(sw.getId()));
+		if(this.flowSpaceFirewallParams.getBarrierCoalesceWindow() > 0){
+			proxy.setBarrierCoalescer(this.getBarrierCoalescer(sw));
+		}
+		if(this.sliceWorkers != null){
+			proxy.setInbox(new ProxyInbox(proxy, this.sliceWorkers, this.flowSpaceFirewallParams.getSliceInboxSize()));
+		}
+		return proxy;
+	}
+	
+	/**
+	 * returns the barrier coalescer shared by every slice on the switch
+	 * creating it the first time
+	 * @param sw
+	 * @return
+	 */
+	private BarrierCoalescer getBarrierCoalescer(IOFSwitch sw){
+		BarrierCoalescer coalescer = this.barrierCoalescers.get(sw.getId());
+		if(coalescer == null){
+			coalescer = new BarrierCoalescer(sw, this.timeoutTimer, this.flowSpaceFirewallParams.getBarrierCoalesceWindow());
+			BarrierCoalescer existing = this.barrierCoalescers.putIfAbsent(sw.getId(), coalescer);
+			if(existing != null){
+				coalescer = existing;
+			}
+		}
+		return coalescer;
+	}
+	
+	/**
+	 * returns the xid map shared by every slice on the switch
+	 * creating it the first time
+	 * @param switchId
+	 * @return
+	 */
+	public XidMap getSwitchXidMap(long switchId){
+		XidMap xidMap = this.switchXidMaps.get(switchId);
+		if(xidMap == null){
+			xidMap = new XidMap(this.flowSpaceFirewallParams.getXidMapCapacity());
+			XidMap existing = this.switchXidMaps.putIfAbsent(switchId, xidMap);
+			if(existing != null){
+				xidMap = existing;
+			}
+		}
+		return xidMap;
+	}
+	
 	public void addFlowCache(long switchId, String sliceName, OFFlowMod flowMod, List<OFFlowMod> flows){
 		this.statsCacher.addFlowCache(switchId, sliceName,flowMod,flows);
 	}
@@ -170,6 +239,14 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 		return this.switches;
 	}
 
+	public FlowTimeoutWheel getTimeoutWheel(){
+		return this.timeoutWheel;
+	}
+	
+	public FlowSpaceFirewallParams getFlowSpaceFirewallParams(){
+		return this.flowSpaceFirewallParams;
+	}
+
 	public HashMap<Short, OFStatistics> getPortStats(long switchId){
 		return statsCacher.getPortStats(switchId);
 	}
@@ -182,6 +259,50 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 		return statsCacher.getSlicedFlowStats(switchId, sliceName);
 	}
 	
+	public List<OFStatistics> getSlicedFlowStats(long switchId, String sliceName, OFMatch match, short outPort, byte tableId){
+		return statsCacher.getSlicedFlowStats(switchId, sliceName, match, outPort, tableId);
+	}
+	
+	public OFAggregateStatisticsReply getSlicedAggregateStats(long switchId, String sliceName, OFMatch match, short outPort, byte tableId){
+		return statsCacher.getSlicedAggregateStats(switchId, sliceName, match, outPort, tableId);
+	}
+	
+	public EncodedStatsReply getEncodedSlicedFlowStats(long switchId, String sliceName, boolean managed, int maxLength){
+		return statsCacher.getEncodedSlicedFlowStats(switchId, sliceName, managed, maxLength);
+	}
+	
+	public List<OFStatistics> getSlicedTableStats(long switchId, String sliceName, int maxFlows){
+		return statsCacher.getSlicedTableStats(switchId, sliceName, maxFlows);
+	}
+	
+	public List<OFStatistics> getSlicedPortStats(long switchId, Set<Short> ports, short portNumber){
+		return statsCacher.getSlicedPortStats(switchId, ports, portNumber);
+	}
+	
+	public List<OFStatistics> getSlicedQueueStats(long switchId, Set<Short> ports, short portNumber, int queueId){
+		return statsCacher.getSlicedQueueStats(switchId, ports, portNumber, queueId);
+	}
+	
+	public EncodedStatsReply getEncodedSlicedPortStats(long switchId, String sliceName, Set<Short> ports, int maxLength){
+		return statsCacher.getEncodedSlicedPortStats(switchId, sliceName, ports, maxLength);
+	}
+	
+	public EncodedStatsReply getEncodedSlicedQueueStats(long switchId, String sliceName, Set<Short> ports, int maxLength){
+		return statsCacher.getEncodedSlicedQueueStats(switchId, sliceName, ports, maxLength);
+	}
+	
+	public HashMap<Short, HashMap<String, Object>> getPortCounterHistory(long switchId){
+		return statsCacher.getPortCounterHistory(switchId);
+	}
+	
+	public HashMap<String, Object> getSliceTraffic(long switchId, String sliceName){
+		return statsCacher.getSliceTraffic(switchId, sliceName);
+	}
+	
+	public HashMap<String, Object> getTopFlows(long switchId, String sliceName, int count){
+		return statsCacher.getTopFlows(switchId, sliceName, count);
+	}
+	
 	public List<OFStatistics> getStats(long switchId){
 		return statsCacher.getSwitchStats(switchId);
 	}
@@ -226,8 +347,8 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 	@Override
 	public void switchRemoved(long switchId) {
 		logger.debug("Switch removed!");
-		List <Proxy> proxies = controllerConnector.getSwitchProxies(switchId);
-		Iterator <Proxy> it = proxies.iterator();
+		//removed before the channels close so none of them reconnect
+		List <Proxy> proxies = controllerConnector.removeSwitch(switchId);
 
 		Iterator <IOFSwitch> switchIt = this.switches.iterator();
 		while(switchIt.hasNext()){
@@ -238,11 +359,15 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 		}
 				
 		this.statsCacher.clearCache(switchId);
+		this.switchXidMaps.remove(switchId);
+		BarrierCoalescer coalescer = this.barrierCoalescers.remove(switchId);
+		if(coalescer != null){
+			coalescer.clear();
+		}
 		
-		while(it.hasNext()){
-			Proxy p = it.next();
+		for(Proxy p : proxies){
 			p.disconnect();
-			it.remove();
+			p.cancelTimeouts();
 		}
 				
 	}
@@ -286,7 +411,10 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 	@Override
 	public void switchPortChanged(long switchId, ImmutablePort port,
 			PortChangeType type) {
-		//nothing to do here
+		if(type == PortChangeType.DELETE){
+			//stop reporting history for a port that is gone
+			this.statsCacher.portRemoved(switchId, port.getPortNumber());
+		}
 	}
 
 	@Override
@@ -344,7 +472,6 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 				if(!updated){
 					logger.debug("Slice "
 							+p.getSlicer().getSliceName()+":" + p.getSlicer().getSwitchName() +" was not found, removing");
-					p.disconnect();
 					toBeRemoved.add(p);
 				}
 			}
@@ -368,7 +495,7 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 							logger.debug("Switch was not connected... can't add the proxy");
 						}else{
 							Slicer vlanSlicer = slice.get(dpid);
-							controllerConnector.addProxy(dpid, new Proxy(sw, vlanSlicer, this));						
+							controllerConnector.addProxy(dpid, this.buildProxy(sw, vlanSlicer));						
 						}
 					}
 				}
@@ -376,7 +503,12 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 			
 			//remove any proxies that are to be removed
 			for(Proxy p: toBeRemoved){
+				p.getXidMap().removeOwner(p);
+				if(p.getBarrierCoalescer() != null){
+					p.getBarrierCoalescer().removeProxy(p);
+				}
 				this.removeProxy(p.getSwitch().getId(), p);
+				p.disconnect();
 				this.removeSlice(p.getSwitch().getId(), p.getSlicer().getSliceName());
 			}
 			
@@ -408,6 +540,36 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 			return Command.CONTINUE;
 		}
 		logger.debug("Received: " + msg.toString() + " from switch: " + sw.getStringId());
+		if(msg.getType() == OFType.FLOW_REMOVED){
+			//the stats thread counts what the flow did since the last poll
+			statsCacher.flowRemoved(sw.getId(), (OFFlowRemoved) msg);
+		}
+		if(msg.getType() == OFType.BARRIER_REPLY){
+			BarrierCoalescer coalescer = this.barrierCoalescers.get(sw.getId());
+			if(coalescer != null && coalescer.barrierReply(msg.getXid())){
+				return Command.CONTINUE;
+			}
+		}
+		if(msg.getType() == OFType.ERROR || msg.getType() == OFType.BARRIER_REPLY){
+			//replies to something a slice sent, only that slice gets it
+			XidMap xidMap = this.switchXidMaps.get(sw.getId());
+			Proxy owner = null;
+			if(xidMap != null){
+				owner = xidMap.getOwner(msg.getXid());
+			}
+			if(owner == null){
+				logger.debug("No slice sent xid " + msg.getXid() + " to switch: " + sw.getStringId());
+			}else if(!owner.getAdminStatus()){
+				logger.debug("slice disabled... skipping");
+			}else{
+				try{
+					owner.deliver(msg, cntx);
+				}catch (Exception e){
+					logger.error("FSFW experienced an error:" + e.getMessage(), e);
+				}
+			}
+			return Command.CONTINUE;
+		}
 		List <Proxy> proxies = controllerConnector.getSwitchProxies(sw.getId());
 		
 		if(proxies == null){
@@ -422,7 +584,7 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 			}else{
 				try{
 					logger.debug("attempting to send " + msg.toString() + " to slice: " + p.getSlicer().getSliceName() + " from switch: " + p.getSlicer().getSwitchName());
-					p.toController(msg,cntx);
+					p.deliver(msg,cntx);
 				}catch (Exception e){
 					//don't die please... just keep going and error the stack trace
 					logger.error("FSFW experienced an error:" + e.getMessage(), e);
@@ -537,16 +699,33 @@ public class FlowSpaceFirewall implements IFloodlightModule, IOFMessageListener,
 		floodlightProvider.addOFMessageListener(OFType.ERROR,this);
 		floodlightProvider.addOFMessageListener(OFType.FLOW_REMOVED, this);
 		switches = Collections.synchronizedList(new ArrayList<IOFSwitch>());
+		//software flow timeouts, independent of the stats poller
+		long resolution = this.flowSpaceFirewallParams.getTimeoutResolution();
+		timeoutWheel = new FlowTimeoutWheel(resolution, FlowTimeoutWheel.DEFAULT_WHEEL_SIZE, this.flowSpaceFirewallParams.getIdleProbeLead());
+		timeoutTimer = new Timer("FlowTimeoutTimer");
+		timeoutTimer.scheduleAtFixedRate(timeoutWheel, resolution, resolution);
 		//start up the stats collector timer
 		statsTimer = new Timer("StatsTimer");
 		statsCacher = new FlowStatCacher(this);
 		this.statsCacher.loadCache();
+		this.statsCacher.setTopFlowCount(this.flowSpaceFirewallParams.getTopFlows());
 		statsTimer.scheduleAtFixedRate(statsCacher, 0, this.flowSpaceFirewallParams.getStatsPollInterval() * 1000);
 		
+		sliceWorkers = Executors.newFixedThreadPool(this.flowSpaceFirewallParams.getSliceWorkerThreads());
+		
 		//start up the controller connector timer
 		controllerConnectTimer = new Timer("ControllerConnectionTimer");
 		controllerConnector = new ControllerConnector();
+		controllerConnector.setWriteWatermarks(this.flowSpaceFirewallParams.getControllerLowWatermark(), this.flowSpaceFirewallParams.getControllerHighWatermark());
+		controllerConnector.setOutboundQueueSize(this.flowSpaceFirewallParams.getControllerQueueSize());
+		controllerConnector.setConnectRate(this.flowSpaceFirewallParams.getControllerConnectRate());
+		controllerConnector.setSlicingPool(this.flowSpaceFirewallParams.getSlicingThreads(),
+				this.flowSpaceFirewallParams.getSlicingChannelMemory(), this.flowSpaceFirewallParams.getSlicingTotalMemory());
 		controllerConnectTimer.scheduleAtFixedRate(controllerConnector, 0, 10 * 1000);
+		//queued packet ins go out at the timeout resolution, on their own timer
+		//so a slow controller write never holds up timeouts or barriers
+		packetInTimer = new Timer("PacketInTimer");
+		packetInTimer.scheduleAtFixedRate(new PacketInDrainer(controllerConnector), resolution, resolution);
 		
 		restApi.addRestletRoutable(new FlowSpaceFirewallWebRoutable());
 		
@@ -1,10 +1,70 @@
 package edu.iu.grnoc.flowspace_firewall;
 
 public class FlowSpaceFirewallParams {
+	//a stats reply must at least fit a single flow stat with a few actions
+	public static final int MIN_STATS_REPLY_MAX_LENGTH = 1024;
+	public static final int DEFAULT_STATS_REPLY_MAX_LENGTH = StatsReplyPacker.MAX_LENGTH;
+	public static final int DEFAULT_TOP_FLOWS = 10;
+	public static final int MAX_TOP_FLOWS = 1000;
+	//milliseconds, how late a software timeout may fire
+	public static final int MIN_TIMEOUT_RESOLUTION = 10;
+	public static final int MAX_TIMEOUT_RESOLUTION = 10000;
+	//milliseconds before an idle deadline to probe the flow, 0 disables
+	public static final int MAX_IDLE_PROBE_LEAD = 60000;
+	//bytes buffered for a controller channel before it counts as backed up, and below which it recovers
+	public static final int DEFAULT_CONTROLLER_HIGH_WATERMARK = 64 * 1024;
+	public static final int DEFAULT_CONTROLLER_LOW_WATERMARK = 32 * 1024;
+	public static final int MAX_CONTROLLER_WATERMARK = 64 * 1024 * 1024;
+	public static final int MAX_CONTROLLER_QUEUE_SIZE = 100000;
+	//milliseconds slice barriers wait to share one switch barrier, 0 disables
+	public static final int MAX_BARRIER_COALESCE_WINDOW = 1000;
+	//new controller channels per second across every slice
+	public static final int MAX_CONTROLLER_CONNECT_RATE = 10000;
+	//threads handing switch messages to the slices, and how many can wait per slice
+	public static final int DEFAULT_SLICE_WORKER_THREADS = 4;
+	public static final int MAX_SLICE_WORKER_THREADS = 256;
+	public static final int MAX_SLICE_INBOX_SIZE = 100000;
+	//threads slicing controller messages, 0 slices on the I/O threads
+	public static final int DEFAULT_SLICING_THREADS = 8;
+	public static final int MAX_SLICING_THREADS = 256;
+	//bytes of controller messages waiting to be sliced, per channel and in total, 0 is unbounded
+	public static final int DEFAULT_SLICING_CHANNEL_MEMORY = 1024 * 1024;
+	public static final int DEFAULT_SLICING_TOTAL_MEMORY = 64 * 1024 * 1024;
+	
 	private int stats_poll_interval;
+	private int stats_reply_max_length;
+	private int top_flows;
+	private int timeout_resolution;
+	private int idle_probe_lead;
+	private int controller_high_watermark;
+	private int controller_low_watermark;
+	private int controller_queue_size;
+	private int xid_map_capacity;
+	private int barrier_coalesce_window;
+	private int controller_connect_rate;
+	private int slice_worker_threads;
+	private int slice_inbox_size;
+	private int slicing_threads;
+	private int slicing_channel_memory;
+	private int slicing_total_memory;
 	
 	public FlowSpaceFirewallParams(){
 		this.stats_poll_interval = 10; // 10 seconds is the default polling interval.
+		this.stats_reply_max_length = DEFAULT_STATS_REPLY_MAX_LENGTH;
+		this.top_flows = DEFAULT_TOP_FLOWS;
+		this.timeout_resolution = (int) FlowTimeoutWheel.DEFAULT_RESOLUTION;
+		this.idle_probe_lead = (int) FlowTimeoutWheel.DEFAULT_PROBE_LEAD;
+		this.controller_high_watermark = DEFAULT_CONTROLLER_HIGH_WATERMARK;
+		this.controller_low_watermark = DEFAULT_CONTROLLER_LOW_WATERMARK;
+		this.controller_queue_size = ControllerOutboundQueue.DEFAULT_CAPACITY;
+		this.xid_map_capacity = XidMap.DEFAULT_CAPACITY;
+		this.barrier_coalesce_window = 0; // every slice barrier goes to the switch by default
+		this.controller_connect_rate = ControllerConnector.DEFAULT_CONNECT_RATE;
+		this.slice_worker_threads = DEFAULT_SLICE_WORKER_THREADS;
+		this.slice_inbox_size = ProxyInbox.DEFAULT_CAPACITY;
+		this.slicing_threads = DEFAULT_SLICING_THREADS;
+		this.slicing_channel_memory = DEFAULT_SLICING_CHANNEL_MEMORY;
+		this.slicing_total_memory = DEFAULT_SLICING_TOTAL_MEMORY;
 	}
 
 	public void setStatsPollInterval(int newInterval){
@@ -14,4 +74,124 @@ public class FlowSpaceFirewallParams {
 	public int getStatsPollInterval(){
 		return this.stats_poll_interval;
 	}
+	
+	public void setStatsReplyMaxLength(int maxLength){
+		this.stats_reply_max_length = maxLength;
+	}
+	
+	public int getStatsReplyMaxLength(){
+		return this.stats_reply_max_length;
+	}
+	
+	public void setTopFlows(int topFlows){
+		this.top_flows = topFlows;
+	}
+	
+	public int getTopFlows(){
+		return this.top_flows;
+	}
+	
+	public void setTimeoutResolution(int resolution){
+		this.timeout_resolution = resolution;
+	}
+	
+	public int getTimeoutResolution(){
+		return this.timeout_resolution;
+	}
+	
+	public void setIdleProbeLead(int lead){
+		this.idle_probe_lead = lead;
+	}
+	
+	public int getIdleProbeLead(){
+		return this.idle_probe_lead;
+	}
+	
+	public void setControllerHighWatermark(int watermark){
+		this.controller_high_watermark = watermark;
+	}
+	
+	public int getControllerHighWatermark(){
+		return this.controller_high_watermark;
+	}
+	
+	public void setControllerLowWatermark(int watermark){
+		this.controller_low_watermark = watermark;
+	}
+	
+	public int getControllerLowWatermark(){
+		return this.controller_low_watermark;
+	}
+	
+	public void setControllerQueueSize(int size){
+		this.controller_queue_size = size;
+	}
+	
+	public int getControllerQueueSize(){
+		return this.controller_queue_size;
+	}
+	
+	public void setXidMapCapacity(int capacity){
+		this.xid_map_capacity = capacity;
+	}
+	
+	public int getXidMapCapacity(){
+		return this.xid_map_capacity;
+	}
+	
+	public void setBarrierCoalesceWindow(int window){
+		this.barrier_coalesce_window = window;
+	}
+	
+	public int getBarrierCoalesceWindow(){
+		return this.barrier_coalesce_window;
+	}
+	
+	public void setControllerConnectRate(int rate){
+		this.controller_connect_rate = rate;
+	}
+	
+	public int getControllerConnectRate(){
+		return this.controller_connect_rate;
+	}
+	
+	public void setSliceWorkerThreads(int threads){
+		this.slice_worker_threads = threads;
+	}
+	
+	public int getSliceWorkerThreads(){
+		return this.slice_worker_threads;
+	}
+	
+	public void setSliceInboxSize(int size){
+		this.slice_inbox_size = size;
+	}
+	
+	public int getSliceInboxSize(){
+		return this.slice_inbox_size;
+	}
+	
+	public void setSlicingThreads(int threads){
+		this.slicing_threads = threads;
+	}
+	
+	public int getSlicingThreads(){
+		return this.slicing_threads;
+	}
+	
+	public void setSlicingChannelMemory(int bytes){
+		this.slicing_channel_memory = bytes;
+	}
+	
+	public int getSlicingChannelMemory(){
+		return this.slicing_channel_memory;
+	}
+	
+	public void setSlicingTotalMemory(int bytes){
+		this.slicing_total_memory = bytes;
+	}
+	
+	public int getSlicingTotalMemory(){
+		return this.slicing_total_memory;
+	}
 }
@@ -22,19 +22,27 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.Map.Entry;
 
 import net.floodlightcontroller.core.IOFSwitch;
 
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionType;
+import org.openflow.protocol.statistics.OFAggregateStatisticsReply;
 import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+import org.openflow.protocol.statistics.OFQueueStatisticsReply;
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.openflow.protocol.statistics.OFTableStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPort;
 import org.openflow.protocol.Wildcards;
 
 /**
@@ -53,21 +61,57 @@ public class FlowStatCache{
 	//the cache
 	private HashMap<Long, List<OFStatistics>> flowStats;
 	private HashMap<Long, HashMap<Short, OFStatistics>> portStats;
+	private HashMap<Long, List<OFStatistics>> tableStats;
+	private HashMap<Long, List<OFStatistics>> queueStats;
+	private HashMap<Long, HashMap<Short, PortCounterHistory>> portHistory;
+	private HashMap<Long, HashMap<String, SliceTrafficHistory>> traffic;
+	private HashMap<Long, HashMap<String, SliceTrafficHistory.Interval>> pendingTraffic;
+	private HashMap<Long, HashMap<String, TopFlows>> topFlows;
+	private int topFlowCount = FlowSpaceFirewallParams.DEFAULT_TOP_FLOWS;
 	private HashMap<Long, HashMap<String, List<OFStatistics>>> sliced;
 	private HashMap<Long, HashMap<OFMatch, FSFWOFFlowStatisticsReply>> map;
+	private HashMap<Long, HashMap<String, FlowStatIndex>> indexes;
+	private HashMap<Long, HashMap<String, SliceAggregateStats>> aggregates;
+	private HashMap<Long, HashMap<String, EncodedStatsReply>> encoded;
+	private HashMap<Long, HashMap<String, EncodedStatsReply>> encodedPorts;
+	private HashMap<Long, HashMap<String, EncodedStatsReply>> encodedQueues;
 	
 
 	private FlowSpaceFirewall parent;
 	
+	//queue_id that means every queue
+	public static final int OFP_QUEUE_ALL = 0xffffffff;
+	
 	public FlowStatCache(FlowSpaceFirewall parent){
 		//this is the raw flowStats from the switch
 		flowStats = new HashMap<Long, List<OFStatistics>>();
 		//this is the raw portStat from the switch
 		portStats = new HashMap<Long, HashMap<Short, OFStatistics>>();
+		//this is the raw tableStats from the switch
+		tableStats = new HashMap<Long, List<OFStatistics>>();
+		//this is the raw queueStats from the switch
+		queueStats = new HashMap<Long, List<OFStatistics>>();
+		//the last hour or so of port counters so we can compute rates
+		portHistory = new HashMap<Long, HashMap<Short, PortCounterHistory>>();
+		//per slice traffic between polls
+		traffic = new HashMap<Long, HashMap<String, SliceTrafficHistory>>();
+		//traffic of flows removed since the last poll
+		pendingTraffic = new HashMap<Long, HashMap<String, SliceTrafficHistory.Interval>>();
+		//heaviest flows of each slice during the last poll
+		topFlows = new HashMap<Long, HashMap<String, TopFlows>>();
 		//this is the mapping from DPID OFMatch to FlowMod
 		map = new HashMap<Long, HashMap<OFMatch, FSFWOFFlowStatisticsReply>>();
 		//this is the results to be returned when requested
 		sliced = new HashMap<Long, HashMap<String, List<OFStatistics>>>();
+		//index over the sliced results so stats requests can be filtered
+		indexes = new HashMap<Long, HashMap<String, FlowStatIndex>>();
+		//running totals of the sliced results for aggregate requests
+		aggregates = new HashMap<Long, HashMap<String, SliceAggregateStats>>();
+		//the encoded flow stats reply for each slice, valid until the cache changes
+		encoded = new HashMap<Long, HashMap<String, EncodedStatsReply>>();
+		//the encoded port and queue stats replies for each slice, valid until the next poll
+		encodedPorts = new HashMap<Long, HashMap<String, EncodedStatsReply>>();
+		encodedQueues = new HashMap<Long, HashMap<String, EncodedStatsReply>>();
 		//need one more to track the lastSeen time
 		this.parent = parent;
 	}
@@ -111,6 +155,10 @@ public class FlowStatCache{
 					stat.setLastSeen(time);
 				}
 			}
+			this.rebuildIndexes();
+			//the totals get rebuilt on the next poll
+			this.aggregates.clear();
+			this.encoded.clear();
 			
 		} catch (ClassNotFoundException e) {
 			// TODO Auto-generated catch block
@@ -121,6 +169,7 @@ public class FlowStatCache{
 	
 	public synchronized void delFlowMod(long dpid, String sliceName, OFFlowMod flow,List<OFFlowMod> flows){
 		log.error("Deleting flow " + flow.toString());
+		this.invalidateEncoded(dpid, sliceName);
 		if(!map.containsKey(dpid)){
 			log.debug("No map exists!");
 			return;
@@ -134,7 +183,7 @@ public class FlowStatCache{
 				FSFWOFFlowStatisticsReply stat = flowMap.get(sent_flow.getMatch());
 				if(stat.hasParent()){
 					log.debug("Setting parent to deleted");
-					stat.getParentStat().setToBeDeleted(true);
+					this.flagForDelete(dpid, stat.getParentStat());
 				}
 				stat.setToBeDeleted(true);
 				log.debug("Setting flow mod and parent to be deleted");
@@ -152,13 +201,29 @@ public class FlowStatCache{
 				for(OFStatistics stat : stats){
 					FSFWOFFlowStatisticsReply fsfwStat = (FSFWOFFlowStatisticsReply) stat;
 					if(fsfwStat.getMatch().equals(flow.getMatch())){
-						fsfwStat.setToBeDeleted(true);
+						this.flagForDelete(dpid, fsfwStat);
 					}
 				}
 			}
 		}		
 	}
 	
+	/**
+	 * flags a controller side stat to be deleted and takes it
+	 * out of the slice totals if it was counted in them
+	 * @param dpid
+	 * @param stat
+	 */
+	private void flagForDelete(long dpid, FSFWOFFlowStatisticsReply stat){
+		if(!stat.toBeDeleted() && stat.isVerified() && !stat.hasParent()){
+			HashMap<String, SliceAggregateStats> switchAggregates = aggregates.get(dpid);
+			if(switchAggregates != null && switchAggregates.containsKey(stat.getSliceName())){
+				switchAggregates.get(stat.getSliceName()).subtract(stat);
+			}
+		}
+		stat.setToBeDeleted(true);
+	}
+	
 	/**
 	 * builds a flowStat from an OFFlowMOd
 	 * @param flow
@@ -194,6 +259,11 @@ public class FlowStatCache{
 		//create a flow stat reply and set the cache to it
 		FSFWOFFlowStatisticsReply flowStat = buildFlowStatFromFlowMod(flow);
 		flowStat.setSliceName(sliceName);
+		if(this.isTagManaged(dpid, sliceName)){
+			//translate once here instead of on every stats request
+			flowStat.buildControllerView();
+		}
+		this.invalidateEncoded(dpid, sliceName);
 		
 		if(sliced.containsKey(dpid)){
 			HashMap<String, List<OFStatistics>> sliceStats = sliced.get(dpid);
@@ -215,6 +285,7 @@ public class FlowStatCache{
 			stats.add(flowStat);
 			sliced.put(dpid, sliceStats);
 		}
+		this.getIndex(dpid, sliceName).add(flowStat);
 		//need to update last seen
 		log.debug("Added Flow: " + flowStat.toString() + " to cache!");
 		flowStat.setLastSeen(System.currentTimeMillis());
@@ -248,6 +319,9 @@ public class FlowStatCache{
 	
 	public synchronized void clearFlowCache(Long switchId){
 		flowStats.remove(switchId);
+		aggregates.remove(switchId);
+		encoded.remove(switchId);
+		pendingTraffic.remove(switchId);
 		
 		if(this.sliced.containsKey(switchId)){
 			HashMap<String, List<OFStatistics>> sliceStats = this.sliced.get(switchId);
@@ -296,6 +370,7 @@ public class FlowStatCache{
 		cachedFlowStat.setPacketCount(cachedFlowStat.getPacketCount() + newStat.getPacketCount());
 		cachedFlowStat.setDurationNanoseconds(newStat.getDurationNanoseconds());
 		cachedFlowStat.setDurationSeconds(newStat.getDurationSeconds());
+		cachedFlowStat.setTableId(newStat.getTableId());
 		cachedFlowStat.setLastSeen(System.currentTimeMillis());
 		cachedFlowStat.setVerified(true);
 		
@@ -390,9 +465,10 @@ public class FlowStatCache{
 	 * @param flowStat
 	 * @param time
 	 * @param flowCount
+	 * @param intervals the traffic of each slice during this poll
 	 */
 	
-	private void processFlow(Long switchId, OFFlowStatisticsReply flowStat, long time, HashMap<String, Integer> flowCount){
+	private void processFlow(Long switchId, OFFlowStatisticsReply flowStat, long time, HashMap<String, Integer> flowCount, HashMap<String, SliceTrafficHistory.Interval> intervals){
 		
 		if(!map.containsKey(switchId)){
 			HashMap<OFMatch, FSFWOFFlowStatisticsReply> tmpMap = new HashMap<OFMatch, FSFWOFFlowStatisticsReply>();
@@ -408,6 +484,7 @@ public class FlowStatCache{
 
 			//if the actions match we are good to update
 			if(cachedStat.compareActions(flowStat.getActions())){
+				this.accountTraffic(cachedStat, flowStat.getByteCount(), flowStat.getPacketCount(), intervals);
 				if(this.updateFlowStatData(cachedStat, flowStat, flowCount)){
 					return;
 				}else{	
@@ -503,6 +580,9 @@ public class FlowStatCache{
 				}
 				//ok we added it to our cache now update the flows
 				FSFWOFFlowStatisticsReply cachedStat = (FSFWOFFlowStatisticsReply) flowMap.get(flowStat.getMatch());
+				if(cachedStat != null){
+					this.accountTraffic(cachedStat, flowStat.getByteCount(), flowStat.getPacketCount(), intervals);
+				}
 				if(this.updateFlowStatData(cachedStat, flowStat, flowCount)){
 					return;
 				}else{
@@ -521,6 +601,8 @@ public class FlowStatCache{
 	public synchronized void setFlowCache(Long switchId, List <OFStatistics> stats){
 		flowStats.put(switchId, stats);
 		log.debug("Setting Flow Cache! Switch: " + switchId + " Total Stats: " + stats.size());
+		//every counter is about to change
+		encoded.remove(switchId);
 		
 		//first thing is to set all counters for all stats to 0
 		if(this.sliced.containsKey(switchId)){
@@ -538,23 +620,34 @@ public class FlowStatCache{
 		}
 		
 		HashMap <String, Integer> flowCounts = new HashMap<String, Integer>();
+		//start with the traffic of flows that were removed since the last poll
+		HashMap<String, SliceTrafficHistory.Interval> intervals = pendingTraffic.remove(switchId);
+		if(intervals == null){
+			intervals = new HashMap<String, SliceTrafficHistory.Interval>();
+		}
 		//now update process all the flows find their mapping and cache them
 		long time = System.currentTimeMillis();
 		//loop through all stats
 		for(OFStatistics stat : stats){
 			OFFlowStatisticsReply flowStat = (OFFlowStatisticsReply) stat;
 			log.debug("Processing Flow: " + flowStat.toString());
-			this.processFlow(switchId, flowStat, time, flowCounts);
+			this.processFlow(switchId, flowStat, time, flowCounts, intervals);
 		}
+		this.recordTraffic(switchId, time, intervals);
 		
 		//are there any flows that need to go away (ie... we didn't see them since the last poll cycle)		
 		long timeToRemove = time - 60000;
+		//rebuild the slice totals from whatever survives
+		HashMap<String, SliceAggregateStats> switchAggregates = new HashMap<String, SliceAggregateStats>();
+		aggregates.put(switchId, switchAggregates);
 		if(this.sliced.containsKey(switchId)){
 			HashMap<String, List<OFStatistics>> sliceStats = this.sliced.get(switchId);
 			Iterator<String> it = sliceStats.keySet().iterator();
 			while(it.hasNext()){
 				String slice = (String)it.next();
 				List<OFStatistics> ofStats = this.sliced.get(switchId).get(slice);
+				SliceAggregateStats sliceTotals = new SliceAggregateStats();
+				switchAggregates.put(slice, sliceTotals);
 				Iterator<OFStatistics> itStat = ofStats.iterator();
 				while(itStat.hasNext()){
 					OFStatistics stat = (OFStatistics)itStat.next();
@@ -562,11 +655,15 @@ public class FlowStatCache{
 					if(flowStat.lastSeen() < timeToRemove){
 						log.debug("Removing flowStat: " + stat.toString());
 						itStat.remove();
+						this.getIndex(switchId, slice).remove(flowStat);
 							//have to also find all flows that point to this flow :(
 						this.removeMappedCache(switchId, flowStat);
 					}else if(flowStat.toBeDeleted()){
 						itStat.remove();
+						this.getIndex(switchId, slice).remove(flowStat);
 						this.removeMappedCache(switchId, flowStat);
+					}else if(flowStat.isVerified()){
+						sliceTotals.add(flowStat);
 					}
 				}
 			}
@@ -607,6 +704,131 @@ public class FlowStatCache{
 		}
 	}
 	
+	/**
+	 * adds how much a switch flow's counters grew since we last saw them
+	 * to its slice's traffic for this interval
+	 * @param switchFlow the switch side (child) stat
+	 * @param rawBytes the switch's byte counter
+	 * @param rawPackets the switch's packet counter
+	 * @param intervals
+	 */
+	private void accountTraffic(FSFWOFFlowStatisticsReply switchFlow, long rawBytes, long rawPackets, HashMap<String, SliceTrafficHistory.Interval> intervals){
+		long bytes = switchFlow.getByteDelta(rawBytes);
+		long packets = switchFlow.getPacketDelta(rawPackets);
+		switchFlow.setLastRawCounts(rawBytes, rawPackets);
+		
+		SliceTrafficHistory.Interval interval = intervals.get(switchFlow.getSliceName());
+		if(interval == null){
+			interval = new SliceTrafficHistory.Interval(topFlowCount);
+			intervals.put(switchFlow.getSliceName(), interval);
+		}
+		OFMatch match = switchFlow.getMatch();
+		short port = OFPort.OFPP_NONE.getValue();
+		if((match.getWildcards() & OFMatch.OFPFW_IN_PORT) == 0){
+			port = match.getInputPort();
+		}
+		interval.add(port, bytes, packets);
+		OFMatch sliceMatch = null;
+		if(switchFlow.getParentStat() != null){
+			sliceMatch = switchFlow.getParentStat().getMatch();
+		}
+		interval.getTopFlows().offer(new TopFlows.Flow(match, sliceMatch, bytes, packets));
+	}
+	
+	/**
+	 * records this poll's traffic for every slice on the switch
+	 * slices with no traffic get an empty sample
+	 */
+	private void recordTraffic(Long switchId, long time, HashMap<String, SliceTrafficHistory.Interval> intervals){
+		HashMap<String, SliceTrafficHistory> switchTraffic = traffic.get(switchId);
+		if(switchTraffic == null){
+			switchTraffic = new HashMap<String, SliceTrafficHistory>();
+			traffic.put(switchId, switchTraffic);
+		}
+		HashMap<String, TopFlows> switchTop = new HashMap<String, TopFlows>();
+		topFlows.put(switchId, switchTop);
+		if(this.sliced.containsKey(switchId)){
+			for(String sliceName : this.sliced.get(switchId).keySet()){
+				if(!intervals.containsKey(sliceName)){
+					intervals.put(sliceName, new SliceTrafficHistory.Interval(topFlowCount));
+				}
+			}
+		}
+		for(Entry<String, SliceTrafficHistory.Interval> entry : intervals.entrySet()){
+			SliceTrafficHistory history = switchTraffic.get(entry.getKey());
+			if(history == null){
+				history = new SliceTrafficHistory();
+				switchTraffic.put(entry.getKey(), history);
+			}
+			history.record(time, entry.getValue());
+			switchTop.put(entry.getKey(), entry.getValue().getTopFlows());
+		}
+	}
+	
+	/**
+	 * a flow was removed from the switch (timeout or delete), count whatever
+	 * it moved since the last poll so it isn't lost
+	 * @param switchId
+	 * @param removed
+	 */
+	public synchronized void flowRemoved(Long switchId, OFFlowRemoved removed){
+		if(!map.containsKey(switchId)){
+			return;
+		}
+		FSFWOFFlowStatisticsReply switchFlow = map.get(switchId).get(removed.getMatch());
+		if(switchFlow == null){
+			return;
+		}
+		HashMap<String, SliceTrafficHistory.Interval> intervals = pendingTraffic.get(switchId);
+		if(intervals == null){
+			intervals = new HashMap<String, SliceTrafficHistory.Interval>();
+			pendingTraffic.put(switchId, intervals);
+		}
+		this.accountTraffic(switchFlow, removed.getByteCount(), removed.getPacketCount(), intervals);
+	}
+	
+	/**
+	 * returns the traffic history of the slice on the switch
+	 * @param switchId
+	 * @param sliceName
+	 * @return null if nothing has been recorded for the slice
+	 */
+	public synchronized HashMap<String, Object> getSliceTraffic(Long switchId, String sliceName){
+		HashMap<String, SliceTrafficHistory> switchTraffic = traffic.get(switchId);
+		if(switchTraffic == null || !switchTraffic.containsKey(sliceName)){
+			return null;
+		}
+		return switchTraffic.get(sliceName).toMap();
+	}
+	
+	/**
+	 * returns the heaviest flows of the slice on the switch during the last poll
+	 * @param switchId
+	 * @param sliceName
+	 * @param count how many flows to return, at most the configured number kept
+	 * @return null if the switch has not been polled
+	 */
+	public synchronized HashMap<String, Object> getTopFlows(Long switchId, String sliceName, int count){
+		HashMap<String, TopFlows> switchTop = topFlows.get(switchId);
+		if(switchTop == null || !switchTop.containsKey(sliceName)){
+			return null;
+		}
+		return switchTop.get(sliceName).toMap(count);
+	}
+	
+	/**
+	 * sets how many of the heaviest flows are kept per slice
+	 * takes effect on the next poll
+	 * @param count
+	 */
+	public synchronized void setTopFlowCount(int count){
+		this.topFlowCount = count;
+	}
+	
+	public synchronized int getTopFlowCount(){
+		return this.topFlowCount;
+	}
+	
 	/**
 	 * removeMappedCache
 	 * @param switchId
@@ -634,7 +856,8 @@ public class FlowStatCache{
 	}
 	
 	/**
-	 * tries to find expired flows and then signals that they need to be removed!
+	 * returns the software timeouts of every slice on the switch so the
+	 * poller can push out the deadline of idle timeouts that saw traffic
 	 * @param switchId
 	 * @return
 	 */
@@ -658,28 +881,6 @@ public class FlowStatCache{
 		return flowTimeouts;
 	}
 	
-	/**
-	 * check for expired flows
-	 * @param switchId
-	 */
-	
-	public void checkExpireFlows(Long switchId){
-		List<HashMap<Long, Slicer>> slices = new ArrayList<HashMap<Long,Slicer>>(parent.getSlices());
-
-		for(HashMap<Long,Slicer> tmpSlices : slices){
-			if(!tmpSlices.containsKey(switchId)){
-				//switch not part of this slice
-				continue;
-			}
-			Proxy p = this.parent.getProxy(switchId, tmpSlices.get(switchId).getSliceName());
-			if(p == null){
-				return;
-			}
-			p.checkExpiredFlows();
-		}
-	}
-	
-	
 	/**
 	 * retrieves the stats for the requested switch
 	 * @param switchId
@@ -722,8 +923,419 @@ public class FlowStatCache{
 	}
 	
 	
+	/**
+	 * returns the sliced flows that match the filters of a flow stats request
+	 * a table_id of 0xff and an out_port of OFPP_NONE match everything
+	 * @param switchId
+	 * @param sliceName
+	 * @param match
+	 * @param outPort
+	 * @param tableId
+	 * @return
+	 */
+	public synchronized List <OFStatistics> getSlicedFlowStats(Long switchId, String sliceName, OFMatch match, short outPort, byte tableId){
+		if(FlowMatcher.isUnfiltered(match, outPort, tableId)){
+			return this.getSlicedFlowStats(switchId, sliceName);
+		}
+		if(!flowStats.containsKey(switchId)){
+			return null;
+		}
+		if(!sliced.containsKey(switchId) || !sliced.get(switchId).containsKey(sliceName)){
+			return new ArrayList<OFStatistics>();
+		}
+		List<OFStatistics> stats = this.getIndex(switchId, sliceName).query(sliced.get(switchId).get(sliceName), match, outPort, tableId);
+		log.debug("Returning " + stats.size() + " filtered flow stats");
+		return stats;
+	}
+	
+	/**
+	 * returns the aggregate stats of the sliced flows that match the filters
+	 * of an aggregate stats request.  Requests without a match are answered
+	 * from the running totals, everything else goes through the flow index
+	 * @param switchId
+	 * @param sliceName
+	 * @param match
+	 * @param outPort
+	 * @param tableId
+	 * @return null if the switch has not been polled yet
+	 */
+	public synchronized OFAggregateStatisticsReply getSlicedAggregateStats(Long switchId, String sliceName, OFMatch match, short outPort, byte tableId){
+		if(!flowStats.containsKey(switchId)){
+			return null;
+		}
+		if(tableId == FlowMatcher.ALL_TABLES && FlowMatcher.isWildcardAll(match)){
+			HashMap<String, SliceAggregateStats> switchAggregates = aggregates.get(switchId);
+			if(switchAggregates == null || !switchAggregates.containsKey(sliceName)){
+				return new SliceAggregateStats().toReply(outPort);
+			}
+			return switchAggregates.get(sliceName).toReply(outPort);
+		}
+		
+		SliceAggregateStats totals = new SliceAggregateStats();
+		for(OFStatistics stat : this.getSlicedFlowStats(switchId, sliceName, match, outPort, tableId)){
+			totals.add((OFFlowStatisticsReply)stat);
+		}
+		return totals.toReply(OFPort.OFPP_NONE.getValue());
+	}
+	
+	/**
+	 * returns the unfiltered flow stats reply for the slice already encoded
+	 * the reply is encoded once and reused until the slice's flows change
+	 * @param switchId
+	 * @param sliceName
+	 * @param managed true if the controller should see the tag stripped view
+	 * @param maxLength max length of each reply in the multipart
+	 * @return null if the switch has not been polled yet
+	 */
+	public synchronized EncodedStatsReply getEncodedSlicedFlowStats(Long switchId, String sliceName, boolean managed, int maxLength){
+		List<OFStatistics> stats = this.getSlicedFlowStats(switchId, sliceName);
+		if(stats == null){
+			return null;
+		}
+		EncodedStatsReply reply = findEncoded(encoded, switchId, sliceName, managed, maxLength);
+		if(reply != null){
+			return reply;
+		}
+		
+		if(managed){
+			List<OFStatistics> controllerView = new ArrayList<OFStatistics>(stats.size());
+			for(OFStatistics stat : stats){
+				controllerView.add(((FSFWOFFlowStatisticsReply)stat).getControllerView());
+			}
+			stats = controllerView;
+		}
+		reply = EncodedStatsReply.encode(stats, OFStatisticsType.FLOW, managed, maxLength);
+		log.debug("Encoded " + stats.size() + " flow stats for slice " + sliceName + " into " + reply.getChunkCount() + " replies");
+		storeEncoded(encoded, switchId, sliceName, reply);
+		return reply;
+	}
+	
+	private static EncodedStatsReply findEncoded(HashMap<Long, HashMap<String, EncodedStatsReply>> cache, Long switchId, String sliceName, Object view, int maxLength){
+		HashMap<String, EncodedStatsReply> switchEncoded = cache.get(switchId);
+		if(switchEncoded == null){
+			return null;
+		}
+		EncodedStatsReply reply = switchEncoded.get(sliceName);
+		if(reply != null && reply.isEncodedFor(view, maxLength)){
+			return reply;
+		}
+		return null;
+	}
+	
+	private static void storeEncoded(HashMap<Long, HashMap<String, EncodedStatsReply>> cache, Long switchId, String sliceName, EncodedStatsReply reply){
+		HashMap<String, EncodedStatsReply> switchEncoded = cache.get(switchId);
+		if(switchEncoded == null){
+			switchEncoded = new HashMap<String, EncodedStatsReply>();
+			cache.put(switchId, switchEncoded);
+		}
+		switchEncoded.put(sliceName, reply);
+	}
+	
+	/**
+	 * returns true if the slice is in managed tag mode on the switch
+	 * @param switchId
+	 * @param sliceName
+	 * @return
+	 */
+	private boolean isTagManaged(long switchId, String sliceName){
+		List<HashMap<Long, Slicer>> slices = parent.getSlices();
+		if(slices == null){
+			return false;
+		}
+		for(HashMap<Long, Slicer> tmpSlices : slices){
+			Slicer slice = tmpSlices.get(switchId);
+			if(slice != null && slice.getSliceName().equals(sliceName)){
+				return slice.getTagManagement();
+			}
+		}
+		return false;
+	}
+	
+	private void invalidateEncoded(long switchId, String sliceName){
+		HashMap<String, EncodedStatsReply> switchEncoded = encoded.get(switchId);
+		if(switchEncoded != null){
+			switchEncoded.remove(sliceName);
+		}
+	}
+	
+	/**
+	 * returns the index for the slice on the switch creating it if needed
+	 * @param switchId
+	 * @param sliceName
+	 * @return
+	 */
+	private FlowStatIndex getIndex(long switchId, String sliceName){
+		HashMap<String, FlowStatIndex> switchIndexes = indexes.get(switchId);
+		if(switchIndexes == null){
+			switchIndexes = new HashMap<String, FlowStatIndex>();
+			indexes.put(switchId, switchIndexes);
+		}
+		FlowStatIndex index = switchIndexes.get(sliceName);
+		if(index == null){
+			index = new FlowStatIndex();
+			switchIndexes.put(sliceName, index);
+		}
+		return index;
+	}
+	
+	/**
+	 * rebuilds the indexes from scratch (after loading the cache from disk)
+	 */
+	private void rebuildIndexes(){
+		indexes.clear();
+		for(Long dpid : sliced.keySet()){
+			HashMap<String, List<OFStatistics>> sliceMap = sliced.get(dpid);
+			for(String sliceName : sliceMap.keySet()){
+				FlowStatIndex index = this.getIndex(dpid, sliceName);
+				for(OFStatistics stat : sliceMap.get(sliceName)){
+					index.add((FSFWOFFlowStatisticsReply)stat);
+				}
+			}
+		}
+	}
+	
+	public synchronized void setTableCache(Long switchId, List<OFStatistics> stats){
+		tableStats.put(switchId, stats);
+	}
+	
+	/**
+	 * builds the virtual tables a slice sees.  Each switch table becomes a table
+	 * with the slice's max flows as max_entries, the slice's flows in that table
+	 * as active_count and lookup/matched counts pro-rated by the share of the
+	 * table's packets that hit the slice's flows
+	 * @param switchId
+	 * @param sliceName
+	 * @param maxFlows
+	 * @return null if the switch has not been polled yet
+	 */
+	public synchronized List<OFStatistics> getSlicedTableStats(Long switchId, String sliceName, int maxFlows){
+		List<OFStatistics> sliceFlows = this.getSlicedFlowStats(switchId, sliceName);
+		if(sliceFlows == null){
+			return null;
+		}
+		
+		HashMap<Byte, Integer> activeCount = new HashMap<Byte, Integer>();
+		HashMap<Byte, Long> slicePackets = new HashMap<Byte, Long>();
+		for(OFStatistics stat : sliceFlows){
+			OFFlowStatisticsReply flowStat = (OFFlowStatisticsReply) stat;
+			Integer count = activeCount.get(flowStat.getTableId());
+			activeCount.put(flowStat.getTableId(), (count == null ? 0 : count) + 1);
+			Long packets = slicePackets.get(flowStat.getTableId());
+			slicePackets.put(flowStat.getTableId(), (packets == null ? 0 : packets) + flowStat.getPacketCount());
+		}
+		
+		HashMap<Byte, Long> switchPackets = new HashMap<Byte, Long>();
+		for(OFStatistics stat : flowStats.get(switchId)){
+			OFFlowStatisticsReply flowStat = (OFFlowStatisticsReply) stat;
+			Long packets = switchPackets.get(flowStat.getTableId());
+			switchPackets.put(flowStat.getTableId(), (packets == null ? 0 : packets) + flowStat.getPacketCount());
+		}
+		
+		List<OFStatistics> tables = tableStats.get(switchId);
+		if(tables == null || tables.size() == 0){
+			//switch didn't give us its tables, just report a single table
+			OFTableStatistics table = new OFTableStatistics();
+			table.setTableId((byte)0);
+			table.setName("fsfw");
+			table.setWildcards(OFMatch.OFPFW_ALL);
+			tables = new ArrayList<OFStatistics>();
+			tables.add(table);
+		}
+		
+		List<OFStatistics> virtualTables = new ArrayList<OFStatistics>();
+		for(OFStatistics stat : tables){
+			OFTableStatistics table = (OFTableStatistics) stat;
+			OFTableStatistics virtualTable = new OFTableStatistics();
+			virtualTable.setTableId(table.getTableId());
+			virtualTable.setName(table.getName());
+			virtualTable.setWildcards(table.getWildcards());
+			virtualTable.setMaxEntries(maxFlows);
+			Integer count = activeCount.get(table.getTableId());
+			virtualTable.setActiveCount(count == null ? 0 : count);
+			
+			Long mine = slicePackets.get(table.getTableId());
+			Long all = switchPackets.get(table.getTableId());
+			double share = 0;
+			if(mine != null && all != null && all > 0){
+				share = Math.min(1.0, (double)mine / all);
+			}
+			virtualTable.setLookupCount((long)(table.getLookupCount() * share));
+			virtualTable.setMatchedCount((long)(table.getMatchedCount() * share));
+			virtualTables.add(virtualTable);
+		}
+		return virtualTables;
+	}
+	
 	public synchronized void setPortCache(Long switchId, HashMap<Short, OFStatistics> stats){
 		portStats.put(switchId, stats);
+		encodedPorts.remove(switchId);
+		
+		HashMap<Short, PortCounterHistory> switchHistory = portHistory.get(switchId);
+		if(switchHistory == null){
+			switchHistory = new HashMap<Short, PortCounterHistory>();
+			portHistory.put(switchId, switchHistory);
+		}
+		long time = System.currentTimeMillis();
+		for(Entry<Short, OFStatistics> entry : stats.entrySet()){
+			PortCounterHistory history = switchHistory.get(entry.getKey());
+			if(history == null){
+				history = new PortCounterHistory();
+				switchHistory.put(entry.getKey(), history);
+			}
+			history.record(time, (OFPortStatisticsReply)entry.getValue());
+		}
+	}
+	
+	/**
+	 * returns the counters, rates and rate percentiles of every port on the switch
+	 * @param switchId
+	 * @return null if the switch's ports have never been polled
+	 */
+	public synchronized HashMap<Short, HashMap<String, Object>> getPortCounterHistory(Long switchId){
+		HashMap<Short, PortCounterHistory> switchHistory = portHistory.get(switchId);
+		if(switchHistory == null){
+			return null;
+		}
+		HashMap<Short, HashMap<String, Object>> results = new HashMap<Short, HashMap<String, Object>>();
+		for(Entry<Short, PortCounterHistory> entry : switchHistory.entrySet()){
+			results.put(entry.getKey(), entry.getValue().toMap());
+		}
+		return results;
+	}
+	
+	/**
+	 * forgets a deleted port's counters and history
+	 * @param switchId
+	 * @param portId
+	 */
+	public synchronized void portRemoved(Long switchId, short portId){
+		HashMap<Short, PortCounterHistory> switchHistory = portHistory.get(switchId);
+		if(switchHistory != null){
+			switchHistory.remove(portId);
+		}
+		HashMap<Short, OFStatistics> switchPorts = portStats.get(switchId);
+		if(switchPorts != null && switchPorts.containsKey(portId)){
+			//getPortStats hands this map out, replace it rather than change it
+			switchPorts = new HashMap<Short, OFStatistics>(switchPorts);
+			switchPorts.remove(portId);
+			portStats.put(switchId, switchPorts);
+			encodedPorts.remove(switchId);
+		}
+	}
+	
+	/**
+	 * clears the port and queue stats and port history of a switch
+	 * that has gone away
+	 * @param switchId
+	 */
+	public synchronized void clearPortCache(Long switchId){
+		portStats.remove(switchId);
+		portHistory.remove(switchId);
+		encodedPorts.remove(switchId);
+		queueStats.remove(switchId);
+		encodedQueues.remove(switchId);
+	}
+	
+	public synchronized void setQueueCache(Long switchId, List<OFStatistics> stats){
+		queueStats.put(switchId, stats);
+		encodedQueues.remove(switchId);
+	}
+	
+	/**
+	 * returns the port stats for the ports in the slice
+	 * @param switchId
+	 * @param ports the slice's port ids
+	 * @param portNumber the requested port, OFPP_NONE for all of them
+	 * @return null if the switch has not been polled yet
+	 */
+	public synchronized List<OFStatistics> getSlicedPortStats(Long switchId, Set<Short> ports, short portNumber){
+		HashMap<Short, OFStatistics> switchPorts = portStats.get(switchId);
+		if(switchPorts == null){
+			return null;
+		}
+		List<OFStatistics> stats = new ArrayList<OFStatistics>();
+		if(portNumber != OFPort.OFPP_NONE.getValue()){
+			OFStatistics stat = switchPorts.get(portNumber);
+			if(stat != null && ports.contains(portNumber)){
+				stats.add(stat);
+			}
+			return stats;
+		}
+		for(Short port : ports){
+			OFStatistics stat = switchPorts.get(port);
+			if(stat != null){
+				stats.add(stat);
+			}
+		}
+		return stats;
+	}
+	
+	/**
+	 * returns the queue stats for the ports in the slice
+	 * @param switchId
+	 * @param ports the slice's port ids
+	 * @param portNumber the requested port, OFPP_ALL for all of them
+	 * @param queueId the requested queue, 0xffffffff for all of them
+	 * @return null if the switch has not been polled yet
+	 */
+	public synchronized List<OFStatistics> getSlicedQueueStats(Long switchId, Set<Short> ports, short portNumber, int queueId){
+		List<OFStatistics> switchQueues = queueStats.get(switchId);
+		if(switchQueues == null){
+			return null;
+		}
+		List<OFStatistics> stats = new ArrayList<OFStatistics>();
+		for(OFStatistics stat : switchQueues){
+			OFQueueStatisticsReply queueStat = (OFQueueStatisticsReply) stat;
+			if(!ports.contains(queueStat.getPortNumber())){
+				continue;
+			}
+			if(portNumber != OFPort.OFPP_ALL.getValue() && portNumber != queueStat.getPortNumber()){
+				continue;
+			}
+			if(queueId != OFP_QUEUE_ALL && queueId != queueStat.getQueueId()){
+				continue;
+			}
+			stats.add(stat);
+		}
+		return stats;
+	}
+	
+	/**
+	 * returns the encoded reply of all the slice's port stats
+	 * rebuilt at most once per poll (or when the slice's ports change)
+	 * @return null if the switch has not been polled yet
+	 */
+	public synchronized EncodedStatsReply getEncodedSlicedPortStats(Long switchId, String sliceName, Set<Short> ports, int maxLength){
+		EncodedStatsReply reply = findEncoded(encodedPorts, switchId, sliceName, ports, maxLength);
+		if(reply != null){
+			return reply;
+		}
+		List<OFStatistics> stats = this.getSlicedPortStats(switchId, ports, OFPort.OFPP_NONE.getValue());
+		if(stats == null){
+			return null;
+		}
+		reply = EncodedStatsReply.encode(stats, OFStatisticsType.PORT, ports, maxLength);
+		storeEncoded(encodedPorts, switchId, sliceName, reply);
+		return reply;
+	}
+	
+	/**
+	 * returns the encoded reply of all the slice's queue stats
+	 * rebuilt at most once per poll (or when the slice's ports change)
+	 * @return null if the switch has not been polled yet
+	 */
+	public synchronized EncodedStatsReply getEncodedSlicedQueueStats(Long switchId, String sliceName, Set<Short> ports, int maxLength){
+		EncodedStatsReply reply = findEncoded(encodedQueues, switchId, sliceName, ports, maxLength);
+		if(reply != null){
+			return reply;
+		}
+		List<OFStatistics> stats = this.getSlicedQueueStats(switchId, ports, OFPort.OFPP_ALL.getValue(), OFP_QUEUE_ALL);
+		if(stats == null){
+			return null;
+		}
+		reply = EncodedStatsReply.encode(stats, OFStatisticsType.QUEUE, ports, maxLength);
+		storeEncoded(encodedQueues, switchId, sliceName, reply);
+		return reply;
 	}
 	
 	public synchronized OFStatistics getPortStats(Long switchId, short portId){
@@ -26,21 +26,26 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.TimerTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import net.floodlightcontroller.core.IOFSwitch;
 
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFPort;
 import org.openflow.protocol.OFStatisticsRequest;
 
+import org.openflow.protocol.statistics.OFAggregateStatisticsReply;
 import org.openflow.protocol.statistics.OFFlowStatisticsReply;
 import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
 import org.openflow.protocol.statistics.OFPortStatisticsReply;
 import org.openflow.protocol.statistics.OFPortStatisticsRequest;
+import org.openflow.protocol.statistics.OFQueueStatisticsRequest;
 import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.statistics.OFStatisticsType;
 import org.slf4j.Logger;
@@ -54,9 +59,26 @@ import org.slf4j.LoggerFactory;
 public class FlowStatCacher extends TimerTask{
 
 	private static String cacheFile = "/var/run/fsfw/flowCache.ser";
+	//most flow removed messages waiting for the stats thread
+	private static final int MAX_REMOVED_FLOWS = 100000;
 	FlowStatCache statsCache;
 	private static final Logger log = LoggerFactory.getLogger(FlowStatCacher.class);
 	
+	/**
+	 * a flow removed message waiting to be counted
+	 */
+	private static class RemovedFlow {
+		private final Long switchId;
+		private final OFFlowRemoved removed;
+
+		private RemovedFlow(Long switchId, OFFlowRemoved removed){
+			this.switchId = switchId;
+			this.removed = removed;
+		}
+	}
+	
+	private final LinkedBlockingQueue<RemovedFlow> removedFlows = new LinkedBlockingQueue<RemovedFlow>(MAX_REMOVED_FLOWS);
+	
 	/**
 	 * A TimerTask that everytime is run gets the most recent 
 	 * stats from the switch and caches them
@@ -83,14 +105,19 @@ public class FlowStatCacher extends TimerTask{
 				
 				log.debug("Getting stats for switch: " + sw.getStringId() );
 				List<OFStatistics> statsReply = getFlowStatsForSwitch(sw);
+				//count removed flows while they are still in the cache
+				this.accountRemovedFlows();
 				statsCache.setFlowCache(sw.getId(), statsReply);
 				HashMap<Short, OFStatistics> portStatsReply = getPortStatsForSwitch(sw);
 				statsCache.setPortCache(sw.getId(), portStatsReply);
+				List<OFStatistics> queueStatsReply = getQueueStatsForSwitch(sw);
+				statsCache.setQueueCache(sw.getId(), queueStatsReply);
+				List<OFStatistics> tableStatsReply = getTableStatsForSwitch(sw);
+				statsCache.setTableCache(sw.getId(), tableStatsReply);
 				
 				//check for anything that has expired
 				List<FlowTimeout> timeouts = statsCache.getPossibleExpiredFlows(sw.getId());
 				this.updateExpire(timeouts, sw.getId());
-				statsCache.checkExpireFlows(sw.getId());
 			}catch(Exception e){
 				log.error("Exception thrown in Stat collection handler...");
 				log.error(e.getMessage());
@@ -121,25 +148,34 @@ public class FlowStatCacher extends TimerTask{
 		
 	}
 	
+	/**
+	 * pushes out the idle deadline of every software timeout whose flow
+	 * moved packets since the last poll.  The polled flows are hashed by
+	 * canonical match once so each timeout is a single lookup
+	 * @param timeouts
+	 * @param switchId
+	 */
 	public void updateExpire(List<FlowTimeout> timeouts, Long switchId){
+		List<OFStatistics> stats = statsCache.getSwitchFlowStats(switchId);
+		if(stats == null || timeouts.isEmpty()){
+			return;
+		}
+		HashMap<OFMatch, OFFlowStatisticsReply> polled = new HashMap<OFMatch, OFFlowStatisticsReply>(stats.size() * 2);
+		for(OFStatistics stat : stats){
+			OFFlowStatisticsReply flowStat = (OFFlowStatisticsReply) stat;
+			polled.put(FlowMatcher.canonical(flowStat.getMatch()), flowStat);
+		}
 		for(FlowTimeout timeout : timeouts){
-			if(!timeout.isHard()){
-				for(OFStatistics stat : statsCache.getSwitchFlowStats(switchId)){
-					OFFlowStatisticsReply flowStat = (OFFlowStatisticsReply) stat;
-					if(flowStat.getMatch().equals(timeout.getFlow().getMatch())){
-						if(timeout.getPacketCount() == flowStat.getPacketCount()){
-							//hasn't changed... so it has been idle
-						}else{
-							timeout.setPacketCount(flowStat.getPacketCount());
-							timeout.updateLastUsed();
-						}
-					}
-				}
+			if(timeout.isHard()){
+				continue;
+			}
+			OFFlowStatisticsReply flowStat = polled.get(timeout.getMatchKey());
+			if(flowStat != null){
+				timeout.updatePacketCount(flowStat.getPacketCount());
 			}
 		}
 	}
 	
-
 	/**
 	 * 
 	 * 
@@ -149,8 +185,84 @@ public class FlowStatCacher extends TimerTask{
 		return statsCache.getSlicedFlowStats(switchId, sliceName);
 	}
 	
+	public List<OFStatistics> getSlicedFlowStats(Long switchId, String sliceName, OFMatch match, short outPort, byte tableId){
+		return statsCache.getSlicedFlowStats(switchId, sliceName, match, outPort, tableId);
+	}
+	
+	public OFAggregateStatisticsReply getSlicedAggregateStats(Long switchId, String sliceName, OFMatch match, short outPort, byte tableId){
+		return statsCache.getSlicedAggregateStats(switchId, sliceName, match, outPort, tableId);
+	}
+	
+	public EncodedStatsReply getEncodedSlicedFlowStats(Long switchId, String sliceName, boolean managed, int maxLength){
+		return statsCache.getEncodedSlicedFlowStats(switchId, sliceName, managed, maxLength);
+	}
+	
+	public List<OFStatistics> getSlicedTableStats(Long switchId, String sliceName, int maxFlows){
+		return statsCache.getSlicedTableStats(switchId, sliceName, maxFlows);
+	}
+	
+	public List<OFStatistics> getSlicedPortStats(Long switchId, Set<Short> ports, short portNumber){
+		return statsCache.getSlicedPortStats(switchId, ports, portNumber);
+	}
+	
+	public List<OFStatistics> getSlicedQueueStats(Long switchId, Set<Short> ports, short portNumber, int queueId){
+		return statsCache.getSlicedQueueStats(switchId, ports, portNumber, queueId);
+	}
+	
+	public EncodedStatsReply getEncodedSlicedPortStats(Long switchId, String sliceName, Set<Short> ports, int maxLength){
+		return statsCache.getEncodedSlicedPortStats(switchId, sliceName, ports, maxLength);
+	}
+	
+	public EncodedStatsReply getEncodedSlicedQueueStats(Long switchId, String sliceName, Set<Short> ports, int maxLength){
+		return statsCache.getEncodedSlicedQueueStats(switchId, sliceName, ports, maxLength);
+	}
+	
+	public HashMap<Short, HashMap<String, Object>> getPortCounterHistory(Long switchId){
+		return statsCache.getPortCounterHistory(switchId);
+	}
+	
+	public HashMap<String, Object> getSliceTraffic(Long switchId, String sliceName){
+		return statsCache.getSliceTraffic(switchId, sliceName);
+	}
+	
+	public HashMap<String, Object> getTopFlows(Long switchId, String sliceName, int count){
+		return statsCache.getTopFlows(switchId, sliceName, count);
+	}
+	
+	public void setTopFlowCount(int count){
+		statsCache.setTopFlowCount(count);
+	}
+	
+	/**
+	 * queues a flow removed message to be counted by the stats thread
+	 * called from the switch I/O thread so it never waits on the cache,
+	 * which a poll can hold for a while
+	 * @param switchId
+	 * @param removed
+	 */
+	public void flowRemoved(Long switchId, OFFlowRemoved removed){
+		if(!removedFlows.offer(new RemovedFlow(switchId, removed))){
+			log.debug("Too many flow removed messages waiting, not counting flow removed from switch: " + switchId);
+		}
+	}
+	
+	/**
+	 * counts the traffic of every queued flow removed message
+	 */
+	private void accountRemovedFlows(){
+		RemovedFlow removedFlow;
+		while((removedFlow = removedFlows.poll()) != null){
+			statsCache.flowRemoved(removedFlow.switchId, removedFlow.removed);
+		}
+	}
+	
 	public void clearCache(Long switchId){
 		statsCache.clearFlowCache(switchId);
+		statsCache.clearPortCache(switchId);
+	}
+	
+	public void portRemoved(Long switchId, short portId){
+		statsCache.portRemoved(switchId, portId);
 	}
 	
 
@@ -244,6 +356,66 @@ public class FlowStatCacher extends TimerTask{
         log.debug("Stats cached for switch: " + sw.getId() + ". Total ports stats cached: " + statsReply.size());
         return statsReply;
 	}
+	
+	/**
+	 * Retrieves the QueueStats for every queue on every port of the switch
+	 * @param sw
+	 * @return List of OFQueueStatisticsReply
+	 */
+	private List<OFStatistics> getQueueStatsForSwitch(IOFSwitch sw){
+		List <OFStatistics> statsReply = new ArrayList<OFStatistics>();
+		List <OFStatistics> values = null;
+		Future<List<OFStatistics>> future;
+        OFStatisticsRequest req = new OFStatisticsRequest();
+	    req.setStatisticType(OFStatisticsType.QUEUE);
+	    int requestLength = req.getLengthU();
+	    OFQueueStatisticsRequest specificReq = new OFQueueStatisticsRequest();
+	    specificReq.setPortNumber(OFPort.OFPP_ALL.getValue());
+	    specificReq.setQueueId(FlowStatCache.OFP_QUEUE_ALL);
+	    req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+	    requestLength += specificReq.getLength();
+	    req.setLengthU(requestLength);
+	    
+        try {
+        	future = sw.queryStatistics(req);
+        	log.debug(future.toString());
+        	values = future.get(10, TimeUnit.SECONDS);
+        	if(values != null){
+            	statsReply.addAll(values);
+            }
+        } catch (Exception e) {
+            log.error("Failure retrieving queue statistics from switch " + sw, e);
+        }
+        log.debug("Stats cached for switch: " + sw.getId() + ". Total queue stats cached: " + statsReply.size());
+        return statsReply;
+	}
+	
+	/**
+	 * Retrieves the TableStats from the switch
+	 * @param sw
+	 * @return List of OFTableStatistics
+	 */
+	private List<OFStatistics> getTableStatsForSwitch(IOFSwitch sw){
+		List <OFStatistics> statsReply = new ArrayList<OFStatistics>();
+		List <OFStatistics> values = null;
+		Future<List<OFStatistics>> future;
+		// table stats requests have no body
+        OFStatisticsRequest req = new OFStatisticsRequest();
+	    req.setStatisticType(OFStatisticsType.TABLE);
+        try {
+        	future = sw.queryStatistics(req);
+        	log.debug(future.toString());
+        	values = future.get(10, TimeUnit.SECONDS);
+        	if(values != null){
+            	statsReply.addAll(values);
+            }
+        } catch (Exception e) {
+            log.error("Failure retrieving table statistics from switch " + sw, e);
+        }
+        log.debug("Stats cached for switch: " + sw.getId() + ". Total table stats cached: " + statsReply.size());
+        return statsReply;
+	}
+	
 	public void addFlowCache(long switchId, String sliceName, OFFlowMod flowMod, List<OFFlowMod> flows) {
 		this.statsCache.addFlowMod(switchId, sliceName, flowMod,flows);
 	}
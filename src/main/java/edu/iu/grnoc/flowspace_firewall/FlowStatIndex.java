@@ -0,0 +1,200 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.action.OFActionType;
+import org.openflow.protocol.statistics.OFStatistics;
+
+/**
+ * Index over the controller view of a single slice's
+ * cached flows.  Flows are bucketed by in_port, VLAN and
+ * output port so a narrow stats request only has to look
+ * at the flows that could possibly match it.
+ * Not thread safe, FlowStatCache guards it with its own lock
+ * @author aragusa
+ *
+ */
+
+public class FlowStatIndex {
+
+	//the stats are mutable (counters) so hash on identity
+	private HashMap<Short, Set<FSFWOFFlowStatisticsReply>> byInPort;
+	private HashMap<Short, Set<FSFWOFFlowStatisticsReply>> byVlan;
+	private HashMap<Short, Set<FSFWOFFlowStatisticsReply>> byOutPort;
+
+	public FlowStatIndex(){
+		byInPort = new HashMap<Short, Set<FSFWOFFlowStatisticsReply>>();
+		byVlan = new HashMap<Short, Set<FSFWOFFlowStatisticsReply>>();
+		byOutPort = new HashMap<Short, Set<FSFWOFFlowStatisticsReply>>();
+	}
+
+	public void add(FSFWOFFlowStatisticsReply stat){
+		OFMatch match = stat.getMatch();
+		if((match.getWildcards() & OFMatch.OFPFW_IN_PORT) == 0){
+			bucket(byInPort, match.getInputPort(), true).add(stat);
+		}
+		if((match.getWildcards() & OFMatch.OFPFW_DL_VLAN) == 0){
+			bucket(byVlan, match.getDataLayerVirtualLan(), true).add(stat);
+		}
+		for(Short port : outputPorts(stat.getActions())){
+			bucket(byOutPort, port, true).add(stat);
+		}
+	}
+
+	public void remove(FSFWOFFlowStatisticsReply stat){
+		OFMatch match = stat.getMatch();
+		if((match.getWildcards() & OFMatch.OFPFW_IN_PORT) == 0){
+			removeFrom(byInPort, match.getInputPort(), stat);
+		}
+		if((match.getWildcards() & OFMatch.OFPFW_DL_VLAN) == 0){
+			removeFrom(byVlan, match.getDataLayerVirtualLan(), stat);
+		}
+		for(Short port : outputPorts(stat.getActions())){
+			removeFrom(byOutPort, port, stat);
+		}
+	}
+
+	public void clear(){
+		byInPort.clear();
+		byVlan.clear();
+		byOutPort.clear();
+	}
+
+	/**
+	 * finds all flows visible to the controller that match the
+	 * stats request filters.  allFlows is the slice's flow list and
+	 * is only scanned when none of the indexes can narrow the query
+	 * @param allFlows
+	 * @param match
+	 * @param outPort
+	 * @param tableId
+	 * @return
+	 */
+	public List<OFStatistics> query(List<OFStatistics> allFlows, OFMatch match, short outPort, byte tableId){
+		Set<FSFWOFFlowStatisticsReply> candidates = null;
+		boolean narrowed = false;
+
+		if(match != null){
+			if((match.getWildcards() & OFMatch.OFPFW_IN_PORT) == 0){
+				candidates = smaller(candidates, bucket(byInPort, match.getInputPort(), false));
+				narrowed = true;
+			}
+			if((match.getWildcards() & OFMatch.OFPFW_DL_VLAN) == 0){
+				candidates = smaller(candidates, bucket(byVlan, match.getDataLayerVirtualLan(), false));
+				narrowed = true;
+			}
+		}
+		if(outPort != OFPort.OFPP_NONE.getValue()){
+			candidates = smaller(candidates, bucket(byOutPort, outPort, false));
+			narrowed = true;
+		}
+
+		List<OFStatistics> results = new ArrayList<OFStatistics>();
+		if(narrowed){
+			if(candidates == null){
+				return results;
+			}
+			for(FSFWOFFlowStatisticsReply stat : candidates){
+				if(matches(stat, match, outPort, tableId)){
+					results.add(stat);
+				}
+			}
+		}else{
+			for(OFStatistics stat : allFlows){
+				FSFWOFFlowStatisticsReply flowStat = (FSFWOFFlowStatisticsReply) stat;
+				if(matches(flowStat, match, outPort, tableId)){
+					results.add(flowStat);
+				}
+			}
+		}
+		return results;
+	}
+
+	private boolean matches(FSFWOFFlowStatisticsReply stat, OFMatch match, short outPort, byte tableId){
+		//we only want verified flows to appear
+		if(stat.toBeDeleted() || !stat.isVerified()){
+			return false;
+		}
+		if(!FlowMatcher.inTable(tableId, stat.getTableId())){
+			return false;
+		}
+		if(match != null && !FlowMatcher.subsumes(match, stat.getMatch())){
+			return false;
+		}
+		return FlowMatcher.outputsTo(stat.getActions(), outPort);
+	}
+
+	private Set<FSFWOFFlowStatisticsReply> smaller(Set<FSFWOFFlowStatisticsReply> current, Set<FSFWOFFlowStatisticsReply> other){
+		if(other == null){
+			//nothing was indexed under this key so nothing can match
+			return Collections.<FSFWOFFlowStatisticsReply>emptySet();
+		}
+		if(current == null || other.size() < current.size()){
+			return other;
+		}
+		return current;
+	}
+
+	private static Set<FSFWOFFlowStatisticsReply> bucket(HashMap<Short, Set<FSFWOFFlowStatisticsReply>> index, short key, boolean create){
+		Set<FSFWOFFlowStatisticsReply> set = index.get(key);
+		if(set == null && create){
+			set = Collections.newSetFromMap(new IdentityHashMap<FSFWOFFlowStatisticsReply, Boolean>());
+			index.put(key, set);
+		}
+		return set;
+	}
+
+	private static void removeFrom(HashMap<Short, Set<FSFWOFFlowStatisticsReply>> index, short key, FSFWOFFlowStatisticsReply stat){
+		Set<FSFWOFFlowStatisticsReply> set = index.get(key);
+		if(set == null){
+			return;
+		}
+		set.remove(stat);
+		if(set.isEmpty()){
+			index.remove(key);
+		}
+	}
+
+	/**
+	 * returns the distinct output ports of an action list
+	 * @param actions
+	 * @return
+	 */
+	public static Set<Short> outputPorts(List<OFAction> actions){
+		Set<Short> ports = new HashSet<Short>();
+		if(actions == null){
+			return ports;
+		}
+		for(OFAction act : actions){
+			if(act.getType() == OFActionType.OUTPUT){
+				ports.add(((OFActionOutput)act).getPort());
+			}
+		}
+		return ports;
+	}
+}
@@ -15,35 +15,55 @@
 */
 package edu.iu.grnoc.flowspace_firewall;
 
-import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
 
 import net.floodlightcontroller.core.FloodlightContext;
 
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class FlowTimeout {
 
 	private OFFlowMod flow;
-	private Timestamp expires;
+	//System.nanoTime() deadline, only compare by subtraction
+	private volatile long expires;
 	//to track idle timeout
-	private int timeout;
+	private long timeout;
 	//is a hard timeout or an idle timeout?
 	private boolean hard;
 	private long packetCount;
+	//System.nanoTime() of the last time the packet count moved
+	private long lastPacketChange;
+	//canonical form of the flow's match for looking it up in stats replies
+	private OFMatch matchKey;
 	private FloodlightContext context;
+	//the proxy that installed the flow and removes it again
+	private Proxy proxy;
+	private volatile boolean cancelled;
+	//the deadline the last stats probe was sent for
+	private boolean probed;
+	private long probedFor;
 	
 	private static final Logger log = LoggerFactory.getLogger(FlowTimeout.class);
 	
 	public FlowTimeout(OFFlowMod flow, int timeout, boolean hard, FloodlightContext context){
+		this(null, flow, timeout, hard, context);
+	}
+	
+	public FlowTimeout(Proxy proxy, OFFlowMod flow, int timeout, boolean hard, FloodlightContext context){
+		this.proxy = proxy;
 		this.flow = flow;
 		this.hard = hard;
 		this.context = context;
-		this.expires = new Timestamp( System.currentTimeMillis() + (timeout  * 1000) );
-		log.debug("I expire at: " + this.expires.toString());
-		this.timeout = timeout;
+		this.timeout = TimeUnit.SECONDS.toNanos(timeout);
+		this.expires = System.nanoTime() + this.timeout;
+		log.debug("I expire in: " + timeout + " seconds");
 		this.packetCount = 0;
+		this.lastPacketChange = System.nanoTime();
+		this.cancelled = false;
+		this.probed = false;
 	}
 	
 	public OFFlowMod getFlow(){
@@ -54,29 +74,110 @@ public class FlowTimeout {
 		return this.context;
 	}
 	
+	public Proxy getProxy(){
+		return this.proxy;
+	}
+	
+	public long getExpires(){
+		return this.expires;
+	}
+	
 	public boolean isExpired(){
-		Timestamp now = new Timestamp(System.currentTimeMillis());
-		if(this.expires.before(now)){
-			return true;
-		}else{
-			return false;
-		}
+		return this.isExpired(System.nanoTime());
+	}
+	
+	public boolean isExpired(long now){
+		return this.expires - now <= 0;
 	}
 
 	public boolean isHard(){
 		return this.hard;
 	}
 	
-	public void setPacketCount(long pktCount){
+	public synchronized void setPacketCount(long pktCount){
 		this.packetCount = pktCount;
 	}
 	
-	public long getPacketCount(){
+	public synchronized long getPacketCount(){
 		return this.packetCount;
 	}
 	
+	public synchronized long getLastPacketChange(){
+		return this.lastPacketChange;
+	}
+	
+	/**
+	 * returns the canonical match key of the flow
+	 * see FlowMatcher.canonical
+	 */
+	public OFMatch getMatchKey(){
+		if(this.matchKey == null){
+			this.matchKey = FlowMatcher.canonical(this.flow.getMatch());
+		}
+		return this.matchKey;
+	}
+	
+	/**
+	 * records the polled packet count of the flow, if it moved the
+	 * flow was used so the idle deadline is pushed out
+	 * the stats thread and the timer thread both get here, the
+	 * count, its change time and the deadline move together
+	 * @param pktCount
+	 * @return true if the flow saw traffic
+	 */
+	public boolean updatePacketCount(long pktCount){
+		return this.updatePacketCount(pktCount, System.nanoTime());
+	}
+	
+	public synchronized boolean updatePacketCount(long pktCount, long now){
+		if(pktCount == this.packetCount){
+			return false;
+		}
+		this.packetCount = pktCount;
+		this.lastPacketChange = now;
+		this.updateLastUsed(now);
+		return true;
+	}
+	
+	/**
+	 * returns when the timing wheel needs to look at this timeout again
+	 * idle timeouts get probed probeLead before the deadline, once per deadline
+	 * @param probeLead nanoseconds, 0 disables probing
+	 * @return
+	 */
+	public synchronized long getWakeup(long probeLead){
+		if(this.hard || probeLead <= 0 || (this.probed && this.probedFor == this.expires)){
+			return this.expires;
+		}
+		return this.expires - probeLead;
+	}
+	
+	/**
+	 * a stats probe went out for the current deadline
+	 */
+	public synchronized void setProbed(){
+		this.probed = true;
+		this.probedFor = this.expires;
+	}
+	
+	/**
+	 * pushes the deadline out, the timing wheel notices the
+	 * new deadline when it gets to the old one
+	 */
 	public void updateLastUsed(){
-		this.expires = new Timestamp(System.currentTimeMillis() + (timeout * 1000));
+		this.updateLastUsed(System.nanoTime());
+	}
+	
+	public synchronized void updateLastUsed(long now){
+		this.expires = now + this.timeout;
+	}
+	
+	public void cancel(){
+		this.cancelled = true;
+	}
+	
+	public boolean isCancelled(){
+		return this.cancelled;
 	}
 	
 }
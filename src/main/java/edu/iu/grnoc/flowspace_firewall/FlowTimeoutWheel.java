@@ -0,0 +1,296 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TimerTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timing wheel for the software idle/hard timeouts of slices
+ * that do timeouts in FSFW.  Each bucket holds the timeouts that are due
+ * in one tick of the wheel, so a tick only looks at the timeouts that might
+ * be due instead of every pending timeout.  Timeouts further out than a
+ * full turn stay in their bucket until their turn comes around, idle timeouts
+ * that were pushed out are moved to their new bucket when the old one comes up.
+ *
+ * Scheduled on a Timer at the resolution, expired flows are handed
+ * back to their proxy in one batch per tick.
+ *
+ * Idle timeouts only know about traffic the stats poller saw, so shortly
+ * before an idle deadline the wheel asks the switch for the stats of just
+ * that flow.  If the reply shows new packets the deadline is pushed out,
+ * otherwise the flow expires on time instead of a poll interval late
+ * @author aragusa
+ *
+ */
+
+public class FlowTimeoutWheel extends TimerTask {
+
+	public static final long DEFAULT_RESOLUTION = 100;
+	//a little under 2 minutes per turn at the default resolution
+	public static final int DEFAULT_WHEEL_SIZE = 1024;
+	//how long before an idle deadline the flow is probed
+	public static final long DEFAULT_PROBE_LEAD = 1000;
+	//give up on a probe reply after this long
+	private static final long PROBE_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+	/**
+	 * a flow stats probe waiting on its reply
+	 */
+	private static class IdleProbe {
+		private final FlowTimeout timeout;
+		private final Future<List<OFStatistics>> future;
+		private final long sent;
+
+		private IdleProbe(FlowTimeout timeout, Future<List<OFStatistics>> future, long sent){
+			this.timeout = timeout;
+			this.future = future;
+			this.sent = sent;
+		}
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(FlowTimeoutWheel.class);
+
+	private final long tickNanos;
+	private final int wheelSize;
+	private final long probeLead;
+	//only touched from expire, ie... the timer thread
+	private final List<IdleProbe> probes;
+	private final List<ArrayList<FlowTimeout>> buckets;
+	//swapped in for a bucket while it is being processed
+	private ArrayList<FlowTimeout> spare;
+	private final long start;
+	//last tick that was processed
+	private long currentTick;
+	private int size;
+
+	public FlowTimeoutWheel(){
+		this(DEFAULT_RESOLUTION, DEFAULT_WHEEL_SIZE);
+	}
+
+	public FlowTimeoutWheel(long resolution, int wheelSize){
+		this(resolution, wheelSize, DEFAULT_PROBE_LEAD);
+	}
+
+	/**
+	 * @param resolution in milliseconds, timeouts fire at most this late
+	 * @param wheelSize number of buckets
+	 * @param probeLead in milliseconds, how long before an idle deadline to probe, 0 disables probes
+	 */
+	public FlowTimeoutWheel(long resolution, int wheelSize, long probeLead){
+		if(resolution <= 0 || wheelSize <= 0 || probeLead < 0){
+			throw new IllegalArgumentException("resolution and wheel size must be positive and probe lead not negative");
+		}
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(resolution);
+		this.wheelSize = wheelSize;
+		this.probeLead = TimeUnit.MILLISECONDS.toNanos(probeLead);
+		this.probes = new ArrayList<IdleProbe>();
+		this.buckets = new ArrayList<ArrayList<FlowTimeout>>(wheelSize);
+		for(int i = 0; i < wheelSize; i++){
+			this.buckets.add(new ArrayList<FlowTimeout>());
+		}
+		this.spare = new ArrayList<FlowTimeout>();
+		this.start = System.nanoTime();
+		this.currentTick = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * returns the bucket of the first tick at or after the deadline
+	 * that has not been processed yet
+	 */
+	private int slot(long deadline){
+		long offset = deadline - start;
+		long tick = currentTick + 1;
+		if(offset > 0){
+			tick = Math.max(tick, (offset + tickNanos - 1) / tickNanos);
+		}
+		return (int)(tick % wheelSize);
+	}
+
+	public synchronized void schedule(FlowTimeout timeout){
+		buckets.get(slot(timeout.getWakeup(probeLead))).add(timeout);
+		size++;
+	}
+
+	/**
+	 * number of timeouts in the wheel, including cancelled ones
+	 * that have not been swept yet
+	 */
+	public synchronized int size(){
+		return size;
+	}
+
+	/**
+	 * processes every tick up to now and returns the timeouts that expired
+	 * cancelled timeouts are dropped along the way
+	 * @param now System.nanoTime()
+	 * @return
+	 */
+	public List<FlowTimeout> advance(long now){
+		return this.advance(now, new ArrayList<FlowTimeout>());
+	}
+
+	/**
+	 * processes every tick up to now and returns the timeouts that expired
+	 * @param now System.nanoTime()
+	 * @param toProbe gets the idle timeouts that are close enough to their deadline to be probed
+	 * @return
+	 */
+	public synchronized List<FlowTimeout> advance(long now, List<FlowTimeout> toProbe){
+		List<FlowTimeout> expired = new ArrayList<FlowTimeout>();
+		long target = (now - start) / tickNanos;
+		long tick = currentTick + 1;
+		//after a full turn every bucket has been seen
+		if(target - currentTick > wheelSize){
+			tick = target - wheelSize + 1;
+		}
+		for(; tick <= target; tick++){
+			currentTick = tick;
+			int index = (int)(tick % wheelSize);
+			ArrayList<FlowTimeout> bucket = buckets.get(index);
+			if(bucket.isEmpty()){
+				continue;
+			}
+			buckets.set(index, spare);
+			for(FlowTimeout timeout : bucket){
+				if(timeout.isCancelled()){
+					size--;
+				}else if(timeout.isExpired(now)){
+					expired.add(timeout);
+					size--;
+				}else if(timeout.getWakeup(probeLead) - now <= 0){
+					//close to an idle deadline, check with the switch then come back at the deadline
+					timeout.setProbed();
+					toProbe.add(timeout);
+					buckets.get(slot(timeout.getWakeup(probeLead))).add(timeout);
+				}else{
+					//not due yet, either a later turn or an idle timeout that was pushed out
+					buckets.get(slot(timeout.getWakeup(probeLead))).add(timeout);
+				}
+			}
+			bucket.clear();
+			spare = bucket;
+		}
+		if(target > currentTick){
+			currentTick = target;
+		}
+		return expired;
+	}
+
+	/**
+	 * applies the probe replies that came back, sends probes for idle
+	 * flows near their deadline and hands each proxy its expired flows
+	 * @param now
+	 */
+	public void expire(long now){
+		this.checkProbes(now);
+		List<FlowTimeout> toProbe = new ArrayList<FlowTimeout>();
+		List<FlowTimeout> expired = this.advance(now, toProbe);
+		for(FlowTimeout timeout : toProbe){
+			if(timeout.getProxy() == null){
+				continue;
+			}
+			Future<List<OFStatistics>> future = timeout.getProxy().probeFlow(timeout);
+			if(future != null){
+				probes.add(new IdleProbe(timeout, future, now));
+			}
+		}
+		if(expired.isEmpty()){
+			return;
+		}
+		HashMap<Proxy, List<FlowTimeout>> byProxy = new HashMap<Proxy, List<FlowTimeout>>();
+		for(FlowTimeout timeout : expired){
+			if(timeout.getProxy() == null){
+				continue;
+			}
+			List<FlowTimeout> proxyTimeouts = byProxy.get(timeout.getProxy());
+			if(proxyTimeouts == null){
+				proxyTimeouts = new ArrayList<FlowTimeout>();
+				byProxy.put(timeout.getProxy(), proxyTimeouts);
+			}
+			proxyTimeouts.add(timeout);
+		}
+		for(Entry<Proxy, List<FlowTimeout>> entry : byProxy.entrySet()){
+			entry.getKey().expireFlows(entry.getValue());
+		}
+	}
+
+	/**
+	 * a probe that shows the flow moved packets pushes its deadline out
+	 * probes that take too long are dropped, the flow just expires on time
+	 * @param now
+	 */
+	private void checkProbes(long now){
+		Iterator<IdleProbe> it = probes.iterator();
+		while(it.hasNext()){
+			IdleProbe probe = it.next();
+			if(!probe.future.isDone()){
+				if(now - probe.sent > PROBE_TIMEOUT){
+					probe.future.cancel(true);
+					it.remove();
+				}
+				continue;
+			}
+			it.remove();
+			List<OFStatistics> stats;
+			try{
+				stats = probe.future.get();
+			}catch(Exception e){
+				log.debug("Idle probe failed: " + e.getMessage());
+				continue;
+			}
+			if(stats == null){
+				continue;
+			}
+			for(OFStatistics stat : stats){
+				OFFlowStatisticsReply flowStat = (OFFlowStatisticsReply) stat;
+				//the probe matches non strict so more specific flows come back too
+				if(FlowMatcher.canonical(flowStat.getMatch()).equals(probe.timeout.getMatchKey())){
+					probe.timeout.updatePacketCount(flowStat.getPacketCount(), now);
+				}
+			}
+		}
+	}
+
+	/**
+	 * the TimerTask run method, a thrown exception would kill the Timer
+	 */
+	@Override
+	public void run(){
+		try{
+			this.expire(System.nanoTime());
+		}catch(Exception e){
+			log.error("Exception thrown while expiring flows");
+			log.error(e.getMessage());
+			StackTraceElement[] trace = e.getStackTrace();
+			for(int i=0; i< trace.length; i++){
+				log.error(trace[i].toString());
+			}
+		}
+	}
+}
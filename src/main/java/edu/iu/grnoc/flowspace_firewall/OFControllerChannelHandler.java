@@ -23,13 +23,13 @@ import java.util.List;
 import java.util.concurrent.RejectedExecutionException;
 
 import net.floodlightcontroller.core.IOFSwitch;
-import net.floodlightcontroller.core.ImmutablePort;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
 import net.floodlightcontroller.core.internal.HandshakeTimeoutException;
 import net.floodlightcontroller.core.internal.SwitchStateException;
 import net.floodlightcontroller.storage.StorageException;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
@@ -61,9 +61,17 @@ class OFControllerChannelHandler
     private Channel channel;
     private IOFSwitch sw;
     private Proxy proxy;
+    //told when the channel closes so it can schedule the reconnect
+    private ControllerConnector connector;
     // State needs to be volatile because the HandshakeTimeoutHandler
     // needs to check if the handshake is complete
     private volatile ChannelState state;
+    //writes made while the channel is over its high watermark
+    private final ControllerOutboundQueue outbound = new ControllerOutboundQueue();
+    //reads were paused by us for the write watermark, not by the slicing pool
+    private volatile boolean pausedForWrites = false;
+    //pausing/resuming for writes and letting a read interest change through are atomic
+    private final Object readInterestLock = new Object();
 
     /** transaction Ids to use during handshake. Since only one thread
      * calls into the OFChannelHandler we don't need atomic.
@@ -372,26 +380,8 @@ class OFControllerChannelHandler
         
         void processOFFeaturesRequest(OFControllerChannelHandler h, OFMessage  m)
                 throws IOException {
-        	log.debug("Have a features request... generating features reply.");
-        	OFFeaturesReply response = (OFFeaturesReply) BasicFactory.getInstance().getMessage(OFType.FEATURES_REPLY);
-        	response.setDatapathId(h.sw.getId());
-        	response.setCapabilities(h.sw.getCapabilities());
-        	response.setActions(h.sw.getActions());
-        	//need to take the collection of ports and turn them into the list
-        	List <OFPhysicalPort> ports = new ArrayList<OFPhysicalPort>();
-        	for(ImmutablePort port : h.sw.getPorts()){
-        		if(h.proxy.getSlicer().isPortPartOfSlice(port.getPortNumber())){
-        			OFPhysicalPort p = port.toOFPhysicalPort();
-        			ports.add(p);
-        		}	
-        	}
-        	
-        	response.setPorts(ports);
-        	response.setBuffers(h.sw.getBuffers());
-        	response.setTables(h.sw.getTables());
-        	response.setXid(m.getXid());
-        	log.debug("sending OFFeatureReply");
-        	h.sendMessage(response);
+        	log.debug("Have a features request... sending the slice's features reply.");
+        	h.sendBuffer(h.proxy.getFeaturesReply(m.getXid()), OFType.FEATURES_REPLY);
         }
         
         void processOFBarrierReply(OFControllerChannelHandler h, OFBarrierReply m)
@@ -482,6 +472,28 @@ class OFControllerChannelHandler
     	this.proxy = proxy;
     }
     
+    public void setConnector(ControllerConnector connector){
+    	this.connector = connector;
+    }
+    
+    public void setOutboundQueueSize(int size){
+    	this.outbound.setCapacity(size);
+    }
+    
+    public ControllerOutboundQueue getOutboundQueue(){
+    	return this.outbound;
+    }
+    
+    /**
+     * true while the controller is not keeping up, ie... the channel
+     * is over its high watermark or writes are still queued
+     * packet ins for the slice should wait until this clears
+     * @return
+     */
+    public boolean isBackedUp(){
+    	return channel == null || !channel.isWritable() || !outbound.isEmpty();
+    }
+    
 	/**
      * Is this a state in which the handshake has completed?
      * @return true if the handshake is complete
@@ -513,8 +525,67 @@ class OFControllerChannelHandler
                    explanation="The specified controller has disconnected.")
     public void channelDisconnected(ChannelHandlerContext ctx,
                                     ChannelStateEvent e) throws Exception {
-        
-
+    	this.outbound.clear();
+    }
+    
+    /**
+     * fired for every channel that closes, including ones that never connected
+     */
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx,
+                              ChannelStateEvent e) throws Exception {
+    	if(this.connector != null && this.proxy != null){
+    		this.connector.channelClosed(this.proxy, this.isHandshakeComplete());
+    	}
+    }
+    
+    /**
+     * fired when the channel crosses its write watermarks
+     * while the controller is backed up stop reading from it so it
+     * can not ask for more (stats, packet outs...) until it catches up
+     */
+    @Override
+    public void channelInterestChanged(ChannelHandlerContext ctx,
+                                       ChannelStateEvent e) throws Exception {
+    	Channel ch = e.getChannel();
+    	if(ch.isWritable()){
+    		this.flushOutbound();
+    		synchronized(readInterestLock){
+    			if(ch.isWritable() && pausedForWrites){
+    				log.debug("Controller channel is writable again, resuming reads");
+    				pausedForWrites = false;
+    				ch.setReadable(true);
+    			}
+    		}
+    	}else{
+    		synchronized(readInterestLock){
+    			if(ch.isReadable()){
+    				log.debug("Controller channel is over its high watermark, pausing reads");
+    				pausedForWrites = true;
+    				ch.setReadable(false);
+    			}
+    		}
+    	}
+    	super.channelInterestChanged(ctx, e);
+    }
+    
+    /**
+     * the slicing pool turns reads back on once its queue for the channel
+     * drains, while we are paused for the write watermark that would let
+     * the controller ask for more before it caught up, so it is dropped
+     * here and reads come back when the channel is writable again
+     */
+    @Override
+    public void setInterestOpsRequested(ChannelHandlerContext ctx,
+                                        ChannelStateEvent e) throws Exception {
+    	synchronized(readInterestLock){
+    		if(pausedForWrites && (((Integer)e.getValue()) & Channel.OP_READ) != 0){
+    			log.debug("Controller channel is paused for writes, not resuming reads");
+    			e.getFuture().setSuccess();
+    			return;
+    		}
+    		super.setInterestOpsRequested(ctx, e);
+    	}
     }
 
     @Override
@@ -705,12 +776,111 @@ class OFControllerChannelHandler
         return null;
     }
 
-    public void sendMessage(OFMessage m) throws IOException{
+    /**
+     * writes straight to the channel unless the controller is backed up
+     * in which case the write is queued until it drops below the low watermark
+     * @param payload
+     * @param type
+     * @return false if the write was dropped
+     */
+    private boolean write(Object payload, OFType type){
+    	List<ControllerOutboundQueue.Entry> evicted;
+    	boolean queued;
+    	synchronized(outbound){
+    		if(outbound.isEmpty() && channel.isWritable()){
+    			channel.write(payload);
+    			return true;
+    		}
+    		evicted = new ArrayList<ControllerOutboundQueue.Entry>(1);
+    		queued = outbound.offer(payload, type, evicted);
+    		if(!queued){
+    			log.debug("Controller channel backed up, dropped message of type: " + type);
+    		}
+    	}
+    	for(ControllerOutboundQueue.Entry entry : evicted){
+    		this.packetInsDropped(entry);
+    	}
+    	return queued;
+    }
+    
+    /**
+     * lets the proxy know the packet ins of a dropped write never made it
+     * @param entry
+     */
+    private void packetInsDropped(ControllerOutboundQueue.Entry entry){
+    	if(entry.getType() != OFType.PACKET_IN || proxy == null || !(entry.getPayload() instanceof List)){
+    		return;
+    	}
+    	for(Object msg : (List<?>)entry.getPayload()){
+    		if(msg instanceof OFPacketIn){
+    			proxy.packetInDropped((OFPacketIn)msg);
+    		}
+    	}
+    }
+    
+    /**
+     * writes queued messages for as long as the channel stays writable
+     */
+    private void flushOutbound(){
+    	synchronized(outbound){
+    		while(channel != null && channel.isWritable() && !outbound.isEmpty()){
+    			channel.write(outbound.poll().getPayload());
+    		}
+    	}
+    }
+    
+    /**
+     * sends a message, queueing it if the controller is backed up
+     * @param m
+     * @return false if the message was dropped
+     * @throws IOException
+     */
+    public boolean sendMessage(OFMessage m) throws IOException{
     	log.debug("attempting to send message: " + m.toString());
     	if(channel != null && channel.isConnected()){
-    		channel.write(Collections.singletonList(m));
+    		return this.write(Collections.singletonList(m), m.getType());
+    	}
+    	log.debug("Channel is not connected can not send message!!!");
+    	return false;
+    }
+    
+    /**
+     * sends a group of messages (ie... a multipart stats reply)
+     * in a single write so they go out back to back
+     * @param msgs
+     * @throws IOException
+     */
+    public void sendMessages(List<OFMessage> msgs) throws IOException{
+    	log.debug("attempting to send " + msgs.size() + " messages");
+    	if(channel != null && channel.isConnected() && !msgs.isEmpty()){
+    		this.write(msgs, msgs.get(0).getType());
+    	}else{
+    		log.debug("Channel is not connected can not send messages!!!");
+    	}
+    }
+    
+    /**
+     * sends already encoded stats replies
+     * the encoder passes buffers straight through
+     * @param buf
+     * @throws IOException
+     */
+    public void sendBuffer(ChannelBuffer buf) throws IOException{
+    	this.sendBuffer(buf, OFType.STATS_REPLY);
+    }
+    
+    /**
+     * sends an already encoded message of the given type
+     * @param buf
+     * @param type
+     * @throws IOException
+     */
+    public void sendBuffer(ChannelBuffer buf, OFType type) throws IOException{
+    	log.debug("attempting to send " + buf.readableBytes() + " encoded bytes");
+    	if(channel != null && channel.isConnected()){
+    		this.write(buf, type);
     	}else{
-    		log.debug("Channel is not connected can not send message!!!");
+    		log.debug("Channel is not connected can not send buffer!!!");
     	}
     }
     
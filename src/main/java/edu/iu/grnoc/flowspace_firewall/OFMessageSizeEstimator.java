@@ -0,0 +1,63 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.List;
+
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.util.DefaultObjectSizeEstimator;
+import org.jboss.netty.util.EstimatableObjectWrapper;
+import org.jboss.netty.util.ObjectSizeEstimator;
+import org.openflow.protocol.OFMessage;
+
+/**
+ * Sizes the decoded messages waiting in the slicing pool by their
+ * wire length.  The decoder hands up a list of OFMessages per read
+ * and netty's default estimator only sees the list, so without this
+ * a channel's queued flow mods would hardly count toward its memory limit.
+ * The pool hands over the ChannelEventRunnable it queued, not the
+ * message, so that is unwrapped down to the message first
+ * @author aragusa
+ *
+ */
+
+public class OFMessageSizeEstimator implements ObjectSizeEstimator {
+
+	//rough cost of the decoded object on top of its wire length
+	private static final int MESSAGE_OVERHEAD = 64;
+
+	private final ObjectSizeEstimator fallback = new DefaultObjectSizeEstimator();
+
+	public int estimateSize(Object o){
+		if(o instanceof EstimatableObjectWrapper){
+			o = ((EstimatableObjectWrapper)o).unwrap();
+		}
+		if(o instanceof MessageEvent){
+			o = ((MessageEvent)o).getMessage();
+		}
+		if(o instanceof OFMessage){
+			return ((OFMessage)o).getLengthU() + MESSAGE_OVERHEAD;
+		}
+		if(o instanceof List){
+			int size = MESSAGE_OVERHEAD;
+			for(Object item : (List<?>)o){
+				size += this.estimateSize(item);
+			}
+			return size;
+		}
+		return fallback.estimateSize(o);
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openflow.protocol.OFMatch;
+
+/**
+ * Suppression window for repeated packet ins of the same flow.
+ * A reactive controller gets every packet of a new flow as a packet in
+ * until its flow mod lands, so once a flow has been sent to the controller
+ * more packet ins with the same exact match (in_port, vlan, L2/L3/L4 fields)
+ * are only counted until the window runs out or a flow mod covering
+ * the match is admitted.  The windows are also indexed by in_port and
+ * dl_type so a wildcarded flow mod only looks at the flows it could cover
+ * @author aragusa
+ *
+ */
+
+public class PacketInDedup {
+
+	public static final int DEFAULT_MAX_FLOWS = 10000;
+
+	//when each flow was last sent to the controller
+	//insertion ordered so the oldest window is always first
+	private final LinkedHashMap<OFMatch, Long> windows;
+	//the same flows by in_port << 16 | dl_type
+	private final HashMap<Integer, HashSet<OFMatch>> index = new HashMap<Integer, HashSet<OFMatch>>();
+	private long windowNanos;
+	private long suppressed = 0;
+
+	public PacketInDedup(){
+		this(0, DEFAULT_MAX_FLOWS);
+	}
+
+	/**
+	 * @param window in milliseconds, 0 disables suppression
+	 * @param maxFlows most flows tracked at once, the oldest is forgotten first
+	 */
+	public PacketInDedup(long window, final int maxFlows){
+		this.windows = new LinkedHashMap<OFMatch, Long>(){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<OFMatch, Long> eldest){
+				if(size() > maxFlows){
+					unindex(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+		this.setWindow(window);
+	}
+
+	/**
+	 * @param window in milliseconds, 0 disables suppression
+	 */
+	public synchronized void setWindow(long window){
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+		if(window <= 0){
+			windows.clear();
+			index.clear();
+		}
+	}
+
+	public synchronized long getWindow(){
+		return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+	}
+
+	/**
+	 * returns true if a packet in for the same flow was sent within the window
+	 * otherwise starts a new window for the flow
+	 * @param key the exact match of the packet, see FlowMatcher.canonical
+	 * @param now System.nanoTime()
+	 * @return
+	 */
+	public synchronized boolean isDuplicate(OFMatch key, long now){
+		if(windowNanos <= 0){
+			return false;
+		}
+		Long start = windows.get(key);
+		if(start != null && now - start < windowNanos){
+			suppressed++;
+			return true;
+		}
+		if(start != null){
+			//still indexed, it goes right back in
+			windows.remove(key);
+		}
+		//the head is the oldest window, drop the ones that ran out
+		Iterator<Map.Entry<OFMatch, Long>> it = windows.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<OFMatch, Long> oldest = it.next();
+			if(now - oldest.getValue() < windowNanos){
+				break;
+			}
+			it.remove();
+			unindex(oldest.getKey());
+		}
+		if(start == null){
+			//before the put so a max flows eviction of this key unindexes it
+			index(key);
+		}
+		windows.put(key, now);
+		return false;
+	}
+
+	/**
+	 * ends the window of every flow the flow mod's match covers
+	 * so the next packet in for them goes to the controller
+	 * @param match
+	 * @return the number of windows ended
+	 */
+	public synchronized int clear(OFMatch match){
+		if(windows.isEmpty()){
+			return 0;
+		}
+		int wildcards = match.getWildcards();
+		if(wildcards == 0){
+			OFMatch key = FlowMatcher.canonical(match);
+			if(windows.remove(key) == null){
+				return 0;
+			}
+			unindex(key);
+			return 1;
+		}
+		int cleared = 0;
+		if((wildcards & OFMatch.OFPFW_IN_PORT) != 0){
+			//any port, nothing to narrow it down with
+			Iterator<OFMatch> it = windows.keySet().iterator();
+			while(it.hasNext()){
+				OFMatch key = it.next();
+				if(FlowMatcher.subsumes(match, key)){
+					it.remove();
+					unindex(key);
+					cleared++;
+				}
+			}
+			return cleared;
+		}
+		if((wildcards & OFMatch.OFPFW_DL_TYPE) == 0){
+			HashSet<OFMatch> keys = index.get(indexKey(match.getInputPort(), match.getDataLayerType()));
+			if(keys == null){
+				return 0;
+			}
+			cleared = clear(match, keys);
+			if(keys.isEmpty()){
+				index.remove(indexKey(match.getInputPort(), match.getDataLayerType()));
+			}
+			return cleared;
+		}
+		//every dl_type seen on the port
+		int port = match.getInputPort() & 0xffff;
+		Iterator<Map.Entry<Integer, HashSet<OFMatch>>> it = index.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<Integer, HashSet<OFMatch>> entry = it.next();
+			if(entry.getKey() >>> 16 != port){
+				continue;
+			}
+			cleared += clear(match, entry.getValue());
+			if(entry.getValue().isEmpty()){
+				it.remove();
+			}
+		}
+		return cleared;
+	}
+	
+	/**
+	 * ends the windows in one index bucket that the match covers
+	 */
+	private int clear(OFMatch match, HashSet<OFMatch> keys){
+		int cleared = 0;
+		Iterator<OFMatch> it = keys.iterator();
+		while(it.hasNext()){
+			OFMatch key = it.next();
+			if(FlowMatcher.subsumes(match, key)){
+				it.remove();
+				windows.remove(key);
+				cleared++;
+			}
+		}
+		return cleared;
+	}
+	
+	private static int indexKey(short inPort, short dlType){
+		return (inPort & 0xffff) << 16 | (dlType & 0xffff);
+	}
+	
+	private void index(OFMatch key){
+		int k = indexKey(key.getInputPort(), key.getDataLayerType());
+		HashSet<OFMatch> keys = index.get(k);
+		if(keys == null){
+			keys = new HashSet<OFMatch>();
+			index.put(k, keys);
+		}
+		keys.add(key);
+	}
+	
+	private void unindex(OFMatch key){
+		int k = indexKey(key.getInputPort(), key.getDataLayerType());
+		HashSet<OFMatch> keys = index.get(k);
+		if(keys != null && keys.remove(key) && keys.isEmpty()){
+			index.remove(k);
+		}
+	}
+
+	/**
+	 * number of flows with an open window
+	 */
+	public synchronized int size(){
+		return windows.size();
+	}
+
+	/**
+	 * total packet ins held back
+	 */
+	public synchronized long getSuppressed(){
+		return suppressed;
+	}
+}
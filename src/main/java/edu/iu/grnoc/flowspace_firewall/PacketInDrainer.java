@@ -0,0 +1,58 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the queued packet ins of every proxy as their packet in
+ * rate allows, so queued packets go out even when no new packet
+ * in comes along to push them
+ * @author aragusa
+ *
+ */
+
+public class PacketInDrainer extends TimerTask {
+
+	private static final Logger log = LoggerFactory.getLogger(PacketInDrainer.class);
+	private final ControllerConnector controllerConnector;
+
+	public PacketInDrainer(ControllerConnector controllerConnector){
+		this.controllerConnector = controllerConnector;
+	}
+
+	/**
+	 * the TimerTask run method, a thrown exception would kill the Timer
+	 */
+	@Override
+	public void run(){
+		try{
+			for(Proxy p : controllerConnector.getAllProxies()){
+				p.drainPacketIns();
+			}
+		}catch(Exception e){
+			log.error("Exception thrown while draining packet ins");
+			log.error(e.getMessage());
+			StackTraceElement[] trace = e.getStackTrace();
+			for(int i=0; i< trace.length; i++){
+				log.error(trace[i].toString());
+			}
+		}
+	}
+}
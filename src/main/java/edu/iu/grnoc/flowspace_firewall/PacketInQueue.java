@@ -0,0 +1,200 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.openflow.protocol.OFPacketIn;
+
+/**
+ * Bounded queue for the packet ins of a slice that are over the
+ * slice's packet in rate.  When the queue is full packets are shed
+ * according to the drop policy instead of disabling the slice.
+ *
+ * Also keeps track of how long the slice has been shedding.  The slice
+ * is overloaded from the first shed packet until it goes a full clear
+ * period without shedding, so a short lull in a storm does not reset it.
+ * Only a slice that stays overloaded for the disable time should be disabled
+ * @author aragusa
+ *
+ */
+
+public class PacketInQueue {
+
+	public static enum DropPolicy {
+		//drop the packet that just came in
+		TAIL,
+		//drop the oldest queued packet to make room
+		HEAD,
+		//when full one out of every SAMPLE_RATE packets replaces the oldest, the rest are dropped
+		SAMPLE
+	}
+
+	public static final int DEFAULT_CAPACITY = 100;
+	public static final int DEFAULT_DISABLE_TIME = 10;
+	public static final int SAMPLE_RATE = 10;
+	//how long without shedding before the slice is no longer overloaded
+	private static final long OVERLOAD_CLEAR = TimeUnit.SECONDS.toNanos(2);
+
+	private final ArrayDeque<OFPacketIn> queue;
+	private int capacity;
+	private DropPolicy policy;
+	private long disableNanos;
+	private long shed = 0;
+	private long queued = 0;
+	private long sampleCount = 0;
+	private boolean overloaded = false;
+	private long overloadStart;
+	private long lastShed;
+
+	public PacketInQueue(){
+		this(DEFAULT_CAPACITY, DropPolicy.TAIL, DEFAULT_DISABLE_TIME);
+	}
+
+	/**
+	 * @param capacity max packet ins waiting, 0 sheds everything over the rate
+	 * @param policy what to drop when full
+	 * @param disableTime seconds of overload before the slice is disabled, 0 never disables
+	 */
+	public PacketInQueue(int capacity, DropPolicy policy, int disableTime){
+		this.queue = new ArrayDeque<OFPacketIn>();
+		this.configure(capacity, policy, disableTime);
+	}
+
+	/**
+	 * applies new settings, for when the slice config is reloaded
+	 * packets that no longer fit are shed from the head
+	 */
+	public synchronized void configure(int capacity, DropPolicy policy, int disableTime){
+		if(capacity < 0 || disableTime < 0 || policy == null){
+			throw new IllegalArgumentException("capacity and disable time can not be negative and a policy is required");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.disableNanos = TimeUnit.SECONDS.toNanos(disableTime);
+		while(queue.size() > capacity){
+			queue.poll();
+			shed++;
+		}
+	}
+
+	/**
+	 * queues a packet in that is over the rate, or sheds it or an older one
+	 * @param packetIn
+	 * @param now System.nanoTime()
+	 * @return true if the packet in was queued
+	 */
+	public synchronized boolean offer(OFPacketIn packetIn, long now){
+		return this.offerOrShed(packetIn, now, true) != packetIn;
+	}
+
+	/**
+	 * same as offer but hands back the packet in that was shed
+	 * @param packetIn
+	 * @param now System.nanoTime()
+	 * @param overload false when the queue is only full because the controller
+	 * is backed up, what is shed then is counted but does not overload the slice
+	 * @return packetIn if it was not queued, the oldest packet in if it was
+	 * dropped to make room, or null if nothing was shed
+	 */
+	public synchronized OFPacketIn offerOrShed(OFPacketIn packetIn, long now, boolean overload){
+		OFPacketIn dropped = null;
+		if(queue.size() >= capacity){
+			boolean replaceHead = policy == DropPolicy.HEAD
+					|| (policy == DropPolicy.SAMPLE && sampleCount++ % SAMPLE_RATE == 0);
+			if(!replaceHead || capacity == 0){
+				this.shed(now, overload);
+				return packetIn;
+			}
+			dropped = queue.poll();
+			this.shed(now, overload);
+		}
+		queue.add(packetIn);
+		queued++;
+		return dropped;
+	}
+
+	private void shed(long now, boolean overload){
+		shed++;
+		if(!overload){
+			return;
+		}
+		if(!overloaded || now - lastShed > OVERLOAD_CLEAR){
+			overloaded = true;
+			overloadStart = now;
+		}
+		lastShed = now;
+	}
+
+	/**
+	 * returns the oldest queued packet in or null if the queue is empty
+	 */
+	public synchronized OFPacketIn poll(){
+		return queue.poll();
+	}
+
+	/**
+	 * drops every queued packet in without counting them as shed
+	 */
+	public synchronized void clear(){
+		queue.clear();
+	}
+
+	public synchronized boolean isEmpty(){
+		return queue.isEmpty();
+	}
+
+	public synchronized int size(){
+		return queue.size();
+	}
+
+	/**
+	 * true while the slice is shedding with no clear period in between
+	 */
+	public synchronized boolean isOverloaded(long now){
+		return overloaded && now - lastShed <= OVERLOAD_CLEAR;
+	}
+
+	/**
+	 * true once the slice has been overloaded for the disable time
+	 */
+	public synchronized boolean isSustainedOverload(long now){
+		return disableNanos > 0 && this.isOverloaded(now) && now - overloadStart >= disableNanos;
+	}
+
+	/**
+	 * total packet ins dropped
+	 */
+	public synchronized long getShed(){
+		return shed;
+	}
+
+	/**
+	 * total packet ins that were queued instead of being sent right away
+	 */
+	public synchronized long getQueued(){
+		return queued;
+	}
+
+	public synchronized int getCapacity(){
+		return capacity;
+	}
+
+	public synchronized DropPolicy getPolicy(){
+		return policy;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+
+/**
+ * Fixed size history of the counters of a single switch port
+ * Samples are kept in preallocated arrays so recording a poll
+ * does not allocate, rates and percentiles are computed
+ * from the samples when asked for
+ * @author aragusa
+ *
+ */
+
+public class PortCounterHistory {
+
+	public enum Counter {
+		RX_BYTES, TX_BYTES, RX_PACKETS, TX_PACKETS,
+		RX_DROPPED, TX_DROPPED, RX_ERRORS, TX_ERRORS
+	}
+
+	//an hour of samples at the default 10 second poll interval
+	public static final int DEFAULT_CAPACITY = 360;
+
+	private final int capacity;
+	private final long[] times;
+	private final long[][] values;
+	//where the next sample goes
+	private int next = 0;
+	private int count = 0;
+
+	public PortCounterHistory(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	public PortCounterHistory(int capacity){
+		if(capacity < 2){
+			throw new IllegalArgumentException("need room for at least 2 samples to compute a rate");
+		}
+		this.capacity = capacity;
+		this.times = new long[capacity];
+		this.values = new long[Counter.values().length][capacity];
+	}
+
+	/**
+	 * records the counters of a port stats reply
+	 * @param time in milliseconds
+	 * @param stat
+	 */
+	public void record(long time, OFPortStatisticsReply stat){
+		times[next] = time;
+		values[Counter.RX_BYTES.ordinal()][next] = stat.getReceiveBytes();
+		values[Counter.TX_BYTES.ordinal()][next] = stat.getTransmitBytes();
+		values[Counter.RX_PACKETS.ordinal()][next] = stat.getreceivePackets();
+		values[Counter.TX_PACKETS.ordinal()][next] = stat.getTransmitPackets();
+		values[Counter.RX_DROPPED.ordinal()][next] = stat.getReceiveDropped();
+		values[Counter.TX_DROPPED.ordinal()][next] = stat.getTransmitDropped();
+		values[Counter.RX_ERRORS.ordinal()][next] = stat.getreceiveErrors();
+		values[Counter.TX_ERRORS.ordinal()][next] = stat.getTransmitErrors();
+		next = (next + 1) % capacity;
+		if(count < capacity){
+			count++;
+		}
+	}
+
+	public int size(){
+		return count;
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * returns the array index of the i-th oldest sample
+	 */
+	private int index(int i){
+		return (next - count + i + capacity) % capacity;
+	}
+
+	/**
+	 * rate per second between the i-th and i+1-th oldest samples
+	 * a counter that went backwards was reset so count from 0
+	 * switches report -1 for counters they don't support, an interval
+	 * touching one of those has no rate (NaN)
+	 */
+	private double rate(Counter counter, int i){
+		int a = index(i);
+		int b = index(i + 1);
+		long[] samples = values[counter.ordinal()];
+		if(samples[a] < 0 || samples[b] < 0){
+			return Double.NaN;
+		}
+		long elapsed = times[b] - times[a];
+		if(elapsed <= 0){
+			return 0;
+		}
+		long delta = samples[b] - samples[a];
+		if(delta < 0){
+			delta = samples[b];
+		}
+		return delta * 1000.0 / elapsed;
+	}
+
+	/**
+	 * returns the rate per second over the last poll interval
+	 * @param counter
+	 * @return the rate or NaN if the switch does not support the counter
+	 */
+	public double getRate(Counter counter){
+		if(count < 2){
+			return 0;
+		}
+		return rate(counter, count - 2);
+	}
+
+	/**
+	 * returns the given percentile (0-100) of the per interval rates
+	 * over the whole history, skipping intervals with an unsupported counter
+	 * @param counter
+	 * @param percentile
+	 * @return the rate or NaN if the switch does not support the counter
+	 */
+	public double getPercentileRate(Counter counter, double percentile){
+		if(count < 2){
+			return 0;
+		}
+		double[] rates = new double[count - 1];
+		int supported = 0;
+		for(int i = 0; i < rates.length; i++){
+			double rate = rate(counter, i);
+			if(!Double.isNaN(rate)){
+				rates[supported++] = rate;
+			}
+		}
+		if(supported == 0){
+			return Double.NaN;
+		}
+		Arrays.sort(rates, 0, supported);
+		int rank = (int)Math.ceil(percentile / 100.0 * supported) - 1;
+		rank = Math.max(0, Math.min(supported - 1, rank));
+		return rates[rank];
+	}
+
+	/**
+	 * returns the latest counters, rates and percentiles for the REST api
+	 * rates of unsupported counters are null
+	 * @return
+	 */
+	public HashMap<String, Object> toMap(){
+		HashMap<String, Object> results = new HashMap<String, Object>();
+		results.put("samples", count);
+		if(count > 0){
+			results.put("last_sample", times[index(count - 1)]);
+		}
+		for(Counter counter : Counter.values()){
+			HashMap<String, Object> counterResults = new HashMap<String, Object>();
+			if(count > 0){
+				counterResults.put("value", values[counter.ordinal()][index(count - 1)]);
+			}
+			counterResults.put("rate", supported(getRate(counter)));
+			counterResults.put("p50", supported(getPercentileRate(counter, 50)));
+			counterResults.put("p95", supported(getPercentileRate(counter, 95)));
+			counterResults.put("p99", supported(getPercentileRate(counter, 99)));
+			results.put(counter.name().toLowerCase(), counterResults);
+		}
+		return results;
+	}
+
+	private static Double supported(double rate){
+		if(Double.isNaN(rate)){
+			return null;
+		}
+		return rate;
+	}
+}
@@ -19,18 +19,21 @@ package edu.iu.grnoc.flowspace_firewall;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map.Entry;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.socket.*;
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFError;
 import org.openflow.protocol.OFError.OFBadRequestCode;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFFlowRemoved;
+import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
@@ -41,16 +44,18 @@ import org.openflow.protocol.OFPortStatus;
 import org.openflow.protocol.Wildcards;
 import org.openflow.protocol.OFPortStatus.OFPortReason;
 import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.OFType;
 import org.openflow.protocol.OFStatisticsRequest;
 import org.openflow.protocol.action.OFAction;
-import org.openflow.protocol.action.OFActionOutput;
-import org.openflow.protocol.action.OFActionType;
+import org.openflow.protocol.factory.BasicFactory;
 import org.openflow.protocol.factory.MessageParseException;
 import org.openflow.protocol.statistics.OFAggregateStatisticsReply;
 import org.openflow.protocol.statistics.OFAggregateStatisticsRequest;
 import org.openflow.protocol.statistics.OFDescriptionStatistics;
 import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
 import org.openflow.protocol.statistics.OFPortStatisticsRequest;
+import org.openflow.protocol.statistics.OFQueueStatisticsRequest;
 import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.statistics.OFStatisticsType;
 import org.slf4j.Logger;
@@ -74,13 +79,25 @@ public class Proxy {
 	private OFControllerChannelHandler ofcch;
 	private FlowSpaceFirewall parent;
 	private XidMap xidMap;
+	private BarrierCoalescer barrierCoalescer;
+	//null hands switch messages to toController on the caller's thread
+	private ProxyInbox inbox;
 	
 	
 	private static final Logger log = LoggerFactory.getLogger(Proxy.class);
 	private Integer flowCount;
 	private Boolean adminStatus;
 	private RateTracker packetInRate;
-	private List<FlowTimeout> timeouts;
+	private PacketInQueue packetInQueue;
+	//one thread at a time sends packet ins so they stay in order, guarded by packetInQueue
+	private boolean sendingPacketIns = false;
+	private PacketInDedup packetInDedup;
+	private Set<FlowTimeout> timeouts;
+	//encoded features reply for the slice, null until asked for or after a port/slicer change
+	private volatile ChannelBuffer featuresReply;
+	private final Object featuresLock = new Object();
+	//offset of the xid in the OpenFlow header
+	private static final int XID_OFFSET = 4;
 		
 	public Proxy(IOFSwitch switchImp, Slicer slicer, FlowSpaceFirewall fsf){
 		mySlicer = slicer;
@@ -91,7 +108,9 @@ public class Proxy {
 		xidMap = new XidMap();
 		adminStatus = mySlicer.getAdminState();
 		packetInRate = new RateTracker(10000,slicer.getPacketInRate());
-		timeouts = Collections.synchronizedList( new ArrayList<FlowTimeout>());
+		packetInQueue = new PacketInQueue(slicer.getPacketInQueueSize(), slicer.getPacketInDropPolicy(), slicer.getPacketInDisableTime());
+		packetInDedup = new PacketInDedup(slicer.getPacketInDedupWindow(), PacketInDedup.DEFAULT_MAX_FLOWS);
+		timeouts = Collections.newSetFromMap(new ConcurrentHashMap<FlowTimeout, Boolean>());
 		
 	}
 	
@@ -103,6 +122,7 @@ public class Proxy {
 		}else{
 
 			log.warn("Disabling Slice:"+this.mySlicer.getSliceName() );
+			this.packetInQueue.clear();
 			if(this.connected()){
 				this.removeFlows();
 				this.disconnect();
@@ -118,10 +138,236 @@ public class Proxy {
 		return this.packetInRate.getRate();
 	}
 	
-	public List<FlowTimeout> getTimeouts(){
+	public PacketInQueue getPacketInQueue(){
+		return this.packetInQueue;
+	}
+	
+	public PacketInDedup getPacketInDedup(){
+		return this.packetInDedup;
+	}
+	
+	/**
+	 * true while the controller channel is over its write high watermark
+	 * packet ins wait in the packet in queue until it catches up
+	 */
+	public boolean isControllerBackedUp(){
+		return ofcch != null && ofcch.isBackedUp();
+	}
+	
+	/**
+	 * number of messages waiting for a backed up controller
+	 */
+	public int getOutboundQueueLength(){
+		if(ofcch == null){
+			return 0;
+		}
+		return ofcch.getOutboundQueue().size();
+	}
+	
+	/**
+	 * number of messages dropped while the controller was backed up
+	 */
+	public long getOutboundDropped(){
+		if(ofcch == null){
+			return 0;
+		}
+		return ofcch.getOutboundQueue().getDropped();
+	}
+	
+	/**
+	 * switches to the xid map shared by every slice on the switch
+	 * so replies and errors can be routed straight to this proxy
+	 * only call this before the proxy connects
+	 * @param switchXidMap
+	 */
+	public void setXidMap(XidMap switchXidMap){
+		this.xidMap = switchXidMap;
+	}
+	
+	public XidMap getXidMap(){
+		return this.xidMap;
+	}
+	
+	/**
+	 * barriers from this slice share a switch barrier with the
+	 * other slices of the switch, null sends each one to the switch
+	 * @param coalescer
+	 */
+	public void setBarrierCoalescer(BarrierCoalescer coalescer){
+		this.barrierCoalescer = coalescer;
+	}
+	
+	public BarrierCoalescer getBarrierCoalescer(){
+		return this.barrierCoalescer;
+	}
+	
+	/**
+	 * messages from the switch go through the inbox to toController
+	 * on a worker thread, only call this before the proxy connects
+	 * @param inbox
+	 */
+	public void setInbox(ProxyInbox inbox){
+		this.inbox = inbox;
+	}
+	
+	public ProxyInbox getInbox(){
+		return this.inbox;
+	}
+	
+	/**
+	 * hands a message from the switch to the slice, the message may be
+	 * shared with the other slices so toController never changes it in place
+	 * @param msg
+	 * @param cntx
+	 */
+	public void deliver(OFMessage msg, FloodlightContext cntx){
+		if(this.inbox == null){
+			this.toController(msg, cntx);
+			return;
+		}
+		if(!this.inbox.offer(msg, cntx)){
+			log.debug("Inbox full, dropping " + msg.getType() + " for Slice: " + this.getSlicer().getSliceName() + ":" + this.getSlicer().getSwitchName());
+		}
+	}
+	
+	/**
+	 * returns a copy of a message from the switch with the controller's xid
+	 * @param msg
+	 * @param xid
+	 * @return
+	 * @throws MessageParseException
+	 */
+	private OFMessage copyWithXid(OFMessage msg, int xid) throws MessageParseException{
+		ChannelBuffer buf = ChannelBuffers.buffer(msg.getLengthU());
+		msg.writeTo(buf);
+		buf.setInt(XID_OFFSET, xid);
+		List<OFMessage> copy = BasicFactory.getInstance().parseMessage(buf);
+		if(copy == null || copy.isEmpty()){
+			throw new MessageParseException("incomplete " + msg.getType() + " message");
+		}
+		return copy.get(0);
+	}
+	
+	/**
+	 * returns the features reply for the slice with the given xid
+	 * the reply is encoded once and shared, only the header is copied
+	 * @param xid
+	 * @return
+	 */
+	public ChannelBuffer getFeaturesReply(int xid){
+		ChannelBuffer encoded = this.featuresReply;
+		if(encoded == null){
+			synchronized(this.featuresLock){
+				encoded = this.featuresReply;
+				if(encoded == null){
+					encoded = this.encodeFeaturesReply();
+					this.featuresReply = encoded;
+				}
+			}
+		}
+		ChannelBuffer header = encoded.copy(0, OFMessage.MINIMUM_LENGTH);
+		header.setInt(XID_OFFSET, xid);
+		return ChannelBuffers.wrappedBuffer(header, encoded.slice(OFMessage.MINIMUM_LENGTH, encoded.readableBytes() - OFMessage.MINIMUM_LENGTH));
+	}
+	
+	/**
+	 * the switch with only the ports of the slice
+	 */
+	private ChannelBuffer encodeFeaturesReply(){
+		log.debug("encoding features reply for slice " + this.mySlicer.getSliceName() + " on " + this.mySlicer.getSwitchName());
+		OFFeaturesReply response = (OFFeaturesReply) BasicFactory.getInstance().getMessage(OFType.FEATURES_REPLY);
+		response.setDatapathId(mySwitch.getId());
+		response.setCapabilities(mySwitch.getCapabilities());
+		response.setActions(mySwitch.getActions());
+		//need to take the collection of ports and turn them into the list
+		List <OFPhysicalPort> ports = new ArrayList<OFPhysicalPort>();
+		for(ImmutablePort port : mySwitch.getPorts()){
+			if(this.mySlicer.isPortPartOfSlice(port.getPortNumber())){
+				ports.add(port.toOFPhysicalPort());
+			}
+		}
+		response.setPorts(ports);
+		response.setBuffers(mySwitch.getBuffers());
+		response.setTables(mySwitch.getTables());
+		ChannelBuffer buf = ChannelBuffers.buffer(response.getLengthU());
+		response.writeTo(buf);
+		return ChannelBuffers.unmodifiableBuffer(buf);
+	}
+	
+	private OFFlowRemoved copyFlowRemoved(OFFlowRemoved removedFlow){
+		OFFlowRemoved copy = new OFFlowRemoved();
+		copy.setXid(removedFlow.getXid());
+		copy.setMatch(removedFlow.getMatch().clone());
+		copy.setCookie(removedFlow.getCookie());
+		copy.setPriority(removedFlow.getPriority());
+		copy.setReason(removedFlow.getReason());
+		copy.setDurationSeconds(removedFlow.getDurationSeconds());
+		copy.setDurationNanoseconds(removedFlow.getDurationNanoseconds());
+		copy.setIdleTimeout(removedFlow.getIdleTimeout());
+		copy.setPacketCount(removedFlow.getPacketCount());
+		copy.setByteCount(removedFlow.getByteCount());
+		return copy;
+	}
+	
+	/**
+	 * drops the encoded features reply, the next request rebuilds it
+	 */
+	public void invalidateFeaturesReply(){
+		synchronized(this.featuresLock){
+			this.featuresReply = null;
+		}
+	}
+	
+	public Set<FlowTimeout> getTimeouts(){
 		return this.timeouts;
 	}
 	
+	/**
+	 * strips the idle/hard timeout from the flow and has the
+	 * timing wheel remove it from the switch when it expires
+	 */
+	private void addTimeout(OFFlowMod flow, int timeout, boolean hard, FloodlightContext cntx){
+		FlowTimeout flowTimeout = new FlowTimeout(this, flow, timeout, hard, cntx);
+		this.timeouts.add(flowTimeout);
+		this.parent.getTimeoutWheel().schedule(flowTimeout);
+	}
+	
+	/**
+	 * asks the switch for the stats of a single flow
+	 * used by the timing wheel just before an idle deadline
+	 * @param timeout
+	 * @return the future stats reply or null if the request could not be sent
+	 */
+	public Future<List<OFStatistics>> probeFlow(FlowTimeout timeout){
+		OFStatisticsRequest req = new OFStatisticsRequest();
+		req.setStatisticType(OFStatisticsType.FLOW);
+		int requestLength = req.getLengthU();
+		OFFlowStatisticsRequest specificReq = new OFFlowStatisticsRequest();
+		specificReq.setMatch(timeout.getFlow().getMatch());
+		specificReq.setTableId((byte) 0xff);
+		specificReq.setOutPort(OFPort.OFPP_NONE.getValue());
+		req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+		requestLength += specificReq.getLength();
+		req.setLengthU(requestLength);
+		try {
+			return mySwitch.queryStatistics(req);
+		} catch (IOException e) {
+			log.error("Unable to probe flow stats on switch " + mySwitch.getStringId() + ": " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * the switch went away, its flows went with it
+	 */
+	public void cancelTimeouts(){
+		Iterator<FlowTimeout> it = this.timeouts.iterator();
+		while(it.hasNext()){
+			it.next().cancel();
+			it.remove();
+		}
+	}
+	
 	public void removeFlows(){
 		List<OFStatistics> results = this.parent.getSlicedFlowStats(mySwitch.getId(), this.mySlicer.getSliceName());
 		
@@ -249,6 +495,9 @@ public class Proxy {
 		this.mySlicer = newSlicer;
 		this.mySlicer.setSwitch(this.mySwitch);
 		this.packetInRate.setRate(this.getSlicer().getPacketInRate());
+		this.packetInQueue.configure(this.getSlicer().getPacketInQueueSize(), this.getSlicer().getPacketInDropPolicy(), this.getSlicer().getPacketInDisableTime());
+		this.packetInDedup.setWindow(this.getSlicer().getPacketInDedupWindow());
+		this.invalidateFeaturesReply();
 	}
 	
 	/**
@@ -276,7 +525,7 @@ public class Proxy {
 		
 		int switchId = this.mySwitch.getNextTransactionId();
 		int controllerId = msg.getXid();
-		xidMap.put(switchId, controllerId);
+		xidMap.put(switchId, controllerId, this);
 		msg.setXid(switchId);
 		
 	}
@@ -309,39 +558,79 @@ public class Proxy {
 		}
 	}
 	
-	/*
-	 * check to see if any flows are expired
-	 * this is called from the stats cacher after
-	 * the stats cacher updates the stats
+	/**
+	 * called by the timing wheel with the flows of this proxy that expired
+	 * in the same tick, the deletes go to the switch as one batch
+	 * @param expired
 	 */
 	
-	public void checkExpiredFlows(){
-		log.debug("Checking for expired flows");
-		Iterator<FlowTimeout> it = this.timeouts.iterator();
-		while(it.hasNext()){
-			FlowTimeout timeout = it.next();
-			if(timeout.isExpired()){
-				log.debug("Removing Flow that has timed out");
-				it.remove();
-				OFFlowMod flow = timeout.getFlow();
-				flow.setOutPort(OFPort.OFPP_NONE);
-				flow.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
-				flow.setHardTimeout((short)0);
-				flow.setIdleTimeout((short)0);
-				flow.setFlags(OFFlowMod.OFPFF_SEND_FLOW_REM);
-				this.toSwitch((OFMessage) flow,  timeout.getContext());				
+	public void expireFlows(List<FlowTimeout> expired){
+		List<OFMessage> messages = new ArrayList<OFMessage>();
+		FloodlightContext cntx = null;
+		for(FlowTimeout timeout : expired){
+			if(!this.timeouts.remove(timeout)){
+				//cancelled while it was being expired
+				continue;
+			}
+			log.debug("Removing Flow that has timed out");
+			OFFlowMod flow = timeout.getFlow();
+			flow.setOutPort(OFPort.OFPP_NONE);
+			flow.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+			flow.setHardTimeout((short)0);
+			flow.setIdleTimeout((short)0);
+			flow.setFlags(OFFlowMod.OFPFF_SEND_FLOW_REM);
+			List<OFMessage> deletes = this.sliceFlowMod(flow, timeout.getContext());
+			if(deletes != null){
+				messages.addAll(deletes);
+				cntx = timeout.getContext();
 			}
 		}
+		if(messages.isEmpty()){
+			return;
+		}
+		mapXids(messages);
+		try {
+			mySwitch.write(messages, cntx);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		mySwitch.flush();
 	}
 	
 	private void processFlowMod(OFMessage msg, FloodlightContext cntx){
+		List<OFMessage> messages = this.sliceFlowMod(msg, cntx);
+		if(messages == null){
+			return;
+		}
+		//packet ins for the flows this covers go to the controller again
+		for(OFMessage message : messages){
+			this.packetInDedup.clear(((OFFlowMod)message).getMatch());
+		}
+		log.error("Sending messages: " + messages.toString());		
+		mapXids(messages);
+		try {
+			mySwitch.write(messages, cntx);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		mySwitch.flush();
+	}
+	
+	/**
+	 * slices a flow mod, updates the cache, flow count and timeouts
+	 * and returns the flow mods to send to the switch
+	 * @param msg
+	 * @param cntx
+	 * @return null if the flow mod was denied or already handled
+	 */
+	private List<OFMessage> sliceFlowMod(OFMessage msg, FloodlightContext cntx){
 		List <OFFlowMod> flows;
 		
 		OFFlowMod tmpFlow = (OFFlowMod)msg;
 		if(tmpFlow.getCommand() == OFFlowMod.OFPFC_DELETE && tmpFlow.getMatch().equals(new OFMatch())){
 			//this is a delete all flow path
 			this.removeFlows();
-			return;
+			return null;
 		}
 		
 		if(this.mySlicer.getTagManagement()){
@@ -351,7 +640,7 @@ public class Proxy {
 				OFError error = new OFError(OFError.OFErrorType.OFPET_BAD_REQUEST);
 				error.setErrorCode(OFBadRequestCode.OFPBRC_EPERM);
 				this.sendError((OFMessage)msg,error );
-				return;
+				return null;
 			}else{
 				log.info("Slice: " + this.mySlicer.getSliceName() + ":" + this.getSlicer().getSwitchName() + " Sent Flow: " + ((OFFlowMod)msg).toString());
 			}
@@ -363,7 +652,7 @@ public class Proxy {
 				OFError error = new OFError(OFError.OFErrorType.OFPET_BAD_REQUEST);
 				error.setErrorCode(OFBadRequestCode.OFPBRC_EPERM);
 				this.sendError((OFMessage)msg,error);
-				return;
+				return null;
 			}else{
 				log.info("Slice: " + this.mySlicer.getSliceName() + ":" + this.getSlicer().getSwitchName() + " Sent Flow: " + ((OFFlowMod)msg).toString());
 			}
@@ -390,20 +679,18 @@ public class Proxy {
 					OFError error = new OFError(OFError.OFErrorType.OFPET_FLOW_MOD_FAILED);
 					error.setErrorCode(OFError.OFFlowModFailedCode.OFPFMFC_ALL_TABLES_FULL);
 					this.sendError((OFMessage)msg, error);
-					return;
+					return null;
 				}
 				//if this switch does not support idle/hard timeouts
 				//we need to strip the idle/hard timeout from the flow mod 
 				//and implement them in FSFW
 				if(this.mySlicer.doTimeouts()){
 					if(flow.getIdleTimeout() != 0){
-						FlowTimeout timeout = new FlowTimeout(flow, flow.getIdleTimeout(), false, cntx);					
-						this.timeouts.add(timeout);
+						this.addTimeout(flow, flow.getIdleTimeout() & 0xffff, false, cntx);
 						flow.setIdleTimeout((short)0);
 					}
 					if(flow.getHardTimeout() != 0){
-						FlowTimeout timeout = new FlowTimeout(flow, flow.getHardTimeout(), true, cntx);					
-						this.timeouts.add(timeout);
+						this.addTimeout(flow, flow.getHardTimeout() & 0xffff, true, cntx);
 						flow.setHardTimeout((short)0);
 					}
 				}
@@ -417,20 +704,18 @@ public class Proxy {
 					OFError error = new OFError(OFError.OFErrorType.OFPET_FLOW_MOD_FAILED);
 					error.setErrorCode(OFError.OFFlowModFailedCode.OFPFMFC_ALL_TABLES_FULL);
 					this.sendError((OFMessage)msg,error);
-					return;
+					return null;
 				}
 				//if this switch does not support idle/hard timeouts
 				//we need to strip the idle/hard timeout from the flow mod 
 				//and implement them in FSFW
 				if(this.mySlicer.doTimeouts()){
 					if(flow.getIdleTimeout() != 0){
-						FlowTimeout timeout = new FlowTimeout(flow, flow.getIdleTimeout(), false, cntx);					
-						this.timeouts.add(timeout);
+						this.addTimeout(flow, flow.getIdleTimeout() & 0xffff, false, cntx);
 						flow.setIdleTimeout((short)0);
 					}
 					if(flow.getHardTimeout() != 0){
-						FlowTimeout timeout = new FlowTimeout(flow, flow.getHardTimeout(), true, cntx);					
-						this.timeouts.add(timeout);
+						this.addTimeout(flow, flow.getHardTimeout() & 0xffff, true, cntx);
 						flow.setHardTimeout((short)0);
 					}
 				}
@@ -448,14 +733,7 @@ public class Proxy {
 			}
 			messages.add((OFMessage) flow);
 		}
-		log.error("Sending messages: " + messages.toString());		
-		mapXids(messages);
-		try {
-			mySwitch.write(messages, cntx);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		mySwitch.flush();
+		return messages;
 	}
 	
 	private void handleStatsRequest(OFMessage msg){
@@ -491,59 +769,21 @@ public class Proxy {
 		
 		OFAggregateStatisticsRequest specificRequest = (OFAggregateStatisticsRequest) request.getFirstStatistics();
 		
-		//List<OFStatistics> stats = this.parent.getStats(mySwitch.getId());
-		List<OFStatistics> results = this.parent.getSlicedFlowStats(this.mySwitch.getId(), this.mySlicer.getSliceName());
+		OFAggregateStatisticsReply stat;
+		if(specificRequest == null){
+			stat = this.parent.getSlicedAggregateStats(this.mySwitch.getId(), this.mySlicer.getSliceName(),
+					new OFMatch(), OFPort.OFPP_NONE.getValue(), FlowMatcher.ALL_TABLES);
+		}else{
+			stat = this.parent.getSlicedAggregateStats(this.mySwitch.getId(), this.mySlicer.getSliceName(),
+					specificRequest.getMatch(), specificRequest.getOutPort(), specificRequest.getTableId());
+		}
 
-		if(results == null){
+		if(stat == null){
 			//slicing didn't fail we just haven't polled the switch yet
 			return;
 		}
 		
-		//TODO: write a match comparison to see if flow stats match fits this requested match
-		//OFMatch match = specificRequest.getMatch();
-		short port = specificRequest.getOutPort();
-		
-		long packet_count = 0;
-		long byte_count = 0;
-		int flow_count = 0;
-		
-		Iterator<OFStatistics> it = results.iterator();
-		while(it.hasNext()){
-			OFFlowStatisticsReply stat = (OFFlowStatisticsReply) it.next();
-			//does this meet our match/out port before we include this
-			//TODO: write a match comparison to see if the flow stats match fits in the requests match
-			if(true){
-				//ok so our match doesn't work... do we have the out_port set
-				if(port != OFPort.OFPP_NONE.getValue()){
-					//ok so we should look for the output port
-					List<OFAction> actions = stat.getActions();
-					Iterator<OFAction> actIt = actions.iterator();
-					while(actIt.hasNext()){
-						OFAction act = actIt.next();
-						if(act.getType() == OFActionType.OUTPUT){
-							OFActionOutput outAct = (OFActionOutput) act;
-							if(outAct.getPort() == port){
-								//this one meets all of our requirements
-								packet_count += stat.getPacketCount();
-								byte_count += stat.getByteCount();
-								flow_count += 1;
-							}
-						}
-					}
-				}else{
-					//we are not comparing the out port so just add
-					packet_count += stat.getPacketCount();
-					byte_count += stat.getByteCount();
-					flow_count += 1;
-				}
-			}
-		}
-		
 		//generate the reply and send it
-		OFAggregateStatisticsReply stat = new OFAggregateStatisticsReply();
-		stat.setByteCount(byte_count);
-		stat.setPacketCount(packet_count);
-		stat.setFlowCount(flow_count);
 		OFStatisticsReply reply = new OFStatisticsReply();
 		reply.setStatisticType(OFStatisticsType.AGGREGATE);
 		List<OFStatistics> statsReply = new ArrayList<OFStatistics>();
@@ -551,6 +791,7 @@ public class Proxy {
 		reply.setStatistics(statsReply);
 		reply.setXid(msg.getXid());
 		reply.setFlags((short)0x0000);
+		reply.setLengthU(reply.getLengthU() + stat.getLength());
 		try {
 			ofcch.sendMessage(reply);
 		} catch (IOException e1) {
@@ -560,40 +801,48 @@ public class Proxy {
 		
 	}
 	
-	//TODO: implement this
 	private void handleTableStatsRequest(OFMessage msg){
-		
+		//the slice gets its own virtual view of the switch's tables
+		List<OFStatistics> tables = this.parent.getSlicedTableStats(mySwitch.getId(), this.mySlicer.getSliceName(), this.mySlicer.getMaxFlows());
+		if(tables == null){
+			//haven't polled the switch yet
+			return;
+		}
+		List<OFMessage> replies = StatsReplyPacker.pack(tables, OFStatisticsType.TABLE, msg.getXid(), this.getStatsReplyMaxLength());
+		try {
+			ofcch.sendMessages(replies);
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
 	}
 	
 	private void handlePortStatsRequest(OFMessage msg){
 		OFStatisticsRequest request = (OFStatisticsRequest) msg;
 		OFPortStatisticsRequest specificRequest = (OFPortStatisticsRequest) request.getFirstStatistics();
+		//only the ports that are part of our slice
+		Set<Short> ports = this.mySlicer.getPortIds();
 		
-		List<OFStatistics> statsReply = new ArrayList<OFStatistics>();
-		int length = 0;
-		
-		if(specificRequest.getPortNumber() != OFPort.OFPP_NONE.getValue()){
-			OFStatistics myStat = this.parent.getPortStats(mySwitch.getId(), specificRequest.getPortNumber());
-			statsReply.add(myStat);
-			length += myStat.getLength();
-			
-		}else{
-			HashMap<Short, OFStatistics> allPortStats = this.parent.getPortStats(mySwitch.getId());
-			Iterator<Entry<Short, OFStatistics>> it = allPortStats.entrySet().iterator();
-			while(it.hasNext()){
-				Entry<Short, OFStatistics> entry = it.next();
-				length += entry.getValue().getLength();
-				statsReply.add(entry.getValue());
+		if(specificRequest == null || specificRequest.getPortNumber() == OFPort.OFPP_NONE.getValue()){
+			EncodedStatsReply encoded = this.parent.getEncodedSlicedPortStats(mySwitch.getId(), this.mySlicer.getSliceName(), ports, this.getStatsReplyMaxLength());
+			if(encoded == null){
+				//haven't polled the switch yet
+				return;
+			}
+			try {
+				ofcch.sendBuffer(encoded.toReply(msg.getXid()));
+			} catch (IOException e1) {
+				e1.printStackTrace();
 			}
+			return;
 		}
-		OFStatisticsReply reply = new OFStatisticsReply();
-		reply.setStatisticType(OFStatisticsType.PORT);
-		reply.setStatistics(statsReply);
-		reply.setXid(msg.getXid());
-		reply.setFlags((short)0x0000);
-		reply.setLengthU(length + reply.getLength());
+		
+		List<OFStatistics> stats = this.parent.getSlicedPortStats(mySwitch.getId(), ports, specificRequest.getPortNumber());
+		if(stats == null){
+			return;
+		}
+		List<OFMessage> replies = StatsReplyPacker.pack(stats, OFStatisticsType.PORT, msg.getXid(), this.getStatsReplyMaxLength());
 		try {
-			ofcch.sendMessage(reply);
+			ofcch.sendMessages(replies);
 		} catch (IOException e1) {
 			e1.printStackTrace();
 		}
@@ -607,7 +856,36 @@ public class Proxy {
 	}
 	
 	private void handleQueueStatsRequest(OFMessage msg){
-		return;
+		OFStatisticsRequest request = (OFStatisticsRequest) msg;
+		OFQueueStatisticsRequest specificRequest = (OFQueueStatisticsRequest) request.getFirstStatistics();
+		//only the queues on ports that are part of our slice
+		Set<Short> ports = this.mySlicer.getPortIds();
+		
+		if(specificRequest == null || (specificRequest.getPortNumber() == OFPort.OFPP_ALL.getValue()
+				&& specificRequest.getQueueId() == FlowStatCache.OFP_QUEUE_ALL)){
+			EncodedStatsReply encoded = this.parent.getEncodedSlicedQueueStats(mySwitch.getId(), this.mySlicer.getSliceName(), ports, this.getStatsReplyMaxLength());
+			if(encoded == null){
+				//haven't polled the switch yet
+				return;
+			}
+			try {
+				ofcch.sendBuffer(encoded.toReply(msg.getXid()));
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+			return;
+		}
+		
+		List<OFStatistics> stats = this.parent.getSlicedQueueStats(mySwitch.getId(), ports, specificRequest.getPortNumber(), specificRequest.getQueueId());
+		if(stats == null){
+			return;
+		}
+		List<OFMessage> replies = StatsReplyPacker.pack(stats, OFStatisticsType.QUEUE, msg.getXid(), this.getStatsReplyMaxLength());
+		try {
+			ofcch.sendMessages(replies);
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
 	}
 	
 	private void handleDescrStatsRequest(OFMessage msg){
@@ -632,114 +910,65 @@ public class Proxy {
 	private void handleFlowStatsRequest(OFMessage msg){
 		//we have the stats cached so slice n' dice and return
 		log.debug("Working on stats for switch: " + this.getSlicer().getSwitchName() + " for slice this slice");
-		List<OFStatistics> results = this.parent.getSlicedFlowStats(mySwitch.getId(),this.mySlicer.getSliceName());
-		
-		if(results == null){
-			log.debug("Slicing failed!");
-			return;
-		}
-
-		log.debug("Sliced Stats: " + results.toString());
-
-		/**
-		 * When flow-stats are sliced we should update the total number of flows.
-		 * Some rules might get errors or replace others, and tracking that is very difficult. 
-		 * So every time we slice the stats we should set the actual number of flows from that slice.
-		*/
+		OFStatisticsRequest request = (OFStatisticsRequest) msg;
+		OFFlowStatisticsRequest specificRequest = (OFFlowStatisticsRequest) request.getFirstStatistics();
 		
-		//if no results... just short circuit
-		if(results.size() <= 0){
-			OFStatisticsReply reply = new OFStatisticsReply();
-			reply.setStatistics(results);
-			reply.setStatisticType(OFStatisticsType.FLOW);
-			reply.setXid(msg.getXid());
-			reply.setFlags((short)0x0000);
+		if(specificRequest == null || FlowMatcher.isUnfiltered(specificRequest.getMatch(), specificRequest.getOutPort(), specificRequest.getTableId())){
+			//everything in the slice was asked for, the cache has it already encoded
+			EncodedStatsReply encoded = this.parent.getEncodedSlicedFlowStats(mySwitch.getId(), this.mySlicer.getSliceName(),
+					this.mySlicer.getTagManagement(), this.getStatsReplyMaxLength());
+			if(encoded == null){
+				log.debug("Slicing failed!");
+				return;
+			}
 			try {
-				ofcch.sendMessage(reply);
+				ofcch.sendBuffer(encoded.toReply(msg.getXid()));
 			} catch (IOException e1) {
 				e1.printStackTrace();
 			}
 			return;
 		}
-		short length = 0;
-		int counter = 0;
-		Iterator <OFStatistics> it2 = results.iterator();				
-		List<OFFlowStatisticsReply> limitedResults = new ArrayList<OFFlowStatisticsReply>();
 		
-		while(it2.hasNext()){
-			//TODO: implement the filter capabilities of FLowStats Request
-			OFFlowStatisticsReply stat = (OFFlowStatisticsReply) it2.next();
-			
+		//only return the flows that match the requests match/out_port/table_id
+		List<OFStatistics> results = this.parent.getSlicedFlowStats(mySwitch.getId(),this.mySlicer.getSliceName(),
+				specificRequest.getMatch(), specificRequest.getOutPort(), specificRequest.getTableId());
+		
+		if(results == null){
+			log.debug("Slicing failed!");
+			return;
+		}
+
+		log.debug("Sliced Stats: " + results.toString());
+
+		List<OFStatistics> replyStats = new ArrayList<OFStatistics>(results.size());
+		for(OFStatistics stat : results){
 			if(this.mySlicer.getTagManagement()){
-				OFFlowStatisticsReply newStat = new OFFlowStatisticsReply();
 				//in managed tag mode... remove the vlan tag from the match and any set vlan actions
-				newStat.setMatch(stat.getMatch().clone());
-				newStat.setPriority(stat.getPriority());
-				newStat.setIdleTimeout(stat.getIdleTimeout());
-				newStat.setHardTimeout(stat.getHardTimeout());
-				newStat.setPacketCount(stat.getPacketCount());
-				newStat.setByteCount(stat.getByteCount());
-				newStat.setDurationNanoseconds(stat.getDurationNanoseconds());
-				newStat.setDurationSeconds(stat.getDurationSeconds());
-				newStat.setTableId(stat.getTableId());
-				newStat.setCookie(stat.getCookie());
-				newStat.getMatch().setDataLayerVirtualLan((short)0);
-				newStat.getMatch().setWildcards(newStat.getMatch().getWildcardObj().wildcard(Wildcards.Flag.DL_VLAN));
-				List<OFAction> newActions = new ArrayList<OFAction>();
-				short actLength = 0;
-				List<OFAction> actions = stat.getActions();
-				Iterator<OFAction> actIt = actions.iterator();
-				while(actIt.hasNext()){
-					OFAction act = actIt.next();
-					switch(act.getType()){
-					case SET_VLAN_ID:
-						break;
-					case SET_VLAN_PCP:
-						break;
-					case STRIP_VLAN:
-						break;
-					default:
-						newActions.add(act);
-						actLength += act.getLength();
-						break;
-					}
-				}
-				newStat.setActions(newActions);
-				newStat.setLength((short)(OFFlowStatisticsReply.MINIMUM_LENGTH + actLength));
-				stat = newStat;
+				replyStats.add(((FSFWOFFlowStatisticsReply) stat).getControllerView());
+			}else{
+				replyStats.add(stat);
 			}
-						
-			length += stat.getLength();
-			counter++;
-
-			limitedResults.add(stat);
-			
-			if(counter >= 10 || it2.hasNext() == false){
-				OFStatisticsReply reply = new OFStatisticsReply();
-				reply.setStatistics(limitedResults);
-				reply.setStatisticType(OFStatisticsType.FLOW);
-				reply.setXid(msg.getXid());
-				
-				if(it2.hasNext() == false){
-					reply.setFlags((short)0x0000);
-				}else{
-					reply.setFlags((short)0x0001);
-				}
-				
-				length += reply.getLength();
-				reply.setLength(length);
-				try {
-					ofcch.sendMessage(reply);
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
-				
-				counter = 0;
-				length = 0;
-				limitedResults = new ArrayList<OFFlowStatisticsReply>();
-			}	
 		}
 		
+		//pack by encoded size instead of flow count and hand all the chunks to netty in one write
+		List<OFMessage> replies = StatsReplyPacker.pack(replyStats, OFStatisticsType.FLOW, msg.getXid(), this.getStatsReplyMaxLength());
+		try {
+			ofcch.sendMessages(replies);
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
+	}
+	
+	/**
+	 * returns the max length of a single stats reply
+	 * @return
+	 */
+	private int getStatsReplyMaxLength(){
+		FlowSpaceFirewallParams params = this.parent.getFlowSpaceFirewallParams();
+		if(params == null){
+			return FlowSpaceFirewallParams.DEFAULT_STATS_REPLY_MAX_LENGTH;
+		}
+		return params.getStatsReplyMaxLength();
 	}
 	
 	/**
@@ -751,7 +980,7 @@ public class Proxy {
 	public void toSwitch(OFMessage msg, FloodlightContext cntx){
 		//first figure out what the message is
 		log.debug("Proxy Slicing request of type: " + msg.getType());
-		if(!this.mySlicer.isOkToProcessMessage()){
+		if(!this.mySlicer.isOkToProcessMessage(msg.getType())){
 			log.warn("Switch: "+this.getSlicer().getSwitchName()+"Slice:"+this.mySlicer.getSliceName()+"Rate limit exceeded");
 			OFError error = new OFError(OFError.OFErrorType.OFPET_BAD_REQUEST);
 			error.setErrorCode(OFBadRequestCode.OFPBRC_EPERM);
@@ -759,6 +988,11 @@ public class Proxy {
 			return;
 		}
 		
+		if(this.barrierCoalescer != null && msg.getType() != OFType.BARRIER_REQUEST){
+			//our barrier has to reach the switch before anything we sent after it
+			this.barrierCoalescer.flushIfWaiting(this);
+		}
+		
 		switch(msg.getType()){
 			case FLOW_MOD:
 				processFlowMod(msg, cntx);
@@ -808,6 +1042,14 @@ public class Proxy {
 			case STATS_REQUEST:
 				handleStatsRequest(msg);
 				return;
+			case BARRIER_REQUEST:
+				if(this.barrierCoalescer != null){
+					//the reply comes back through toController with the xid we map here
+					mapXids(msg);
+					this.barrierCoalescer.addBarrier(this, msg.getXid());
+					return;
+				}
+				break;
 			case PORT_MOD:
 				OFError error = new OFError(OFError.OFErrorType.OFPET_BAD_REQUEST);
 				error.setErrorCode(OFBadRequestCode.OFPBRC_EPERM);
@@ -861,6 +1103,165 @@ public class Proxy {
 		return true;
 	}
 	
+	/**
+	 * sends the packet in right away if the slice is under its packet in rate
+	 * and nothing is waiting ahead of it, otherwise it is queued or shed.
+	 * The slice is only disabled once it has been overloaded for the disable time,
+	 * packet ins shed while the controller is backed up are the controller's
+	 * fault not the slice's so they never count toward that
+	 * @param pcktIn
+	 */
+	private void handlePacketIn(OFPacketIn pcktIn){
+		long now = System.nanoTime();
+		OFPacketIn shed = null;
+		OFPacketIn next = null;
+		boolean backedUp;
+		synchronized(this.packetInQueue){
+			backedUp = this.isControllerBackedUp();
+			if(!this.sendingPacketIns){
+				//whatever is queued goes ahead of this one
+				next = this.nextPacketIn(now);
+				if(next == null && this.packetInQueue.isEmpty() && !backedUp && this.packetInRate.okToProcess(now)){
+					next = pcktIn;
+				}
+				this.sendingPacketIns = next != null;
+			}
+			if(next != pcktIn){
+				shed = this.packetInQueue.offerOrShed(pcktIn, now, !backedUp);
+			}
+		}
+		if(next != null){
+			this.sendPacketIns(next, now);
+			if(next == pcktIn){
+				return;
+			}
+		}
+		if(shed != null){
+			log.debug("Shedding packet in for Slice: " + this.getSlicer().getSliceName() + ":" + this.getSlicer().getSwitchName());
+			this.packetInDropped(shed);
+		}
+		if(!backedUp && this.adminStatus && this.packetInQueue.isSustainedOverload(now)){
+			log.warn("Packet in Rate for Slice: " +
+					this.getSlicer().getSliceName() + ":" + this.getSlicer().getSwitchName() +
+					" has been over the packet in rate limit for " + this.getSlicer().getPacketInDisableTime() + " seconds Disabling slice!!!!");
+			this.setAdminStatus(false);
+		}
+	}
+	
+	/**
+	 * sends queued packet ins for as long as the packet in rate allows
+	 */
+	public void drainPacketIns(){
+		this.drainPacketIns(System.nanoTime());
+	}
+	
+	private void drainPacketIns(long now){
+		OFPacketIn next;
+		synchronized(this.packetInQueue){
+			if(this.sendingPacketIns){
+				//whoever is sending picks up the rest
+				return;
+			}
+			next = this.nextPacketIn(now);
+			this.sendingPacketIns = next != null;
+		}
+		if(next != null){
+			this.sendPacketIns(next, now);
+		}
+	}
+	
+	/**
+	 * returns the next queued packet in if the controller can take it
+	 * and the rate allows, the caller holds the packetInQueue lock
+	 */
+	private OFPacketIn nextPacketIn(long now){
+		if(!this.packetInQueue.isEmpty() && !this.isControllerBackedUp() && this.packetInRate.okToProcess(now)){
+			return this.packetInQueue.poll();
+		}
+		return null;
+	}
+	
+	/**
+	 * sends the packet in and then whatever the rate allows from the queue.
+	 * The caller has set sendingPacketIns, the queue is only locked to poll
+	 * so the switch thread can keep queueing while the controller is written to
+	 */
+	private void sendPacketIns(OFPacketIn pcktIn, long now){
+		try{
+			while(pcktIn != null){
+				this.sendPacketIn(pcktIn);
+				synchronized(this.packetInQueue){
+					pcktIn = this.nextPacketIn(now);
+					this.sendingPacketIns = pcktIn != null;
+				}
+			}
+		}finally{
+			if(pcktIn != null){
+				synchronized(this.packetInQueue){
+					this.sendingPacketIns = false;
+				}
+			}
+		}
+	}
+	
+	private void sendPacketIn(OFPacketIn pcktIn){
+		if(ofcch == null){
+			return;
+		}
+		//add the packet buffer id to our buffer id list
+		this.mySlicer.addBufferId(pcktIn.getBufferId(), pcktIn.getPacketData());
+		//we add the packet with the vlan id on it but send a modified packet in to the controller
+		//without the vlan tag
+		if(this.mySlicer.getTagManagement()){
+			log.debug("Processing Packet in for Managed Tag mode");
+			Ethernet newPkt = new Ethernet();
+			byte[] pktData = pcktIn.getPacketData();
+			newPkt.deserialize(pktData,0,pktData.length);
+			newPkt.setEtherType(newPkt.getEtherType());
+			newPkt.setVlanID(Ethernet.VLAN_UNTAGGED);
+			
+			//Set the packet data based on the length of the serialize function's returned
+			//value.  Do it this way because serialize() might remove a number of padding bytes,
+			//so we cannot just assume the number of bytes removed will be 4.
+			byte[] newPktData = newPkt.serialize();
+			//the packet in is shared with the other slices, send a copy
+			OFPacketIn untagged = new OFPacketIn();
+			untagged.setXid(pcktIn.getXid());
+			untagged.setBufferId(pcktIn.getBufferId());
+			untagged.setInPort(pcktIn.getInPort());
+			untagged.setReason(pcktIn.getReason());
+			untagged.setPacketData(newPktData);
+			untagged.setTotalLength((short) newPktData.length);
+			pcktIn = untagged;
+		}
+		try {
+			if(!ofcch.sendMessage(pcktIn)){
+				this.packetInDropped(pcktIn);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * ends the dedup window of a packet in that never made it to the controller
+	 * so the next packet of the flow is sent instead of suppressed
+	 * @param pcktIn as the switch sent it, or the untagged copy in managed tag mode
+	 */
+	public void packetInDropped(OFPacketIn pcktIn){
+		if(pcktIn.getPacketData() == null || pcktIn.getPacketData().length <= 0){
+			return;
+		}
+		OFMatch match = new OFMatch();
+		match.loadFromPacket(pcktIn.getPacketData(), pcktIn.getInPort());
+		match = FlowMatcher.canonical(match);
+		if(this.mySlicer.getTagManagement()){
+			//the controller's copy has no tag, end the window whatever the vlan
+			match.setWildcards(match.getWildcardObj().wildcard(Wildcards.Flag.DL_VLAN).wildcard(Wildcards.Flag.DL_VLAN_PCP));
+		}
+		this.packetInDedup.clear(match);
+	}
+	
 	/**
 	 * handle messages from the switch and verify they should be a part of this slice
 	 * if not just return
@@ -891,37 +1292,18 @@ public class Proxy {
 				log.debug("Packet in Not allowed for slice: "+this.mySlicer.getSliceName());
 				return;
 			}
-			
-			if(this.packetInRate.okToProcess()){
-				//add the packet buffer id to our buffer id list
-				this.mySlicer.addBufferId(pcktIn.getBufferId(), pcktIn.getPacketData());
-				//we add the packet with the vlan id on it but send a modified packet in to the controller
-				//without the vlan tag
-				if(this.mySlicer.getTagManagement()){
-					log.debug("Processing Packet in for Managed Tag mode");
-					Ethernet newPkt = new Ethernet();
-					byte[] pktData = pcktIn.getPacketData();
-					newPkt.deserialize(pktData,0,pktData.length);
-					newPkt.setEtherType(newPkt.getEtherType());
-					newPkt.setVlanID(Ethernet.VLAN_UNTAGGED);
-					
-					//Set the packet data based on the length of the serialize function's returned
-					//value.  Do it this way because serialize() might remove a number of padding bytes,
-					//so we cannot just assume the number of bytes removed will be 4.
-					byte[] newPktData = newPkt.serialize();
-					pcktIn.setPacketData(newPktData);
-					pcktIn.setTotalLength((short) newPktData.length);
-				}
-				break;
-			}else{
-				log.warn("Packet in Rate for Slice: " +
-							this.getSlicer().getSliceName() + ":" + this.getSlicer().getSwitchName() +
-							" has passed the packet in rate limit Disabling slice!!!!");
-				this.setAdminStatus(false);
+			//the controller already has a packet in for this flow
+			if(this.packetInDedup.isDuplicate(FlowMatcher.canonical(match), System.nanoTime())){
+				log.debug("Suppressing repeated packet in for slice: "+this.mySlicer.getSliceName());
 				return;
 			}
 			
+			this.handlePacketIn(pcktIn);
+			return;
+			
 		case PORT_STATUS:
+			//any port change can change the features reply
+			this.invalidateFeaturesReply();
 			//only send port status messages
 			//for interfaces involved with this slice
 			OFPortStatus portStatus = (OFPortStatus)msg;
@@ -940,15 +1322,22 @@ public class Proxy {
 				//nothing to do here
 				break;
 			case OFPPR_DELETE:
-				//nothing to do here
+				this.mySlicer.removePortId(port.getName(), port.getPortNumber());
 				break;
 			}
 			
 			break;
 		case ERROR:
-			if(xidMap.containsKey(xid)){
-				msg.setXid(xidMap.get(xid));
+			if(xidMap.getOwner(xid) == this){
+				int controllerXid = xidMap.get(xid);
 				xidMap.remove(xid);
+				try{
+					//the switch's error is not ours to change, send a copy
+					msg = this.copyWithXid(msg, controllerXid);
+				}catch (MessageParseException e){
+					log.error("Unable to copy error from switch: " + e.getMessage());
+					return;
+				}
 				OFError error = (OFError) msg;
 				OFMessage error_msg = null;
 				try{
@@ -996,6 +1385,8 @@ public class Proxy {
 			}
 			
 			if(mySlicer.getTagManagement()){
+				//the flow removed is shared with the other slices, change a copy
+				removedFlow = this.copyFlowRemoved(removedFlow);
 				removedFlow.getMatch().setDataLayerVirtualLan((short)0);
 				removedFlow.getMatch().getWildcardObj().wildcard(Wildcards.Flag.DL_VLAN);
 				msg = removedFlow;
@@ -1004,8 +1395,10 @@ public class Proxy {
 			this.flowCount--;
 			break;
 		case BARRIER_REPLY:
-			if(xidMap.containsKey(xid)){	
-				msg.setXid(xidMap.get(xid));	
+			if(xidMap.getOwner(xid) == this){	
+				OFBarrierReply barrierReply = new OFBarrierReply();
+				barrierReply.setXid(xidMap.get(xid));
+				msg = barrierReply;
 				//ISSUE=7276 delete all keys up to and including the barrier, but not any new xids that have come in since the barrier request
 				 xidMap.removeToKey(xid);
 			}else{
@@ -0,0 +1,174 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.core.FloodlightContext;
+
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Messages from the switch waiting for a slice.  The switch thread
+ * only adds to the inbox, a worker from the shared pool takes it over
+ * and hands the messages to the proxy in the order they came in.
+ * Only one worker runs an inbox at a time so a slice still sees its
+ * messages in order, and a slow slice only holds up its own inbox.
+ * When full, packet ins are dropped, everything else is queued past
+ * the bound since losing an error or a reply breaks the controller
+ * @author aragusa
+ *
+ */
+
+public class ProxyInbox implements Runnable {
+
+	public static final int DEFAULT_CAPACITY = 1000;
+	//messages handled before giving the worker back to the pool
+	private static final int BATCH = 64;
+
+	private static class Entry {
+		private final OFMessage msg;
+		private final FloodlightContext cntx;
+		private final long queued;
+
+		private Entry(OFMessage msg, FloodlightContext cntx, long queued){
+			this.msg = msg;
+			this.cntx = cntx;
+			this.queued = queued;
+		}
+	}
+
+	private final Proxy proxy;
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<Entry> queue;
+	private final AtomicInteger size;
+	//true while a worker has the inbox
+	private final AtomicBoolean scheduled;
+	private final AtomicLong dropped;
+	private volatile int capacity;
+
+	private static final Logger log = LoggerFactory.getLogger(ProxyInbox.class);
+
+	public ProxyInbox(Proxy proxy, Executor executor, int capacity){
+		this.proxy = proxy;
+		this.executor = executor;
+		this.queue = new ConcurrentLinkedQueue<Entry>();
+		this.size = new AtomicInteger(0);
+		this.scheduled = new AtomicBoolean(false);
+		this.dropped = new AtomicLong(0);
+		this.setCapacity(capacity);
+	}
+
+	/**
+	 * adds a message for the slice and makes sure a worker will get to it
+	 * @param msg
+	 * @param cntx
+	 * @return false if the message was dropped
+	 */
+	public boolean offer(OFMessage msg, FloodlightContext cntx){
+		if(size.get() >= capacity && msg.getType() == OFType.PACKET_IN){
+			dropped.incrementAndGet();
+			return false;
+		}
+		queue.add(new Entry(msg, cntx, System.nanoTime()));
+		size.incrementAndGet();
+		this.schedule();
+		return true;
+	}
+
+	private void schedule(){
+		if(!scheduled.compareAndSet(false, true)){
+			return;
+		}
+		try{
+			executor.execute(this);
+		}catch(RejectedExecutionException e){
+			log.error("Unable to deliver messages to slice " + proxy.getSlicer().getSliceName() + ": " + e.getMessage());
+			scheduled.set(false);
+		}
+	}
+
+	/**
+	 * runs on a worker, hands a batch of messages to the proxy
+	 */
+	public void run(){
+		try{
+			for(int i = 0; i < BATCH; i++){
+				Entry entry = queue.poll();
+				if(entry == null){
+					break;
+				}
+				size.decrementAndGet();
+				try{
+					proxy.toController(entry.msg, entry.cntx);
+				}catch(Exception e){
+					log.error("FSFW experienced an error:" + e.getMessage(), e);
+				}
+			}
+		}finally{
+			scheduled.set(false);
+		}
+		//something came in after the last poll or the batch ran out
+		if(!queue.isEmpty()){
+			this.schedule();
+		}
+	}
+
+	/**
+	 * number of messages waiting
+	 */
+	public int size(){
+		return size.get();
+	}
+
+	/**
+	 * milliseconds the oldest waiting message has been waiting
+	 */
+	public long getLag(){
+		Entry head = queue.peek();
+		if(head == null){
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - head.queued);
+	}
+
+	/**
+	 * total packet ins dropped because the inbox was full
+	 */
+	public long getDropped(){
+		return dropped.get();
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	public void setCapacity(int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("inbox needs room for at least 1 message");
+		}
+		this.capacity = capacity;
+	}
+}
@@ -15,81 +15,140 @@
 */
 package edu.iu.grnoc.flowspace_firewall;
 
-import org.apache.commons.collections4.queue.CircularFifoQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
+/**
+ * Rate limiter using the generic cell rate algorithm (GCRA)
+ * The whole limiter state is the theoretical arrival time of the
+ * next event in a single AtomicLong, so checking an event is a
+ * couple of reads and a compareAndSet, no allocation and no lock.
+ *
+ * An event is allowed if it is no more than the burst tolerance
+ * ahead of the configured rate.  The burst is a tenth of the size,
+ * the same number of events the old sliding window let through
+ * before it started measuring.
+ * @author aragusa
+ *
+ */
 
 public class RateTracker {
 
-	private CircularFifoQueue<Date> myFifo;
-	private int myRate;
-	private static final Logger log = LoggerFactory.getLogger(Proxy.class);
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	//theoretical arrival time in System.nanoTime()
+	private final AtomicLong tat;
+	//events allowed in the second before the current one (high 32 bits the second, low 32 bits the count)
+	private final AtomicLong lastSecond;
+	//events allowed so far in the current second, packed the same way
+	private final AtomicLong thisSecond;
+	private final int burst;
+	private volatile int myRate;
+	private volatile long interval;
+	private static final Logger log = LoggerFactory.getLogger(RateTracker.class);
 	
 	public RateTracker(int size, int rate){
-		myRate = rate;
-		myFifo = new CircularFifoQueue<Date>(size);
+		this.burst = Math.max(1, size / 10);
+		this.tat = new AtomicLong(System.nanoTime());
+		this.lastSecond = new AtomicLong(0);
+		this.thisSecond = new AtomicLong(0);
+		this.setRate(rate);
+	}
+	
+	public boolean okToProcess(){
+		return this.okToProcess(System.nanoTime());
 	}
 	
-	public synchronized boolean okToProcess(){
-		log.debug("checking on the rate for this slice");
-		Date now = new Date();
-		if(this.getRate(now) < myRate){
-			log.debug("rate was ok, allowing, and updating");
-			myFifo.add(now);
-			return true;
-		}else{
-			log.debug("rate is over, not allowing");
+	public boolean okToProcess(long now){
+		if(myRate <= 0){
+			log.debug("rate is 0, not allowing");
 			return false;
 		}
+		long emission = this.interval;
+		long tolerance = emission * (burst - 1);
+		while(true){
+			long current = tat.get();
+			long start = current - now > 0 ? current : now;
+			if(start - now > tolerance){
+				log.debug("rate is over, not allowing");
+				return false;
+			}
+			if(tat.compareAndSet(current, start + emission)){
+				this.count(now);
+				return true;
+			}
+		}
 	}
 	
-	
-	public double getRate(){
-		return get_rate_helper(null);
+	/**
+	 * counts an allowed event toward the measured rate
+	 */
+	private void count(long now){
+		long second = now / SECOND;
+		while(true){
+			long current = thisSecond.get();
+			if((current >>> 32) == (second & 0xffffffffL)){
+				if(thisSecond.compareAndSet(current, current + 1)){
+					return;
+				}
+			}else if(thisSecond.compareAndSet(current, ((second & 0xffffffffL) << 32) | 1)){
+				lastSecond.set(current);
+				return;
+			}
+		}
 	}
 	
-	public double getRate(Date now){
-		return get_rate_helper(now);
+	/**
+	 * gives back the last allowed event, for when a check further up
+	 * (ie... the switch wide budget) turns the event down after all
+	 */
+	public void refund(){
+		tat.addAndGet(-this.interval);
+		while(true){
+			long current = thisSecond.get();
+			if((current & 0xffffffffL) == 0 || thisSecond.compareAndSet(current, current - 1)){
+				return;
+			}
+		}
 	}
 	
-	
-	public CircularFifoQueue<Date> getFifo(){
-		return this.myFifo;
+	/**
+	 * returns the number of events allowed during the last full second
+	 * @return
+	 */
+	public double getRate(){
+		return this.getRate(System.nanoTime());
 	}
 	
-	private synchronized double get_rate_helper(Date now){
-		if(myFifo.size() <= myFifo.maxSize() / 10){
-			log.debug("circular queue is too small, returning 0");
-			return 0;
-		}
-		log.debug("calculating current rate");
-		
-		long end;
-		if(now == null){
-			end = myFifo.get(myFifo.size()-1).getTime();
-		}else{
-			end = now.getTime();
+	public double getRate(long now){
+		long previous = (now / SECOND - 1) & 0xffffffffL;
+		long current = thisSecond.get();
+		if((current >>> 32) == previous){
+			return current & 0xffffffffL;
 		}
-		
-		long start = myFifo.get(0).getTime();
-		//log.error("#packets = " + myFifo.size() + " / end = " + end + " start = " + start);
-
-		if(end - start <= 0){
-			//this means that our entire circular queue has the same ms
-			//so that means our packet rate is fifo size * 1000
-			return myFifo.size() * 1000;
+		long last = lastSecond.get();
+		if((last >>> 32) == previous && (current >>> 32) == ((previous + 1) & 0xffffffffL)){
+			return last & 0xffffffffL;
 		}
-		return (myFifo.size() / ((end - start) / 1000.0));
+		return 0;
 	}
 	
 	public void setRate(int flowRate){
 		this.myRate = flowRate;
+		if(flowRate > 0){
+			this.interval = SECOND / flowRate;
+		}
 	}
 	
 	public int getMaxRate(){
 		return this.myRate;
 	}
 	
+	public int getBurst(){
+		return this.burst;
+	}
+	
 }
\ No newline at end of file
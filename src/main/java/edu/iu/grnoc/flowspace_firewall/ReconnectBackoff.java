@@ -0,0 +1,96 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.Random;
+
+/**
+ * Reconnect state of one proxy.  The first attempt after a working
+ * connection drops goes right away, every failed attempt after that
+ * doubles the delay up to MAX_DELAY.  Half of each delay is random so
+ * the slices of a switch that all lost their controller at once do not
+ * come back at once
+ * @author aragusa
+ *
+ */
+
+public class ReconnectBackoff {
+
+	//milliseconds
+	public static final long INITIAL_DELAY = 500;
+	public static final long MAX_DELAY = 30000;
+
+	private int failures = 0;
+	//an attempt is scheduled or its channel is still open
+	private boolean pending = false;
+
+	/**
+	 * claims the next attempt
+	 * @return false if an attempt is already pending
+	 */
+	public synchronized boolean startAttempt(){
+		if(pending){
+			return false;
+		}
+		pending = true;
+		return true;
+	}
+
+	/**
+	 * the attempt's channel closed
+	 * @param established true if the handshake completed on it
+	 */
+	public synchronized void attemptDone(boolean established){
+		pending = false;
+		if(established){
+			failures = 0;
+		}else{
+			failures++;
+		}
+	}
+
+	/**
+	 * the attempt was not needed after all (connected or disabled)
+	 */
+	public synchronized void cancelAttempt(){
+		pending = false;
+	}
+
+	/**
+	 * milliseconds to wait before the next attempt
+	 * @param random
+	 * @return
+	 */
+	public synchronized long nextDelay(Random random){
+		if(failures == 0){
+			return 0;
+		}
+		long delay = INITIAL_DELAY << Math.min(failures - 1, 16);
+		if(delay > MAX_DELAY){
+			delay = MAX_DELAY;
+		}
+		long half = delay / 2;
+		return half + (long)(random.nextDouble() * (delay - half));
+	}
+
+	public synchronized int getFailures(){
+		return failures;
+	}
+
+	public synchronized boolean isPending(){
+		return pending;
+	}
+}
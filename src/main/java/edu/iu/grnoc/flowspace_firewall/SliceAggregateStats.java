@@ -0,0 +1,138 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.HashMap;
+
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.statistics.OFAggregateStatisticsReply;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+
+/**
+ * Running byte/packet/flow totals for the flows of a slice
+ * that are visible to the controller.  Kept for the slice as
+ * a whole and per output port so that aggregate stats requests
+ * without a match can be answered without walking the flows
+ * @author aragusa
+ *
+ */
+
+public class SliceAggregateStats {
+
+	/**
+	 * a single set of totals
+	 */
+	public static class Totals {
+		private long byteCount = 0;
+		private long packetCount = 0;
+		private int flowCount = 0;
+
+		public long getByteCount(){
+			return byteCount;
+		}
+
+		public long getPacketCount(){
+			return packetCount;
+		}
+
+		public int getFlowCount(){
+			return flowCount;
+		}
+
+		private void add(long bytes, long packets, int flows){
+			byteCount += bytes;
+			packetCount += packets;
+			flowCount += flows;
+		}
+	}
+
+	private Totals total;
+	private HashMap<Short, Totals> perOutPort;
+
+	public SliceAggregateStats(){
+		total = new Totals();
+		perOutPort = new HashMap<Short, Totals>();
+	}
+
+	/**
+	 * adds a flow's counters to the totals
+	 * @param stat
+	 */
+	public void add(OFFlowStatisticsReply stat){
+		update(stat, 1);
+	}
+
+	/**
+	 * removes a flow's counters from the totals
+	 * @param stat
+	 */
+	public void subtract(OFFlowStatisticsReply stat){
+		update(stat, -1);
+	}
+
+	private void update(OFFlowStatisticsReply stat, int sign){
+		long bytes = sign * stat.getByteCount();
+		long packets = sign * stat.getPacketCount();
+		total.add(bytes, packets, sign);
+		for(Short port : FlowStatIndex.outputPorts(stat.getActions())){
+			Totals portTotals = perOutPort.get(port);
+			if(portTotals == null){
+				portTotals = new Totals();
+				perOutPort.put(port, portTotals);
+			}
+			portTotals.add(bytes, packets, sign);
+			if(portTotals.getFlowCount() <= 0){
+				perOutPort.remove(port);
+			}
+		}
+	}
+
+	public void clear(){
+		total = new Totals();
+		perOutPort.clear();
+	}
+
+	/**
+	 * returns the totals for all flows that output to the port
+	 * OFPP_NONE returns the totals for the whole slice
+	 * @param outPort
+	 * @return
+	 */
+	public Totals getTotals(short outPort){
+		if(outPort == OFPort.OFPP_NONE.getValue()){
+			return total;
+		}
+		Totals portTotals = perOutPort.get(outPort);
+		if(portTotals == null){
+			return new Totals();
+		}
+		return portTotals;
+	}
+
+	/**
+	 * builds an aggregate stats reply body from the totals
+	 * @param outPort
+	 * @return
+	 */
+	public OFAggregateStatisticsReply toReply(short outPort){
+		Totals totals = getTotals(outPort);
+		OFAggregateStatisticsReply reply = new OFAggregateStatisticsReply();
+		reply.setByteCount(totals.getByteCount());
+		reply.setPacketCount(totals.getPacketCount());
+		reply.setFlowCount(totals.getFlowCount());
+		return reply;
+	}
+}
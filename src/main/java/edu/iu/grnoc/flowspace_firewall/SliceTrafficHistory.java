@@ -0,0 +1,210 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Fixed size history of how many bytes/packets a slice's flows
+ * moved on a switch between each pair of polls, for the slice as
+ * a whole and per input port
+ * @author aragusa
+ *
+ */
+
+public class SliceTrafficHistory {
+
+	//an hour of samples at the default 10 second poll interval
+	public static final int DEFAULT_CAPACITY = 360;
+
+	/**
+	 * bytes and packets moved during one interval
+	 */
+	public static class Delta {
+		private long bytes = 0;
+		private long packets = 0;
+
+		public void add(long bytes, long packets){
+			this.bytes += bytes;
+			this.packets += packets;
+		}
+
+		public long getBytes(){
+			return bytes;
+		}
+
+		public long getPackets(){
+			return packets;
+		}
+	}
+
+	/**
+	 * the traffic of a slice collected while processing a single poll
+	 * port is the flow's in_port or OFPP_NONE if the flow wildcards it
+	 */
+	public static class Interval {
+		private Delta total = new Delta();
+		private HashMap<Short, Delta> ports = new HashMap<Short, Delta>();
+		private TopFlows topFlows;
+		
+		public Interval(int topFlows){
+			this.topFlows = new TopFlows(topFlows);
+		}
+
+		public void add(short port, long bytes, long packets){
+			total.add(bytes, packets);
+			Delta portDelta = ports.get(port);
+			if(portDelta == null){
+				portDelta = new Delta();
+				ports.put(port, portDelta);
+			}
+			portDelta.add(bytes, packets);
+		}
+
+		public Delta getTotal(){
+			return total;
+		}
+
+		public HashMap<Short, Delta> getPorts(){
+			return ports;
+		}
+		
+		public TopFlows getTopFlows(){
+			return topFlows;
+		}
+	}
+
+	private final int capacity;
+	private final long[] times;
+	private final long[] bytes;
+	private final long[] packets;
+	//[0] is the bytes ring and [1] the packets ring, same indexes as above
+	private final HashMap<Short, long[][]> portRings;
+	private int next = 0;
+	private int count = 0;
+
+	public SliceTrafficHistory(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	public SliceTrafficHistory(int capacity){
+		this.capacity = capacity;
+		this.times = new long[capacity];
+		this.bytes = new long[capacity];
+		this.packets = new long[capacity];
+		this.portRings = new HashMap<Short, long[][]>();
+	}
+
+	/**
+	 * records the traffic of the interval that ended at time
+	 * @param time
+	 * @param interval
+	 */
+	public void record(long time, Interval interval){
+		times[next] = time;
+		bytes[next] = interval.getTotal().getBytes();
+		packets[next] = interval.getTotal().getPackets();
+		for(long[][] ring : portRings.values()){
+			ring[0][next] = 0;
+			ring[1][next] = 0;
+		}
+		for(Entry<Short, Delta> entry : interval.getPorts().entrySet()){
+			long[][] ring = portRings.get(entry.getKey());
+			if(ring == null){
+				ring = new long[2][capacity];
+				portRings.put(entry.getKey(), ring);
+			}
+			ring[0][next] = entry.getValue().getBytes();
+			ring[1][next] = entry.getValue().getPackets();
+		}
+		next = (next + 1) % capacity;
+		if(count < capacity){
+			count++;
+		}
+	}
+
+	public int size(){
+		return count;
+	}
+
+	private int index(int i){
+		return (next - count + i + capacity) % capacity;
+	}
+
+	/**
+	 * returns the bytes moved in the i-th oldest interval
+	 */
+	public long getBytes(int i){
+		return bytes[index(i)];
+	}
+
+	/**
+	 * returns the packets moved in the i-th oldest interval
+	 */
+	public long getPackets(int i){
+		return packets[index(i)];
+	}
+
+	/**
+	 * returns the bytes moved through the port in the i-th oldest interval
+	 */
+	public long getPortBytes(short port, int i){
+		long[][] ring = portRings.get(port);
+		if(ring == null){
+			return 0;
+		}
+		return ring[0][index(i)];
+	}
+
+	/**
+	 * returns the samples oldest first for the REST api
+	 * @return
+	 */
+	public HashMap<String, Object> toMap(){
+		HashMap<String, Object> results = new HashMap<String, Object>();
+		List<HashMap<String, Object>> samples = new ArrayList<HashMap<String, Object>>();
+		long totalBytes = 0;
+		long totalPackets = 0;
+		for(int i = 0; i < count; i++){
+			int idx = index(i);
+			HashMap<String, Object> sample = new HashMap<String, Object>();
+			sample.put("time", times[idx]);
+			sample.put("bytes", bytes[idx]);
+			sample.put("packets", packets[idx]);
+			HashMap<Short, Object> ports = new HashMap<Short, Object>();
+			for(Entry<Short, long[][]> entry : portRings.entrySet()){
+				if(entry.getValue()[0][idx] == 0 && entry.getValue()[1][idx] == 0){
+					continue;
+				}
+				HashMap<String, Long> port = new HashMap<String, Long>();
+				port.put("bytes", entry.getValue()[0][idx]);
+				port.put("packets", entry.getValue()[1][idx]);
+				ports.put(entry.getKey(), port);
+			}
+			sample.put("ports", ports);
+			samples.add(sample);
+			totalBytes += bytes[idx];
+			totalPackets += packets[idx];
+		}
+		results.put("samples", samples);
+		results.put("total_bytes", totalBytes);
+		results.put("total_packets", totalPackets);
+		return results;
+	}
+}
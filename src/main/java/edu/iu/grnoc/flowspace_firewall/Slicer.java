@@ -17,12 +17,14 @@ package edu.iu.grnoc.flowspace_firewall;
 
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Set;
 
 import net.floodlightcontroller.core.IOFSwitch;
 
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketOut;
+import org.openflow.protocol.OFType;
 
 public interface Slicer {
 
@@ -39,10 +41,17 @@ public interface Slicer {
 	boolean isGreaterThanMaxFlows(int numberOfFlows);
 	boolean isPortPartOfSlice(String portName);
 	boolean isPortPartOfSlice(short portId);
+	Set<Short> getPortIds();
 	void setPortConfig(String portName, PortConfig pConfig);
 	PortConfig getPortConfig(String portName);
 	PortConfig getPortConfig(short portId);
 	boolean isOkToProcessMessage();
+	boolean isOkToProcessMessage(OFType type);
+	void setPacketOutRate(int packetOutRate);
+	int getMaxPacketOutRate();
+	void setStatsRate(int statsRate);
+	int getMaxStatsRate();
+	void setSwitchRateTracker(RateTracker switchRate);
 	boolean hasOverlap(Slicer otherSlicer);
 	String getSliceName();
 	void setSliceName(String name);
@@ -50,9 +59,18 @@ public interface Slicer {
 	int getMaxFlows();
 	int getPacketInRate();
 	void setPacketInRate(int rate);
+	int getPacketInQueueSize();
+	void setPacketInQueueSize(int size);
+	PacketInQueue.DropPolicy getPacketInDropPolicy();
+	void setPacketInDropPolicy(PacketInQueue.DropPolicy policy);
+	int getPacketInDisableTime();
+	void setPacketInDisableTime(int seconds);
+	int getPacketInDedupWindow();
+	void setPacketInDedupWindow(int window);
 	IOFSwitch getSwitch();
 	void addBufferId(int bufferId, byte[] packetData);
 	void setPortId(String portName, short portId);
+	void removePortId(String portName, short portId);
 	void setAdminState(boolean state);
 	boolean getAdminState();
 	void setTagManagement(boolean tagMgmt);
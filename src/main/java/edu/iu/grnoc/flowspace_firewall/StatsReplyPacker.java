@@ -0,0 +1,101 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packs a list of stats into as few multipart
+ * OFStatisticsReply messages as possible without
+ * any single message going over the max length
+ * @author aragusa
+ *
+ */
+
+public final class StatsReplyPacker {
+
+	private static final Logger log = LoggerFactory.getLogger(StatsReplyPacker.class);
+
+	//the length field of an OpenFlow header is 16 bits
+	public static final int MAX_LENGTH = 0xffff;
+	public static final short REPLY_MORE = (short)0x0001;
+	public static final short REPLY_LAST = (short)0x0000;
+
+	private StatsReplyPacker(){
+
+	}
+
+	/**
+	 * returns the length a stat will take up on the wire
+	 * @param stat
+	 * @return
+	 */
+	public static int getLength(OFStatistics stat){
+		return stat.getLength() & 0xffff;
+	}
+
+	/**
+	 * packs the stats into replies of at most maxLength bytes each
+	 * every reply but the last has the REPLY_MORE flag set
+	 * @param stats
+	 * @param type
+	 * @param xid
+	 * @param maxLength
+	 * @return List of OFStatisticsReply messages
+	 */
+	public static List<OFMessage> pack(List<? extends OFStatistics> stats, OFStatisticsType type, int xid, int maxLength){
+		int limit = Math.min(maxLength, MAX_LENGTH);
+		List<OFMessage> replies = new ArrayList<OFMessage>();
+
+		List<OFStatistics> body = new ArrayList<OFStatistics>();
+		int length = OFStatisticsReply.MINIMUM_LENGTH;
+		for(OFStatistics stat : stats){
+			int statLength = getLength(stat);
+			if(OFStatisticsReply.MINIMUM_LENGTH + statLength > MAX_LENGTH){
+				//can never be encoded... skip it rather than break the stream
+				log.error("Stat of " + statLength + " bytes can not fit in a single reply, skipping it");
+				continue;
+			}
+			if(!body.isEmpty() && length + statLength > limit){
+				replies.add(buildReply(body, type, xid, length, REPLY_MORE));
+				body = new ArrayList<OFStatistics>();
+				length = OFStatisticsReply.MINIMUM_LENGTH;
+			}
+			body.add(stat);
+			length += statLength;
+		}
+		replies.add(buildReply(body, type, xid, length, REPLY_LAST));
+		return replies;
+	}
+
+	private static OFStatisticsReply buildReply(List<OFStatistics> body, OFStatisticsType type, int xid, int length, short flags){
+		OFStatisticsReply reply = new OFStatisticsReply();
+		reply.setStatisticType(type);
+		reply.setStatistics(body);
+		reply.setXid(xid);
+		reply.setFlags(flags);
+		reply.setLengthU(length);
+		return reply;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.openflow.protocol.OFMatch;
+
+/**
+ * The N flows of a slice that moved the most bytes and the most
+ * packets during one poll interval.  Each ranking is a min-heap
+ * capped at N entries so offering a flow is O(log N) and the
+ * smallest kept flow is the one that gets pushed out
+ * @author aragusa
+ *
+ */
+
+public class TopFlows {
+
+	/**
+	 * a single flow and what it moved during the interval
+	 */
+	public static class Flow {
+		private final OFMatch match;
+		private final OFMatch sliceMatch;
+		private final long bytes;
+		private final long packets;
+
+		public Flow(OFMatch match, OFMatch sliceMatch, long bytes, long packets){
+			this.match = match;
+			this.sliceMatch = sliceMatch;
+			this.bytes = bytes;
+			this.packets = packets;
+		}
+
+		public OFMatch getMatch(){
+			return match;
+		}
+
+		public OFMatch getSliceMatch(){
+			return sliceMatch;
+		}
+
+		public long getBytes(){
+			return bytes;
+		}
+
+		public long getPackets(){
+			return packets;
+		}
+
+		public HashMap<String, Object> toMap(){
+			HashMap<String, Object> results = new HashMap<String, Object>();
+			results.put("match", match.toString());
+			if(sliceMatch != null){
+				results.put("slice_match", sliceMatch.toString());
+			}
+			results.put("bytes", bytes);
+			results.put("packets", packets);
+			return results;
+		}
+	}
+
+	private static final Comparator<Flow> BY_BYTES = new Comparator<Flow>(){
+		public int compare(Flow a, Flow b){
+			if(a.getBytes() != b.getBytes()){
+				return a.getBytes() < b.getBytes() ? -1 : 1;
+			}
+			if(a.getPackets() != b.getPackets()){
+				return a.getPackets() < b.getPackets() ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+
+	private static final Comparator<Flow> BY_PACKETS = new Comparator<Flow>(){
+		public int compare(Flow a, Flow b){
+			if(a.getPackets() != b.getPackets()){
+				return a.getPackets() < b.getPackets() ? -1 : 1;
+			}
+			if(a.getBytes() != b.getBytes()){
+				return a.getBytes() < b.getBytes() ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+
+	private final int capacity;
+	private final PriorityQueue<Flow> byBytes;
+	private final PriorityQueue<Flow> byPackets;
+
+	public TopFlows(int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("need room for at least 1 flow");
+		}
+		this.capacity = capacity;
+		//one extra slot for the flow being offered before the smallest is pushed out
+		this.byBytes = new PriorityQueue<Flow>(capacity + 1, BY_BYTES);
+		this.byPackets = new PriorityQueue<Flow>(capacity + 1, BY_PACKETS);
+	}
+
+	/**
+	 * offers a flow to both rankings
+	 * flows that moved nothing are never ranked
+	 * @param flow
+	 */
+	public void offer(Flow flow){
+		if(flow.getBytes() > 0){
+			offer(byBytes, BY_BYTES, flow);
+		}
+		if(flow.getPackets() > 0){
+			offer(byPackets, BY_PACKETS, flow);
+		}
+	}
+
+	private void offer(PriorityQueue<Flow> heap, Comparator<Flow> comparator, Flow flow){
+		if(heap.size() < capacity){
+			heap.add(flow);
+		}else if(comparator.compare(flow, heap.peek()) > 0){
+			heap.poll();
+			heap.add(flow);
+		}
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * returns up to count flows, heaviest by bytes first
+	 */
+	public List<Flow> getTopByBytes(int count){
+		return sorted(byBytes, BY_BYTES, count);
+	}
+
+	/**
+	 * returns up to count flows, heaviest by packets first
+	 */
+	public List<Flow> getTopByPackets(int count){
+		return sorted(byPackets, BY_PACKETS, count);
+	}
+
+	private static List<Flow> sorted(PriorityQueue<Flow> heap, Comparator<Flow> comparator, int count){
+		List<Flow> flows = new ArrayList<Flow>(heap);
+		Collections.sort(flows, Collections.reverseOrder(comparator));
+		if(count < flows.size()){
+			return new ArrayList<Flow>(flows.subList(0, Math.max(0, count)));
+		}
+		return flows;
+	}
+
+	/**
+	 * returns the top count flows of both rankings for the REST api
+	 * @param count
+	 * @return
+	 */
+	public HashMap<String, Object> toMap(int count){
+		HashMap<String, Object> results = new HashMap<String, Object>();
+		List<HashMap<String, Object>> bytes = new ArrayList<HashMap<String, Object>>();
+		for(Flow flow : getTopByBytes(count)){
+			bytes.add(flow.toMap());
+		}
+		List<HashMap<String, Object>> packets = new ArrayList<HashMap<String, Object>>();
+		for(Flow flow : getTopByPackets(count)){
+			packets.add(flow.toMap());
+		}
+		results.put("by_bytes", bytes);
+		results.put("by_packets", packets);
+		results.put("max_flows", capacity);
+		return results;
+	}
+}
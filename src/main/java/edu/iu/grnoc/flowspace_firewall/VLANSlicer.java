@@ -19,11 +19,13 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.ImmutablePort;
@@ -34,6 +36,7 @@ import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketOut;
 import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFType;
 import org.openflow.protocol.Wildcards;
 import org.openflow.protocol.Wildcards.Flag;
 import org.openflow.protocol.action.OFAction;
@@ -57,22 +60,35 @@ public class VLANSlicer implements Slicer{
 	private HashMap<String, PortConfig> portList;
 	private InetSocketAddress controllerAddress;
 	private IOFSwitch sw;
+	//flow mods and anything else that is not one of the classes below
 	private RateTracker myRateTracker;
+	private RateTracker packetOutRateTracker;
+	private RateTracker statsRateTracker;
+	//shared by every slice on the switch, null if the switch has no limit
+	private volatile RateTracker switchRateTracker;
 	private int maxFlows;
 	private String name;
 	private int packetInRate;
+	private int packetInQueueSize = PacketInQueue.DEFAULT_CAPACITY;
+	private PacketInQueue.DropPolicy packetInDropPolicy = PacketInQueue.DropPolicy.TAIL;
+	private int packetInDisableTime = PacketInQueue.DEFAULT_DISABLE_TIME;
+	private int packetInDedupWindow = 0;
 	private String swName;
 	private Map<Integer, byte[]> bufferIds;
 	private boolean adminState;
 	private boolean flushOnConnect;
 	private boolean tagMgmt;
 	private boolean doTimeouts;
+	//snapshot of the openflow port ids of the slice's ports, replaced whenever they change
+	private volatile Set<Short> portIds = Collections.emptySet();
 	
 	private static final Logger log = LoggerFactory.getLogger(VLANSlicer.class);
 	
 	public VLANSlicer(HashMap <String, PortConfig> ports, 
 			InetSocketAddress controllerAddress, int rate, String name, boolean flushOnConnect, boolean tagMgmt, boolean doTimeouts){
 		myRateTracker = new RateTracker(1000,100);
+		packetOutRateTracker = new RateTracker(1000,100);
+		statsRateTracker = new RateTracker(1000,100);
 		portList = ports;
 		this.name = name;
 		this.adminState = true;
@@ -103,6 +119,8 @@ public class VLANSlicer implements Slicer{
 	
 	public VLANSlicer(){
 		myRateTracker = new RateTracker(1000,100);
+		packetOutRateTracker = new RateTracker(1000,100);
+		statsRateTracker = new RateTracker(1000,100);
 		packetInRate = 10;
 		portList = new HashMap<String,PortConfig>();
 		name = "";
@@ -151,18 +169,100 @@ public class VLANSlicer implements Slicer{
 		this.packetInRate = rate;
 	}
 	
+	/**
+	 * sets how many packet ins over the rate can wait to be sent
+	 * @param size
+	 */
+	public void setPacketInQueueSize(int size){
+		this.packetInQueueSize = size;
+	}
+	
+	public int getPacketInQueueSize(){
+		return this.packetInQueueSize;
+	}
+	
+	public void setPacketInDropPolicy(PacketInQueue.DropPolicy policy){
+		this.packetInDropPolicy = policy;
+	}
+	
+	public PacketInQueue.DropPolicy getPacketInDropPolicy(){
+		return this.packetInDropPolicy;
+	}
+	
+	/**
+	 * sets how many seconds of packet in overload before the slice is disabled
+	 * 0 never disables the slice
+	 * @param seconds
+	 */
+	public void setPacketInDisableTime(int seconds){
+		this.packetInDisableTime = seconds;
+	}
+	
+	public int getPacketInDisableTime(){
+		return this.packetInDisableTime;
+	}
+	
+	/**
+	 * sets how many milliseconds repeated packet ins for the same
+	 * flow are held back, 0 sends every packet in
+	 * @param window
+	 */
+	public void setPacketInDedupWindow(int window){
+		this.packetInDedupWindow = window;
+	}
+	
+	public int getPacketInDedupWindow(){
+		return this.packetInDedupWindow;
+	}
+	
 	
 	public void setPortId(String portName, short portId){
 		
 		PortConfig ptCnfg = this.getPortConfig(portName);
 		if(ptCnfg != null){
+			short oldId = ptCnfg.getPortId();
 			ptCnfg.setPortId(portId);
+			Set<Short> ids = new HashSet<Short>(this.portIds);
+			//the port may have been renumbered, drop its old id
+			if(oldId != portId && !this.isPortIdConfigured(oldId)){
+				ids.remove(oldId);
+			}
+			ids.add(portId);
+			this.portIds = Collections.unmodifiableSet(ids);
 			log.debug("Set port: " + portName + " to port id: " + portId);
 		}else{
 			log.debug("NO configuration for port named: " + portName);
 		}
 	}
 	
+	/**
+	 * removes a deleted port from the port id snapshot
+	 * the port stays configured and comes back with setPortId
+	 * @param portName
+	 * @param portId
+	 */
+	public void removePortId(String portName, short portId){
+		if(!this.portIds.contains(portId)){
+			return;
+		}
+		Set<Short> ids = new HashSet<Short>(this.portIds);
+		ids.remove(portId);
+		this.portIds = Collections.unmodifiableSet(ids);
+		log.debug("Removed port: " + portName + " port id: " + portId);
+	}
+	
+	/**
+	 * is any other configured port using this port id
+	 */
+	private boolean isPortIdConfigured(short portId){
+		for(PortConfig ptCfg : this.portList.values()){
+			if(ptCfg.getPortId() == portId){
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * sets the switch object as our slicer
 	 * probably existed before the switch connected
@@ -171,6 +271,7 @@ public class VLANSlicer implements Slicer{
 	
 	public void setSwitch(IOFSwitch sw){
 		this.sw = sw;
+		Set<Short> ids = new HashSet<Short>();
 		Iterator <ImmutablePort> portIterator = sw.getPorts().iterator();
 		while(portIterator.hasNext()){
 			ImmutablePort port = portIterator.next();
@@ -178,10 +279,12 @@ public class VLANSlicer implements Slicer{
 			if(ptCfg != null){
 				log.debug("Setting port named: " + port.getName() + " to port ID: " + port.getPortNumber());
 				ptCfg.setPortId(port.getPortNumber());
+				ids.add(port.getPortNumber());
 			}else{
 				log.debug("No configuration for port named: " + port.getName());
 			}
 		}
+		this.portIds = Collections.unmodifiableSet(ids);
 	}
 	
 	public void setAdminState(boolean state){
@@ -195,7 +298,11 @@ public class VLANSlicer implements Slicer{
 	 */
 	
 	public void setPortConfig(String portName, PortConfig portConfig){
-		portList.put(portName, portConfig);
+		PortConfig oldCfg = portList.put(portName, portConfig);
+		if(oldCfg != null && oldCfg != portConfig && !this.isPortIdConfigured(oldCfg.getPortId())){
+			//replaced config, its id is re-learned below if the port is still there
+			this.removePortId(portName, oldCfg.getPortId());
+		}
 		if(this.sw != null){
 			Iterator <ImmutablePort> portIterator = sw.getPorts().iterator();
 			while(portIterator.hasNext()){
@@ -204,6 +311,9 @@ public class VLANSlicer implements Slicer{
 				if(port.getName().equals(portName)){
 					PortConfig ptCfg = this.getPortConfig(port.getName());
 					ptCfg.setPortId(port.getPortNumber());
+					Set<Short> ids = new HashSet<Short>(this.portIds);
+					ids.add(port.getPortNumber());
+					this.portIds = Collections.unmodifiableSet(ids);
 					log.debug("Set port " + portConfig.getPortName() + " to port id " + port.getPortNumber());
 				}
 			}
@@ -231,6 +341,30 @@ public class VLANSlicer implements Slicer{
 		this.myRateTracker.setRate(flowRate);
 	}
 	
+	/**
+	 * sets the packet out rate for the switch/slice instance
+	 * @param packetOutRate
+	 */
+	public void setPacketOutRate(int packetOutRate){
+		this.packetOutRateTracker.setRate(packetOutRate);
+	}
+	
+	/**
+	 * sets the stats request rate for the switch/slice instance
+	 * @param statsRate
+	 */
+	public void setStatsRate(int statsRate){
+		this.statsRateTracker.setRate(statsRate);
+	}
+	
+	/**
+	 * sets the budget shared by every slice on the switch
+	 * @param switchRate
+	 */
+	public void setSwitchRateTracker(RateTracker switchRate){
+		this.switchRateTracker = switchRate;
+	}
+	
 	/**
 	 * takes a number of flows and returns true if the number
 	 * is greater than the max number of flow and false if it is not
@@ -378,6 +512,14 @@ public class VLANSlicer implements Slicer{
 		return this.myRateTracker.getMaxRate();
 	}
 	
+	public int getMaxPacketOutRate(){
+		return this.packetOutRateTracker.getMaxRate();
+	}
+	
+	public int getMaxStatsRate(){
+		return this.statsRateTracker.getMaxRate();
+	}
+	
 	
 	public List<OFMessage> managedPacketOut(OFPacketOut outPacket){
 		List <OFAction> newActions = new ArrayList<OFAction>();
@@ -1051,6 +1193,14 @@ public class VLANSlicer implements Slicer{
 		return portList.containsKey(portName);
 	}
 	
+	/**
+	 * returns an unmodifiable snapshot of the openflow port ids
+	 * of the ports in this slice on the connected switch
+	 */
+	public Set<Short> getPortIds(){
+		return this.portIds;
+	}
+	
 	/**
 	 * 
 	 */
@@ -1090,11 +1240,48 @@ public class VLANSlicer implements Slicer{
 
 	@Override
 	public boolean isOkToProcessMessage() {
-		if(myRateTracker.okToProcess()){
+		return this.isOkToProcessMessage(OFType.FLOW_MOD);
+	}
+	
+	/**
+	 * checks the message against the slice's budget for its class
+	 * then against the switch wide budget.  If the switch budget turns
+	 * it down the slice gets its token back so one noisy slice
+	 * does not also burn through its own budget on messages that never went out
+	 * control messages (echo, barrier, hello, ...) are never limited
+	 */
+	@Override
+	public boolean isOkToProcessMessage(OFType type) {
+		RateTracker tracker;
+		switch(type){
+		case ECHO_REQUEST:
+		case ECHO_REPLY:
+		case BARRIER_REQUEST:
+		case HELLO:
+		case FEATURES_REQUEST:
+		case GET_CONFIG_REQUEST:
+		case QUEUE_GET_CONFIG_REQUEST:
 			return true;
-		}else{
+		case PACKET_OUT:
+			tracker = packetOutRateTracker;
+			break;
+		case STATS_REQUEST:
+			tracker = statsRateTracker;
+			break;
+		default:
+			tracker = myRateTracker;
+			break;
+		}
+		if(!tracker.okToProcess()){
+			return false;
+		}
+		RateTracker switchRate = this.switchRateTracker;
+		if(switchRate != null && !switchRate.okToProcess()){
+			log.debug("Switch wide rate is over for slice " + this.name);
+			tracker.refund();
 			return false;
 		}
+		return true;
 	}
 	
 	public double getRate(){
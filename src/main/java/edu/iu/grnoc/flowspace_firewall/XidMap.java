@@ -15,73 +15,291 @@
 */
 package edu.iu.grnoc.flowspace_firewall;
 
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Maps the xids we send to the switch back to the proxy that sent
+ * the message and the xid its controller used.  One map is shared by
+ * every slice on a switch so a reply or error goes straight to its slice.
+ *
+ * Each slice gets its own ring of primitive ints indexed by the low bits
+ * of the switch xid, no boxing and no allocation per message.  A mapping
+ * is only lost when an xid the same slice mapped a full ring later lands
+ * on its slot, which is counted as an eviction.  A busy slice can never
+ * push out a quiet slice's mappings.  A switch wide index of the same
+ * kind points each xid at its slice's ring, if a later xid took the
+ * index slot every ring is asked.
+ *
+ * Every mapping also gets a sequence number, a barrier reply drops
+ * everything its proxy mapped up to and including the barrier by moving
+ * that proxy's floor past the barrier's sequence number, no matter how
+ * many entries that is
+ * @author aragusa
+ *
+ */
 public class XidMap {
 
-	private Map<Integer, Integer> xidMap;
-	private static final int max_xid_size = 1000;
-	
+	//per slice on a switch
+	public static final int DEFAULT_CAPACITY = 1024;
+	public static final int MIN_CAPACITY = 16;
+	public static final int MAX_CAPACITY = 1 << 20;
+	//the switch index has room for this many rings worth of xids
+	private static final int INDEX_FACTOR = 4;
+
+	/**
+	 * the mappings of a single proxy
+	 */
+	private static final class Ring {
+		private final Proxy owner;
+		private final int[] keys;
+		private final int[] values;
+		//order the mapping was added in, live if at or above the floor
+		private final int[] seqs;
+		private final boolean[] used;
+		//lowest live sequence number, set by barriers
+		private int floor = 0;
+		private int nextSeq = 0;
+		private long evictions = 0;
+
+		private Ring(Proxy owner, int size){
+			this.owner = owner;
+			this.keys = new int[size];
+			this.values = new int[size];
+			this.seqs = new int[size];
+			this.used = new boolean[size];
+		}
+
+		private boolean isLive(int slot){
+			return used[slot] && seqs[slot] - floor >= 0;
+		}
+	}
+
+	private final int mask;
+	private final int indexMask;
+	//switch xid -> ring of the proxy that mapped it
+	private final int[] indexKeys;
+	private final Ring[] indexRings;
+	private Ring[] rings = new Ring[0];
+	//the ring of the last put, a slice usually sends in bursts
+	private Ring lastRing;
+	private long evictions = 0;
+
 	private static final Logger log = LoggerFactory.getLogger(XidMap.class);
-	
+
 	public XidMap(){
-		xidMap = Collections.synchronizedMap(
-				new LinkedHashMap<Integer,Integer>(){
-					/**
-					 * 
-					 */
-					private static final long serialVersionUID = 1L;
-
-					@Override
-					public boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest)  
-					{
-						//when to remove the eldest entry
-						return size() >= max_xid_size ;   //size exceeded the max allowed
-					}
-				}
-				);
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity per slice, rounded up to a power of 2
+	 */
+	public XidMap(int capacity){
+		if(capacity < MIN_CAPACITY || capacity > MAX_CAPACITY){
+			throw new IllegalArgumentException("xid map capacity must be between " + MIN_CAPACITY + " and " + MAX_CAPACITY);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity){
+			size = size << 1;
+		}
+		this.mask = size - 1;
+		int indexSize = Math.min(size * INDEX_FACTOR, MAX_CAPACITY);
+		this.indexMask = indexSize - 1;
+		this.indexKeys = new int[this.indexMask + 1];
+		this.indexRings = new Ring[this.indexMask + 1];
+	}
+
+	/**
+	 * returns the ring the key is live in or null
+	 */
+	private Ring find(int key){
+		int slot = key & mask;
+		int index = key & indexMask;
+		Ring ring = indexRings[index];
+		if(ring != null && indexKeys[index] == key){
+			return ring.isLive(slot) && ring.keys[slot] == key ? ring : null;
+		}
+		//a later xid took the index slot
+		for(Ring other : rings){
+			if(other.isLive(slot) && other.keys[slot] == key){
+				return other;
+			}
+		}
+		return null;
 	}
-	
-	public synchronized boolean containsKey(int key){	
-		return xidMap.containsKey(key);
+
+	/**
+	 * returns the ring of the owner, adding one the first time
+	 */
+	private Ring ringOf(Proxy owner){
+		if(lastRing != null && lastRing.owner == owner){
+			return lastRing;
+		}
+		for(Ring ring : rings){
+			if(ring.owner == owner){
+				lastRing = ring;
+				return ring;
+			}
+		}
+		Ring ring = new Ring(owner, mask + 1);
+		Ring[] grown = new Ring[rings.length + 1];
+		System.arraycopy(rings, 0, grown, 0, rings.length);
+		grown[rings.length] = ring;
+		rings = grown;
+		lastRing = ring;
+		return ring;
 	}
+
+	public synchronized boolean containsKey(int key){
+		return find(key) != null;
+	}
+
 	public synchronized int remove(int key){
-		return xidMap.remove(key);
+		Ring ring = find(key);
+		if(ring == null){
+			throw new NoSuchElementException("xid " + key + " is not mapped");
+		}
+		int slot = key & mask;
+		ring.used[slot] = false;
+		return ring.values[slot];
 	}
-	public synchronized int get(Object key){
-		return xidMap.get(key);
+
+	public synchronized int get(int key){
+		Ring ring = find(key);
+		if(ring == null){
+			throw new NoSuchElementException("xid " + key + " is not mapped");
+		}
+		return ring.values[key & mask];
 	}
-	
+
+	/**
+	 * returns the proxy that mapped the xid or null if the xid
+	 * is not mapped, or was mapped without an owner
+	 * @param key
+	 * @return
+	 */
+	public synchronized Proxy getOwner(int key){
+		Ring ring = find(key);
+		if(ring == null){
+			return null;
+		}
+		return ring.owner;
+	}
+
 	public synchronized void put(int key, int value) {
-		log.debug("Mapping XID: %d to %d", key, value);
-		xidMap.put(key, value);
+		this.put(key, value, null);
+	}
+
+	/**
+	 * maps a switch xid to the controller's xid for the proxy that sent it
+	 * only ever evicts an older mapping of the same proxy
+	 * @param key the switch xid
+	 * @param value the controller xid
+	 * @param owner
+	 */
+	public synchronized void put(int key, int value, Proxy owner) {
+		log.debug("Mapping XID: {} to {}", key, value);
+		Ring ring = this.ringOf(owner);
+		int slot = key & mask;
+		if(ring.isLive(slot) && ring.keys[slot] != key){
+			ring.evictions++;
+			evictions++;
+		}
+		ring.keys[slot] = key;
+		ring.values[slot] = value;
+		ring.seqs[slot] = ring.nextSeq++;
+		ring.used[slot] = true;
+		int index = key & indexMask;
+		indexKeys[index] = key;
+		indexRings[index] = ring;
 	}
-		
-		
+
+	/**
+	 * drops the key and every mapping its owner added before it
+	 * mappings of other proxies are left alone
+	 * @param key
+	 * @return false if the key is not mapped
+	 */
 	public synchronized boolean removeToKey(int key) {
-		if (!xidMap.containsKey(key) ){
+		Ring ring = find(key);
+		if(ring == null){
 			return false;
 		}
-		Set<Entry<Integer, Integer>> entrySet = xidMap.entrySet();
-		Iterator<Entry<Integer, Integer>> it = entrySet.iterator();	
-		while (it.hasNext()) {
-			Entry<Integer, Integer> localEntry= it.next();
-			it.remove();
-			//once we've gotten to our xid, break out of this loop
-			if (localEntry.getKey() == key){
-				break;	
+		int slot = key & mask;
+		ring.floor = ring.seqs[slot] + 1;
+		ring.used[slot] = false;
+		return true;
+	}
+
+	/**
+	 * drops every mapping of a proxy that is going away
+	 * @param owner
+	 */
+	public synchronized void removeOwner(Proxy owner){
+		Ring[] kept = new Ring[rings.length];
+		int count = 0;
+		for(Ring ring : rings){
+			if(ring.owner != owner){
+				kept[count++] = ring;
+			}
+		}
+		if(count == rings.length){
+			return;
+		}
+		Ring[] shrunk = new Ring[count];
+		System.arraycopy(kept, 0, shrunk, 0, count);
+		rings = shrunk;
+		lastRing = null;
+		for(int i = 0; i <= indexMask; i++){
+			if(indexRings[i] != null && indexRings[i].owner == owner){
+				indexRings[i] = null;
 			}
 		}
-		return true;
 	}
-	
-}
 
+	/**
+	 * number of live mappings, walks every ring
+	 */
+	public synchronized int size(){
+		int count = 0;
+		for(Ring ring : rings){
+			for(int i = 0; i <= mask; i++){
+				if(ring.isLive(i)){
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * mappings each slice can have before it evicts its own
+	 */
+	public int getCapacity(){
+		return mask + 1;
+	}
+
+	/**
+	 * number of mappings that were overwritten before their reply came back
+	 */
+	public synchronized long getEvictions(){
+		return evictions;
+	}
+
+	/**
+	 * number of the proxy's mappings that were overwritten by its own later ones
+	 * @param owner
+	 * @return
+	 */
+	public synchronized long getEvictions(Proxy owner){
+		for(Ring ring : rings){
+			if(ring.owner == owner){
+				return ring.evictions;
+			}
+		}
+		return 0;
+	}
+
+}
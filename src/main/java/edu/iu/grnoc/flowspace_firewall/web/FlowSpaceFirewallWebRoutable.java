@@ -31,6 +31,9 @@ public class FlowSpaceFirewallWebRoutable implements RestletRoutable {
 		router.attach("/admin/set_state/{slice}/{dpid}/{status}/json", FlowSpaceFirewallSetState.class);
 		router.attach("/status/{slice}/{dpid}/json",SlicerStatusResource.class);
 		router.attach("/flows/{slice}/{dpid}/json", SlicerFlowResource.class);
+		router.attach("/port_stats/{dpid}/json", PortCounterResource.class);
+		router.attach("/traffic/{slice}/{dpid}/json", SliceTrafficResource.class);
+		router.attach("/top_flows/{slice}/{dpid}/json", TopFlowsResource.class);
 		router.attach("/admin/switches/json",FlowSpaceFirewallSwitches.class);
 		router.attach("/admin/slices/json", FlowSpaceFirewallSlices.class);
 		return router;
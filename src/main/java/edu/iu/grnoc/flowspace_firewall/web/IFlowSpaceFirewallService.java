@@ -33,6 +33,9 @@ public interface IFlowSpaceFirewallService extends IFloodlightService {
 	//public HashMap<String, Object> getSliceStatus(String sliceName, Long dpid);
 	public List<OFStatistics> getStats(long switchId);
 	public List<OFStatistics> getSlicedFlowStats(long switchId, String sliceName);
+	public HashMap<Short, HashMap<String, Object>> getPortCounterHistory(long switchId);
+	public HashMap<String, Object> getSliceTraffic(long switchId, String sliceName);
+	public HashMap<String, Object> getTopFlows(long switchId, String sliceName, int count);
 	public List<Proxy> getSwitchProxies(long switchId);
 	public List<HashMap<Long,Slicer>> getSlices();
 	public List<IOFSwitch> getSwitches();
@@ -0,0 +1,52 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall.web;
+
+
+import java.util.HashMap;
+
+import org.openflow.util.HexString;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * returns the counters and rates of every port on a switch
+ * from the history kept by the stats poller
+ */
+public class PortCounterResource extends ServerResource{
+
+	protected static Logger logger = LoggerFactory.getLogger(PortCounterResource.class);
+
+	@Get("json")
+	public HashMap<String, Object> getPortCounters(){
+		IFlowSpaceFirewallService iFSFs = (IFlowSpaceFirewallService)getContext().getAttributes().get(IFlowSpaceFirewallService.class.getCanonicalName());
+		String dpidStr = (String) getRequestAttributes().get("dpid");
+		Long dpid = HexString.toLong(dpidStr);
+
+		HashMap<String, Object> results = new HashMap<String, Object>();
+		HashMap<Short, HashMap<String, Object>> ports = iFSFs.getPortCounterHistory(dpid);
+		if(ports == null){
+			logger.info("No port counters for switch " + dpidStr);
+			results.put("Error", "No port counters for switch " + dpidStr);
+			return results;
+		}
+		results.put("DPID", dpidStr);
+		results.put("ports", ports);
+		return results;
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall.web;
+
+
+import java.util.HashMap;
+
+import org.openflow.util.HexString;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * returns the bytes/packets a slice moved on a switch
+ * during each poll interval, in total and per input port
+ */
+public class SliceTrafficResource extends ServerResource{
+
+	protected static Logger logger = LoggerFactory.getLogger(SliceTrafficResource.class);
+
+	@Get("json")
+	public HashMap<String, Object> getSliceTraffic(){
+		IFlowSpaceFirewallService iFSFs = (IFlowSpaceFirewallService)getContext().getAttributes().get(IFlowSpaceFirewallService.class.getCanonicalName());
+		String sliceName = (String) getRequestAttributes().get("slice");
+		String dpidStr = (String) getRequestAttributes().get("dpid");
+		Long dpid = HexString.toLong(dpidStr);
+
+		HashMap<String, Object> results = new HashMap<String, Object>();
+		HashMap<String, Object> traffic = iFSFs.getSliceTraffic(dpid, sliceName);
+		if(traffic == null){
+			logger.info("No traffic recorded for slice " + sliceName + " on switch " + dpidStr);
+			results.put("Error", "No traffic recorded for slice " + sliceName + " on switch " + dpidStr);
+			return results;
+		}
+		results.put("DPID", dpidStr);
+		results.put("slice", sliceName);
+		results.put("traffic", traffic);
+		return results;
+	}
+}
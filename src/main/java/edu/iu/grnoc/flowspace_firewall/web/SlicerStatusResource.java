@@ -88,7 +88,26 @@ public class SlicerStatusResource extends ServerResource{
 		results.put("DPID", myProxy.getSwitch().getStringId());
 		results.put("max_packet_in_rate",  myProxy.getSlicer().getPacketInRate());
 		results.put("packet_in_rate", myProxy.getPacketInRate());
+		results.put("packet_in_queue_length", myProxy.getPacketInQueue().size());
+		results.put("packet_in_queued", myProxy.getPacketInQueue().getQueued());
+		results.put("packet_in_shed", myProxy.getPacketInQueue().getShed());
+		results.put("packet_in_suppressed", myProxy.getPacketInDedup().getSuppressed());
+		results.put("controller_backed_up", myProxy.isControllerBackedUp());
+		results.put("controller_queue_length", myProxy.getOutboundQueueLength());
+		results.put("controller_queue_dropped", myProxy.getOutboundDropped());
+		results.put("xid_evictions", myProxy.getXidMap().getEvictions(myProxy));
+		if(myProxy.getInbox() != null){
+			results.put("inbox_depth", myProxy.getInbox().size());
+			results.put("inbox_lag_ms", myProxy.getInbox().getLag());
+			results.put("inbox_dropped", myProxy.getInbox().getDropped());
+		}
+		if(myProxy.getBarrierCoalescer() != null){
+			results.put("barriers_coalesced", myProxy.getBarrierCoalescer().getCoalesced());
+		}
+		results.put("packet_in_drop_policy", myProxy.getPacketInQueue().getPolicy().toString().toLowerCase());
 		results.put("max_flow_rule", myProxy.getSlicer().getMaxFlowRate());
+		results.put("max_packet_out_rate", myProxy.getSlicer().getMaxPacketOutRate());
+		results.put("max_stats_rate", myProxy.getSlicer().getMaxStatsRate());
 		
 		return results;
 		
@@ -0,0 +1,65 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall.web;
+
+
+import java.util.HashMap;
+
+import org.openflow.util.HexString;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * returns the flows of a slice that moved the most bytes and packets
+ * on a switch during the last poll, ?count=N limits how many are returned
+ */
+public class TopFlowsResource extends ServerResource{
+
+	protected static Logger logger = LoggerFactory.getLogger(TopFlowsResource.class);
+
+	@Get("json")
+	public HashMap<String, Object> getTopFlows(){
+		IFlowSpaceFirewallService iFSFs = (IFlowSpaceFirewallService)getContext().getAttributes().get(IFlowSpaceFirewallService.class.getCanonicalName());
+		String sliceName = (String) getRequestAttributes().get("slice");
+		String dpidStr = (String) getRequestAttributes().get("dpid");
+		Long dpid = HexString.toLong(dpidStr);
+
+		HashMap<String, Object> results = new HashMap<String, Object>();
+		int count = Integer.MAX_VALUE;
+		String countStr = getQueryValue("count");
+		if(countStr != null){
+			try{
+				count = Integer.parseInt(countStr);
+			}catch(NumberFormatException e){
+				results.put("Error", "Invalid count " + countStr);
+				return results;
+			}
+		}
+
+		HashMap<String, Object> top = iFSFs.getTopFlows(dpid, sliceName, count);
+		if(top == null){
+			logger.info("No flows recorded for slice " + sliceName + " on switch " + dpidStr);
+			results.put("Error", "No flows recorded for slice " + sliceName + " on switch " + dpidStr);
+			return results;
+		}
+		results.put("DPID", dpidStr);
+		results.put("slice", sliceName);
+		results.put("flows", top);
+		return results;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Timer;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IOFSwitch;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+public class BarrierCoalescerTest {
+
+	private Timer timer;
+	private IOFSwitch sw;
+	private Capture<OFMessage> toSwitch;
+
+	@Before
+	public void setup() throws Exception{
+		timer = new Timer("BarrierCoalescerTest");
+		toSwitch = new Capture<OFMessage>(CaptureType.ALL);
+		sw = createNiceMock(IOFSwitch.class);
+		expect(sw.getNextTransactionId()).andReturn(500).once().andReturn(501).once();
+		sw.write(capture(toSwitch), (FloodlightContext)isNull());
+		expectLastCall().anyTimes();
+		replay(sw);
+	}
+
+	@After
+	public void tearDown(){
+		timer.cancel();
+	}
+
+	private Proxy buildProxy(Capture<OFMessage> toController){
+		Proxy proxy = createMock(Proxy.class);
+		expect(proxy.getAdminStatus()).andReturn(true).anyTimes();
+		proxy.deliver(capture(toController), (FloodlightContext)isNull());
+		expectLastCall().anyTimes();
+		replay(proxy);
+		return proxy;
+	}
+
+	@Test
+	public void testCoalesce(){
+		Capture<OFMessage> firstReplies = new Capture<OFMessage>(CaptureType.ALL);
+		Capture<OFMessage> secondReplies = new Capture<OFMessage>(CaptureType.ALL);
+		Proxy first = buildProxy(firstReplies);
+		Proxy second = buildProxy(secondReplies);
+
+		//long window so only the test flushes
+		BarrierCoalescer coalescer = new BarrierCoalescer(sw, timer, 60000);
+		coalescer.addBarrier(first, 10);
+		coalescer.addBarrier(second, 11);
+		coalescer.addBarrier(first, 12);
+		assertEquals(3, coalescer.getPending());
+		assertTrue("nothing sent before the window ends", toSwitch.getValues().isEmpty());
+
+		coalescer.flush();
+		assertEquals("one barrier for all three", 1, toSwitch.getValues().size());
+		OFMessage barrier = toSwitch.getValue();
+		assertEquals(OFType.BARRIER_REQUEST, barrier.getType());
+		assertEquals(500, barrier.getXid());
+		assertEquals(2, coalescer.getCoalesced());
+
+		assertFalse("not a coalesced barrier", coalescer.barrierReply(499));
+		assertTrue(coalescer.barrierReply(500));
+		assertEquals(0, coalescer.getPending());
+
+		assertEquals(2, firstReplies.getValues().size());
+		assertEquals(OFType.BARRIER_REPLY, firstReplies.getValues().get(0).getType());
+		assertEquals("replies in slice order", 10, firstReplies.getValues().get(0).getXid());
+		assertEquals(12, firstReplies.getValues().get(1).getXid());
+		assertEquals(1, secondReplies.getValues().size());
+		assertEquals(11, secondReplies.getValue().getXid());
+		assertFalse("answered once", coalescer.barrierReply(500));
+	}
+
+	@Test
+	public void testFlushIfWaiting(){
+		Proxy first = buildProxy(new Capture<OFMessage>(CaptureType.ALL));
+		Proxy second = buildProxy(new Capture<OFMessage>(CaptureType.ALL));
+		BarrierCoalescer coalescer = new BarrierCoalescer(sw, timer, 60000);
+		coalescer.addBarrier(first, 10);
+		coalescer.flushIfWaiting(second);
+		assertTrue("second has no barrier waiting", toSwitch.getValues().isEmpty());
+		coalescer.flushIfWaiting(first);
+		assertEquals("first pushed its barrier out", 1, toSwitch.getValues().size());
+		coalescer.flushIfWaiting(first);
+		assertEquals("nothing left waiting", 1, toSwitch.getValues().size());
+	}
+
+	@Test
+	public void testWriteOutsideLock() throws Exception{
+		final BarrierCoalescer[] coalescer = new BarrierCoalescer[1];
+		final boolean[] locked = new boolean[1];
+		IOFSwitch lockSw = createNiceMock(IOFSwitch.class);
+		expect(lockSw.getNextTransactionId()).andReturn(500).anyTimes();
+		lockSw.write(isA(OFMessage.class), (FloodlightContext)isNull());
+		expectLastCall().andAnswer(new IAnswer<Object>(){
+			public Object answer(){
+				locked[0] = Thread.holdsLock(coalescer[0]);
+				return null;
+			}
+		}).once();
+		replay(lockSw);
+		coalescer[0] = new BarrierCoalescer(lockSw, timer, 60000);
+		coalescer[0].addBarrier(buildProxy(new Capture<OFMessage>(CaptureType.ALL)), 10);
+		coalescer[0].flush();
+		verify(lockSw);
+		assertFalse("switch written to outside the coalescer lock", locked[0]);
+	}
+
+	@Test
+	public void testWindow() throws Exception{
+		Proxy first = buildProxy(new Capture<OFMessage>(CaptureType.ALL));
+		BarrierCoalescer coalescer = new BarrierCoalescer(sw, timer, 10);
+		coalescer.addBarrier(first, 10);
+		Thread.sleep(500);
+		assertEquals("window ended and sent the barrier", 1, toSwitch.getValues().size());
+	}
+
+	@Test
+	public void testRemoveProxy(){
+		Capture<OFMessage> firstReplies = new Capture<OFMessage>(CaptureType.ALL);
+		Capture<OFMessage> secondReplies = new Capture<OFMessage>(CaptureType.ALL);
+		Proxy first = buildProxy(firstReplies);
+		Proxy second = buildProxy(secondReplies);
+		BarrierCoalescer coalescer = new BarrierCoalescer(sw, timer, 60000);
+		coalescer.addBarrier(first, 10);
+		coalescer.addBarrier(second, 11);
+		coalescer.flush();
+		coalescer.removeProxy(second);
+		assertTrue(coalescer.barrierReply(500));
+		assertEquals(1, firstReplies.getValues().size());
+		assertTrue("removed slice gets nothing", secondReplies.getValues().isEmpty());
+	}
+}
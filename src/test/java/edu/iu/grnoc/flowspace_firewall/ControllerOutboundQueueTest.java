@@ -0,0 +1,90 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.openflow.protocol.OFType;
+
+public class ControllerOutboundQueueTest {
+
+	@Test
+	public void testFifo(){
+		ControllerOutboundQueue queue = new ControllerOutboundQueue(10);
+		assertTrue(queue.isEmpty());
+		queue.offer("first", OFType.PACKET_IN);
+		queue.offer("second", OFType.STATS_REPLY);
+		assertEquals(2, queue.size());
+		assertEquals("first", queue.poll().getPayload());
+		assertEquals(OFType.STATS_REPLY, queue.poll().getType());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testPacketInsDropFirst(){
+		ControllerOutboundQueue queue = new ControllerOutboundQueue(3);
+		queue.offer("packet_in 1", OFType.PACKET_IN);
+		queue.offer("port_status", OFType.PORT_STATUS);
+		queue.offer("packet_in 2", OFType.PACKET_IN);
+		assertFalse("new packet in is dropped when full", queue.offer("packet_in 3", OFType.PACKET_IN));
+		assertEquals(1, queue.getDropped());
+
+		assertTrue("reply pushes out the oldest packet in", queue.offer("reply", OFType.STATS_REPLY));
+		assertEquals(3, queue.size());
+		assertEquals(2, queue.getDropped());
+		assertEquals("port_status", queue.poll().getPayload());
+		assertEquals("packet_in 2", queue.poll().getPayload());
+		assertEquals("reply", queue.poll().getPayload());
+	}
+
+	@Test
+	public void testEvicted(){
+		ControllerOutboundQueue queue = new ControllerOutboundQueue(2);
+		List<ControllerOutboundQueue.Entry> evicted = new ArrayList<ControllerOutboundQueue.Entry>();
+		queue.offer("packet_in", OFType.PACKET_IN, evicted);
+		queue.offer("port_status", OFType.PORT_STATUS, evicted);
+		assertTrue(evicted.isEmpty());
+		assertTrue(queue.offer("reply", OFType.STATS_REPLY, evicted));
+		assertEquals("the packet in made room", 1, evicted.size());
+		assertEquals("packet_in", evicted.get(0).getPayload());
+	}
+
+	@Test
+	public void testEventsDropSecond(){
+		ControllerOutboundQueue queue = new ControllerOutboundQueue(2);
+		queue.offer("flow_removed", OFType.FLOW_REMOVED);
+		queue.offer("error", OFType.ERROR);
+		assertFalse("no packet in to push out so the event is dropped", queue.offer("port_status", OFType.PORT_STATUS));
+		assertTrue("error pushes out the event", queue.offer("error 2", OFType.ERROR));
+		assertEquals(2, queue.size());
+		assertEquals("error", queue.poll().getPayload());
+	}
+
+	@Test
+	public void testRepliesNeverDropped(){
+		ControllerOutboundQueue queue = new ControllerOutboundQueue(2);
+		for(int i = 0; i < 5; i++){
+			assertTrue("replies always fit", queue.offer("reply " + i, OFType.BARRIER_REPLY));
+		}
+		assertEquals("replies go past the bound", 5, queue.size());
+		assertEquals(0, queue.getDropped());
+		assertFalse("packet ins do not", queue.offer("packet_in", OFType.PACKET_IN));
+	}
+}
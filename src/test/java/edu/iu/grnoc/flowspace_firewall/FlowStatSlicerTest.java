@@ -22,7 +22,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.easymock.*;
 
@@ -34,13 +36,18 @@ import net.floodlightcontroller.core.ImmutablePort;
 import org.junit.Test;
 import org.junit.Before;
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
 import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
 import org.openflow.protocol.Wildcards.Flag;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionOutput;
 import org.openflow.protocol.action.OFActionVirtualLanIdentifier;
+import org.openflow.protocol.statistics.OFAggregateStatisticsReply;
 import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFTableStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -989,6 +996,207 @@ public class FlowStatSlicerTest {
 		assertEquals("Number of sliced stat is same as number of total stats",  allowedStats.size(),slicedStats.size());
 	}
 	
+	@Test
+	public void testFilteredFlowStats(){
+		cache = new FlowStatCache(fsfw);
+		cache.setFlowCache(sw.getId(), allowedStats);
+		
+		OFMatch match = new OFMatch();
+		List<OFStatistics> slicedStats = cache.getSlicedFlowStats(sw.getId(), slicer.getSliceName(), match, OFPort.OFPP_NONE.getValue(), (byte)0xff);
+		assertEquals("wildcard request returns all flows", allowedStats.size(), slicedStats.size());
+		
+		match = new OFMatch();
+		match.setWildcards(match.getWildcardObj().matchOn(Flag.IN_PORT));
+		match.setInputPort((short)2);
+		slicedStats = cache.getSlicedFlowStats(sw.getId(), slicer.getSliceName(), match, OFPort.OFPP_NONE.getValue(), (byte)0xff);
+		assertEquals("in_port request returns 1 flow", 1, slicedStats.size());
+		assertEquals("in_port request returns the right flow", (short)2, ((OFFlowStatisticsReply)slicedStats.get(0)).getMatch().getInputPort());
+		
+		match = new OFMatch();
+		match.setWildcards(match.getWildcardObj().matchOn(Flag.DL_VLAN));
+		match.setDataLayerVirtualLan((short)105);
+		slicedStats = cache.getSlicedFlowStats(sw.getId(), slicer.getSliceName(), match, OFPort.OFPP_NONE.getValue(), (byte)0xff);
+		assertEquals("vlan request returns 1 flow", 1, slicedStats.size());
+		
+		match = new OFMatch();
+		slicedStats = cache.getSlicedFlowStats(sw.getId(), slicer.getSliceName(), match, (short)3, (byte)0xff);
+		assertEquals("out_port request returns 1 flow", 1, slicedStats.size());
+		
+		match = new OFMatch();
+		match.setWildcards(match.getWildcardObj().matchOn(Flag.IN_PORT));
+		match.setInputPort((short)2);
+		slicedStats = cache.getSlicedFlowStats(sw.getId(), slicer.getSliceName(), match, (short)3, (byte)0xff);
+		assertEquals("in_port and out_port that do not overlap returns nothing", 0, slicedStats.size());
+		
+		match = new OFMatch();
+		match.setWildcards(match.getWildcardObj().matchOn(Flag.DL_DST));
+		match.setDataLayerDestination("78:2B:CB:48:FF:73");
+		slicedStats = cache.getSlicedFlowStats(sw.getId(), slicer.getSliceName(), match, OFPort.OFPP_NONE.getValue(), (byte)0xff);
+		assertEquals("flows that wildcard dl_dst do not match a dl_dst request", 0, slicedStats.size());
+		
+		match = new OFMatch();
+		slicedStats = cache.getSlicedFlowStats(sw.getId(), slicer.getSliceName(), match, OFPort.OFPP_NONE.getValue(), (byte)1);
+		assertEquals("table 1 has no flows", 0, slicedStats.size());
+	}
+	
+	@Test
+	public void testAggregateStats(){
+		cache = new FlowStatCache(fsfw);
+		assertNull("no aggregate before the switch is polled", cache.getSlicedAggregateStats(sw.getId(), slicer.getSliceName(), new OFMatch(), OFPort.OFPP_NONE.getValue(), (byte)0xff));
+		cache.setFlowCache(sw.getId(), allowedStats);
+		
+		OFAggregateStatisticsReply aggregate = cache.getSlicedAggregateStats(sw.getId(), slicer.getSliceName(), new OFMatch(), OFPort.OFPP_NONE.getValue(), (byte)0xff);
+		assertEquals("all flows counted", 4, aggregate.getFlowCount());
+		assertEquals("all bytes counted", 492498L, aggregate.getByteCount());
+		
+		aggregate = cache.getSlicedAggregateStats(sw.getId(), slicer.getSliceName(), new OFMatch(), (short)2, (byte)0xff);
+		assertEquals("out_port 2 flows counted", 1, aggregate.getFlowCount());
+		assertEquals("out_port 2 bytes counted", 123125L, aggregate.getByteCount());
+		
+		OFMatch match = new OFMatch();
+		match.setWildcards(match.getWildcardObj().matchOn(Flag.IN_PORT));
+		match.setInputPort((short)3);
+		aggregate = cache.getSlicedAggregateStats(sw.getId(), slicer.getSliceName(), match, OFPort.OFPP_NONE.getValue(), (byte)0xff);
+		assertEquals("in_port 3 flows counted", 1, aggregate.getFlowCount());
+		assertEquals("in_port 3 bytes counted", 123124L, aggregate.getByteCount());
+		
+		//deleting a flow takes it out of the totals right away
+		OFFlowMod mod = new OFFlowMod();
+		mod.setMatch(((OFFlowStatisticsReply)allowedStats.get(1)).getMatch());
+		mod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+		List<OFFlowMod> mods = new ArrayList<OFFlowMod>();
+		mods.add(mod);
+		cache.delFlowMod(sw.getId(), slicer.getSliceName(), mod, mods);
+		aggregate = cache.getSlicedAggregateStats(sw.getId(), slicer.getSliceName(), new OFMatch(), OFPort.OFPP_NONE.getValue(), (byte)0xff);
+		assertEquals("deleted flow is not counted", 3, aggregate.getFlowCount());
+		assertEquals("deleted flow bytes are not counted", 492498L - 123125L, aggregate.getByteCount());
+		aggregate = cache.getSlicedAggregateStats(sw.getId(), slicer.getSliceName(), new OFMatch(), (short)2, (byte)0xff);
+		assertEquals("out_port 2 has no flows", 0, aggregate.getFlowCount());
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSliceTraffic(){
+		cache = new FlowStatCache(fsfw);
+		assertNull("no traffic before the switch is polled", cache.getSliceTraffic(sw.getId(), slicer.getSliceName()));
+		cache.setFlowCache(sw.getId(), allowedStats);
+		
+		//grow one flow, reset another
+		((OFFlowStatisticsReply)allowedStats.get(0)).setByteCount(123126L + 1000L);
+		((OFFlowStatisticsReply)allowedStats.get(1)).setByteCount(500L);
+		cache.setFlowCache(sw.getId(), allowedStats);
+		
+		//the port 3 flow times out between polls
+		OFFlowRemoved removed = new OFFlowRemoved();
+		removed.setMatch(((OFFlowStatisticsReply)allowedStats.get(2)).getMatch());
+		removed.setByteCount(123124L + 200L);
+		cache.flowRemoved(sw.getId(), removed);
+		allowedStats.remove(2);
+		cache.setFlowCache(sw.getId(), allowedStats);
+		
+		HashMap<String, Object> traffic = cache.getSliceTraffic(sw.getId(), slicer.getSliceName());
+		List<HashMap<String, Object>> samples = (List<HashMap<String, Object>>) traffic.get("samples");
+		assertEquals("one sample per poll", 3, samples.size());
+		assertEquals("first poll counts the whole flows", 492498L, samples.get(0).get("bytes"));
+		assertEquals("growth plus the reset counter", 1500L, samples.get(1).get("bytes"));
+		assertEquals("removed flow is still counted", 200L, samples.get(2).get("bytes"));
+		HashMap<Short, Object> ports = (HashMap<Short, Object>) samples.get(1).get("ports");
+		assertEquals("only ports that moved traffic", 2, ports.size());
+		assertEquals("port 1 traffic", 1000L, ((HashMap<String, Long>)ports.get((short)1)).get("bytes").longValue());
+		ports = (HashMap<Short, Object>) samples.get(2).get("ports");
+		assertEquals("port 3 traffic", 200L, ((HashMap<String, Long>)ports.get((short)3)).get("bytes").longValue());
+		assertEquals("total", 492498L + 1700L, traffic.get("total_bytes"));
+		
+		//only the removed flow moved anything during the last poll
+		HashMap<String, Object> top = cache.getTopFlows(sw.getId(), slicer.getSliceName(), 10);
+		List<HashMap<String, Object>> byBytes = (List<HashMap<String, Object>>) top.get("by_bytes");
+		assertEquals("one flow moved bytes", 1, byBytes.size());
+		assertEquals("removed flow bytes", 200L, byBytes.get(0).get("bytes"));
+		assertEquals("no flow moved packets", 0, ((List<HashMap<String, Object>>) top.get("by_packets")).size());
+	}
+	
+	@Test
+	public void testTableStats(){
+		cache = new FlowStatCache(fsfw);
+		assertNull("no tables before the switch is polled", cache.getSlicedTableStats(sw.getId(), slicer.getSliceName(), 100));
+		cache.setFlowCache(sw.getId(), mixedStats);
+		
+		//no table stats from the switch yet still gives the slice a table
+		List<OFStatistics> tables = cache.getSlicedTableStats(sw.getId(), slicer.getSliceName(), 100);
+		assertEquals("one virtual table", 1, tables.size());
+		
+		OFTableStatistics table = new OFTableStatistics();
+		table.setTableId((byte)0);
+		table.setName("table0");
+		table.setMaxEntries(4000);
+		table.setActiveCount(mixedStats.size());
+		table.setLookupCount(1000000L);
+		table.setMatchedCount(500000L);
+		List<OFStatistics> switchTables = new ArrayList<OFStatistics>();
+		switchTables.add(table);
+		cache.setTableCache(sw.getId(), switchTables);
+		
+		long slicePackets = 0;
+		for(OFStatistics stat : cache.getSlicedFlowStats(sw.getId(), slicer.getSliceName())){
+			slicePackets += ((OFFlowStatisticsReply)stat).getPacketCount();
+		}
+		long switchPackets = 0;
+		for(OFStatistics stat : mixedStats){
+			switchPackets += ((OFFlowStatisticsReply)stat).getPacketCount();
+		}
+		
+		tables = cache.getSlicedTableStats(sw.getId(), slicer.getSliceName(), 100);
+		assertEquals("one virtual table", 1, tables.size());
+		OFTableStatistics virtualTable = (OFTableStatistics) tables.get(0);
+		assertEquals("name comes from the switch", "table0", virtualTable.getName());
+		assertEquals("max entries is the slice max flows", 100, virtualTable.getMaxEntries());
+		assertEquals("active count is the slice flows", 4, virtualTable.getActiveCount());
+		double share = (double)slicePackets / switchPackets;
+		assertEquals("lookups are pro-rated", (long)(1000000L * share), virtualTable.getLookupCount());
+		assertEquals("matches are pro-rated", (long)(500000L * share), virtualTable.getMatchedCount());
+	}
+	
+	@Test
+	public void testSlicedPortStats(){
+		cache = new FlowStatCache(fsfw);
+		Set<Short> slicePorts = new HashSet<Short>();
+		slicePorts.add((short)1);
+		slicePorts.add((short)3);
+		assertNull("no port stats before the switch is polled", cache.getSlicedPortStats(sw.getId(), slicePorts, OFPort.OFPP_NONE.getValue()));
+		
+		HashMap<Short, OFStatistics> portStats = new HashMap<Short, OFStatistics>();
+		for(short i = 1; i <= 3; i++){
+			OFPortStatisticsReply portStat = new OFPortStatisticsReply();
+			portStat.setPortNumber(i);
+			portStat.setReceiveBytes(i * 1000);
+			portStats.put(i, portStat);
+		}
+		cache.setPortCache(sw.getId(), portStats);
+		
+		List<OFStatistics> stats = cache.getSlicedPortStats(sw.getId(), slicePorts, OFPort.OFPP_NONE.getValue());
+		assertEquals("only the slice's ports", 2, stats.size());
+		for(OFStatistics stat : stats){
+			assertTrue("port is part of the slice", slicePorts.contains(((OFPortStatisticsReply)stat).getPortNumber()));
+		}
+		assertEquals("single port in the slice", 1, cache.getSlicedPortStats(sw.getId(), slicePorts, (short)3).size());
+		assertEquals("single port not in the slice", 0, cache.getSlicedPortStats(sw.getId(), slicePorts, (short)2).size());
+		assertEquals("single port that doesn't exist", 0, cache.getSlicedPortStats(sw.getId(), slicePorts, (short)9).size());
+		
+		EncodedStatsReply encoded = cache.getEncodedSlicedPortStats(sw.getId(), slicer.getSliceName(), slicePorts, 65535);
+		assertSame("encoded once per poll", encoded, cache.getEncodedSlicedPortStats(sw.getId(), slicer.getSliceName(), slicePorts, 65535));
+		cache.setPortCache(sw.getId(), portStats);
+		assertNotSame("re-encoded after a poll", encoded, cache.getEncodedSlicedPortStats(sw.getId(), slicer.getSliceName(), slicePorts, 65535));
+		
+		//deleted ports and removed switches take their history with them
+		assertEquals(3, cache.getPortCounterHistory(sw.getId()).size());
+		cache.portRemoved(sw.getId(), (short)3);
+		assertFalse("deleted port has no history", cache.getPortCounterHistory(sw.getId()).containsKey((short)3));
+		assertEquals("deleted port has no stats", 0, cache.getSlicedPortStats(sw.getId(), slicePorts, (short)3).size());
+		cache.clearPortCache(sw.getId());
+		assertNull("removed switch has no history", cache.getPortCounterHistory(sw.getId()));
+		assertNull("removed switch has no port stats", cache.getSlicedPortStats(sw.getId(), slicePorts, OFPort.OFPP_NONE.getValue()));
+	}
+	
 	@Test
 	public void testSliceStatsMixed(){
 		cache = new FlowStatCache(fsfw);
@@ -1099,6 +1307,45 @@ public class FlowStatSlicerTest {
 		assertEquals("flowStat packet count is correct", 4L,flowStat.getPacketCount());
 	}
 	
+	/**
+	 * the managed tag controller view is built once and only its counters follow the flow
+	 */
+	@Test
+	public void testManagedControllerView(){
+		cache = new FlowStatCache(fsfw);
+		
+		OFFlowMod mod = new OFFlowMod();
+		OFMatch match = new OFMatch();
+		match.setWildcards(match.getWildcardObj().matchOn(Flag.DL_DST));
+		match.setDataLayerDestination("78:2B:CB:48:FF:73");
+		mod.setMatch(match);
+		List<OFAction> actions = new ArrayList<OFAction>();
+		OFActionOutput output = new OFActionOutput();
+		output.setPort((short)1);
+		actions.add(output);
+		mod.setActions(actions);
+		mod.setLength((short)(OFFlowMod.MINIMUM_LENGTH + output.getLength()));
+		
+		List<OFFlowMod> mods = managedExpandedSlicer.managedFlows(mod);
+		cache.addFlowMod(sw.getId(), managedExpandedSlicer.getSliceName(), mod, mods);
+		cache.setFlowCache(sw.getId(), expandedManagedStats);
+		List<OFStatistics> slicedStats = cache.getSlicedFlowStats(sw.getId(), managedExpandedSlicer.getSliceName());
+		assertEquals("Sliced stats", 6, slicedStats.size());
+		
+		FSFWOFFlowStatisticsReply flowStat = (FSFWOFFlowStatisticsReply) slicedStats.get(0);
+		OFFlowStatisticsReply view = flowStat.getControllerView();
+		assertNotSame("controller view is not the switch view", flowStat, view);
+		assertNotSame("each request gets its own copy", view, flowStat.getControllerView());
+		assertSame("the stripped match is only built once", view.getMatch(), flowStat.getControllerView().getMatch());
+		assertTrue("vlan is wildcarded", view.getMatch().getWildcardObj().isWildcarded(Flag.DL_VLAN));
+		assertEquals("controller view byte count", flowStat.getByteCount(), view.getByteCount());
+		
+		flowStat.setByteCount(flowStat.getByteCount() + 100);
+		assertEquals("controller view follows the counters", flowStat.getByteCount(), flowStat.getControllerView().getByteCount());
+		flowStat.setTableId((byte)(flowStat.getTableId() + 1));
+		assertEquals("controller view follows the table", flowStat.getTableId(), flowStat.getControllerView().getTableId());
+	}
+	
 	@Test
 	public void testBrokenStats(){
 		List<HashMap<Long, Slicer>> tmp = new ArrayList<HashMap<Long, Slicer>>();
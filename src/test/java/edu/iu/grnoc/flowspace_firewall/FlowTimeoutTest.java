@@ -23,6 +23,8 @@ import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.ExpectedException;
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.Wildcards.Flag;
 
 public class FlowTimeoutTest {
 
@@ -75,4 +77,35 @@ public class FlowTimeoutTest {
 		
 	}
 	
+	@Test
+	public void testUpdatePacketCount(){
+		FlowTimeout timeout = new FlowTimeout(new OFFlowMod(), 10, false, null);
+		long deadline = timeout.getExpires();
+		assertFalse("no change no refresh", timeout.updatePacketCount(0));
+		assertEquals(deadline, timeout.getExpires());
+		assertTrue("packets moved", timeout.updatePacketCount(5));
+		assertTrue("deadline pushed out", timeout.getExpires() - deadline >= 0);
+		assertEquals(5, timeout.getPacketCount());
+	}
+	
+	@Test
+	public void testMatchKey(){
+		OFFlowMod flow = new OFFlowMod();
+		OFMatch match = new OFMatch();
+		match.setWildcards(match.getWildcardObj().matchOn(Flag.IN_PORT));
+		match.setInputPort((short)1);
+		flow.setMatch(match);
+		FlowTimeout timeout = new FlowTimeout(flow, 10, false, null);
+		
+		//a switch can send back junk in the fields it ignores
+		OFMatch polled = match.clone();
+		polled.setDataLayerVirtualLan((short)100);
+		polled.setTransportSource((short)80);
+		assertFalse("raw matches differ", match.equals(polled));
+		assertEquals("canonical keys are the same", timeout.getMatchKey(), FlowMatcher.canonical(polled));
+		
+		polled.setInputPort((short)2);
+		assertFalse("a field that is matched on still counts", timeout.getMatchKey().equals(FlowMatcher.canonical(polled)));
+	}
+	
 }
@@ -0,0 +1,142 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.Wildcards.Flag;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+
+public class FlowTimeoutWheelTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testExpiresOnTime(){
+		FlowTimeoutWheel wheel = new FlowTimeoutWheel(100, 16);
+		long now = System.nanoTime();
+		FlowTimeout timeout = new FlowTimeout(new OFFlowMod(), 1, true, null);
+		wheel.schedule(timeout);
+		assertEquals(1, wheel.size());
+		assertTrue("not due yet", wheel.advance(now + SECOND / 2).isEmpty());
+		List<FlowTimeout> expired = wheel.advance(now + SECOND + SECOND / 5);
+		assertEquals("due within the resolution", 1, expired.size());
+		assertSame(timeout, expired.get(0));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testLongerThanATurn(){
+		//16 buckets of 100ms is a 1.6 second turn
+		FlowTimeoutWheel wheel = new FlowTimeoutWheel(100, 16);
+		long now = System.nanoTime();
+		wheel.schedule(new FlowTimeout(new OFFlowMod(), 5, true, null));
+		for(long t = 0; t < 4 * SECOND; t += SECOND / 10){
+			assertTrue("stays in its bucket for later turns", wheel.advance(now + t).isEmpty());
+		}
+		assertEquals(1, wheel.advance(now + 5 * SECOND + SECOND / 5).size());
+	}
+
+	@Test
+	public void testIdleRescheduled() throws InterruptedException{
+		FlowTimeoutWheel wheel = new FlowTimeoutWheel(10, 16);
+		FlowTimeout timeout = new FlowTimeout(new OFFlowMod(), 1, false, null);
+		wheel.schedule(timeout);
+		Thread.sleep(500);
+		timeout.updateLastUsed();
+		long used = System.nanoTime();
+		assertTrue("pushed out", wheel.advance(used + SECOND / 2).isEmpty());
+		assertEquals("still pending", 1, wheel.size());
+		assertEquals(1, wheel.advance(used + SECOND + SECOND / 10).size());
+	}
+
+	@Test
+	public void testCancelled(){
+		FlowTimeoutWheel wheel = new FlowTimeoutWheel(100, 16);
+		long now = System.nanoTime();
+		FlowTimeout timeout = new FlowTimeout(new OFFlowMod(), 1, true, null);
+		wheel.schedule(timeout);
+		timeout.cancel();
+		assertTrue("cancelled timeouts do not fire", wheel.advance(now + 2 * SECOND).isEmpty());
+		assertEquals("and are swept", 0, wheel.size());
+	}
+
+	/**
+	 * a probe reply that already came back with the given packet count
+	 */
+	private FutureTask<List<OFStatistics>> probeReply(final OFMatch match, final long packets){
+		FutureTask<List<OFStatistics>> future = new FutureTask<List<OFStatistics>>(new Callable<List<OFStatistics>>(){
+			public List<OFStatistics> call(){
+				List<OFStatistics> stats = new ArrayList<OFStatistics>();
+				OFFlowStatisticsReply stat = new OFFlowStatisticsReply();
+				stat.setMatch(match.clone());
+				stat.setPacketCount(packets);
+				stats.add(stat);
+				return stats;
+			}
+		});
+		future.run();
+		return future;
+	}
+
+	@Test
+	public void testIdleProbe(){
+		FlowTimeoutWheel wheel = new FlowTimeoutWheel(100, 16, 1000);
+		OFFlowMod flow = new OFFlowMod();
+		OFMatch match = new OFMatch();
+		match.setWildcards(match.getWildcardObj().matchOn(Flag.IN_PORT));
+		match.setInputPort((short)1);
+		flow.setMatch(match);
+		Proxy proxy = EasyMock.createMock(Proxy.class);
+		long now = System.nanoTime();
+		FlowTimeout timeout = new FlowTimeout(proxy, flow, 2, false, null);
+
+		//first probe sees traffic, the second does not
+		EasyMock.expect(proxy.probeFlow(timeout)).andReturn(probeReply(match, 10)).once();
+		EasyMock.expect(proxy.probeFlow(timeout)).andReturn(probeReply(match, 10)).once();
+		List<FlowTimeout> expired = new ArrayList<FlowTimeout>();
+		expired.add(timeout);
+		proxy.expireFlows(expired);
+		EasyMock.expectLastCall().once();
+		EasyMock.replay(proxy);
+
+		wheel.schedule(timeout);
+		wheel.expire(now + SECOND / 2);
+		//a second before the deadline the flow is probed
+		wheel.expire(now + SECOND + SECOND / 5);
+		//the reply shows packets so the deadline moves to 2 seconds from now
+		wheel.expire(now + SECOND + SECOND / 2);
+		wheel.expire(now + 2 * SECOND + SECOND / 5);
+		assertEquals("pushed out by the probe", 1, wheel.size());
+		//probed again a second before the new deadline
+		wheel.expire(now + 2 * SECOND + SECOND / 2 + SECOND / 5);
+		//no new packets so it expires at the new deadline
+		wheel.expire(now + 3 * SECOND + SECOND / 2 + SECOND / 5);
+		assertEquals(0, wheel.size());
+		EasyMock.verify(proxy);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.easymock.EasyMock.*;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.DownstreamChannelStateEvent;
+import org.jboss.netty.channel.UpstreamChannelStateEvent;
+import org.junit.Test;
+
+public class OFControllerChannelHandlerTest {
+
+	@Test
+	public void testPoolCanNotResumeReadsPausedForWrites() throws Exception{
+		OFControllerChannelHandler handler = new OFControllerChannelHandler();
+		Channel channel = createNiceMock(Channel.class);
+		expect(channel.isWritable()).andReturn(false).anyTimes();
+		expect(channel.isReadable()).andReturn(true).anyTimes();
+		expect(channel.setReadable(false)).andReturn(null).once();
+		replay(channel);
+
+		//over the high watermark, we pause reads
+		ChannelHandlerContext upstream = createNiceMock(ChannelHandlerContext.class);
+		replay(upstream);
+		handler.channelInterestChanged(upstream, new UpstreamChannelStateEvent(channel, ChannelState.INTEREST_OPS, Channel.OP_WRITE));
+		verify(channel);
+
+		//the slicing pool drained and asks for reads back, it is answered but not sent on
+		ChannelFuture future = createMock(ChannelFuture.class);
+		expect(future.setSuccess()).andReturn(true).once();
+		replay(future);
+		ChannelHandlerContext ctx = createStrictMock(ChannelHandlerContext.class);
+		replay(ctx);
+		ChannelStateEvent resume = new DownstreamChannelStateEvent(channel, future, ChannelState.INTEREST_OPS, Channel.OP_READ);
+		handler.setInterestOpsRequested(ctx, resume);
+		verify(future);
+		verify(ctx);
+
+		//anything that leaves reads off still goes through
+		ChannelHandlerContext passed = createMock(ChannelHandlerContext.class);
+		passed.sendDownstream(isA(ChannelStateEvent.class));
+		expectLastCall().once();
+		replay(passed);
+		handler.setInterestOpsRequested(passed, new DownstreamChannelStateEvent(channel, future, ChannelState.INTEREST_OPS, Channel.OP_NONE));
+		verify(passed);
+	}
+}
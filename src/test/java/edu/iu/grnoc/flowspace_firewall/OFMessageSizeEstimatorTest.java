@@ -0,0 +1,74 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketOut;
+
+public class OFMessageSizeEstimatorTest {
+
+	@Test
+	public void testWireLength(){
+		OFMessageSizeEstimator estimator = new OFMessageSizeEstimator();
+		OFFlowMod flowMod = new OFFlowMod();
+		OFPacketOut packetOut = new OFPacketOut();
+		packetOut.setPacketData(new byte[1500]);
+		packetOut.setLengthU(OFPacketOut.MINIMUM_LENGTH + 1500);
+
+		assertTrue(estimator.estimateSize(flowMod) >= OFFlowMod.MINIMUM_LENGTH);
+		assertTrue("packet data counts", estimator.estimateSize(packetOut) >= 1500);
+
+		//the decoder hands up a list per read
+		List<OFMessage> read = new ArrayList<OFMessage>();
+		read.add(flowMod);
+		read.add(packetOut);
+		assertTrue("a read counts every message in it",
+				estimator.estimateSize(read) >= estimator.estimateSize(flowMod) + estimator.estimateSize(packetOut));
+	}
+
+	@Test
+	public void testChannelEventRunnable(){
+		//what the slicing pool actually hands the estimator
+		OFMessageSizeEstimator estimator = new OFMessageSizeEstimator();
+		Channel channel = createNiceMock(Channel.class);
+		ChannelHandlerContext ctx = createNiceMock(ChannelHandlerContext.class);
+		replay(channel, ctx);
+
+		OFPacketOut packetOut = new OFPacketOut();
+		packetOut.setPacketData(new byte[1500]);
+		packetOut.setLengthU(OFPacketOut.MINIMUM_LENGTH + 1500);
+		List<OFMessage> read = new ArrayList<OFMessage>();
+		read.add(new OFFlowMod());
+		read.add(packetOut);
+
+		ChannelEventRunnable task = new ChannelEventRunnable(ctx, new UpstreamMessageEvent(channel, read, null));
+		assertEquals("the queued read is sized by its messages", estimator.estimateSize(read), estimator.estimateSize(task));
+		assertTrue(estimator.estimateSize(task) >= 1500);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+import org.junit.Test;
+import org.openflow.protocol.OFMatch;
+
+public class PacketInDedupTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private OFMatch buildKey(short inPort, short vlan, String srcMac){
+		Ethernet pkt = new Ethernet();
+		pkt.setVlanID(vlan);
+		pkt.setDestinationMACAddress("aa:bb:cc:dd:ee:ff");
+		pkt.setSourceMACAddress(srcMac);
+		pkt.setEtherType((short)0x0806);
+		OFMatch match = new OFMatch();
+		match.loadFromPacket(pkt.serialize(), inPort);
+		return FlowMatcher.canonical(match);
+	}
+
+	@Test
+	public void testDisabled(){
+		PacketInDedup dedup = new PacketInDedup();
+		OFMatch key = buildKey((short)1, (short)100, "ff:ee:dd:cc:bb:aa");
+		assertFalse(dedup.isDuplicate(key, 0));
+		assertFalse("no window sends everything", dedup.isDuplicate(key, 0));
+		assertEquals(0, dedup.size());
+	}
+
+	@Test
+	public void testWindow(){
+		PacketInDedup dedup = new PacketInDedup(100, PacketInDedup.DEFAULT_MAX_FLOWS);
+		OFMatch key = buildKey((short)1, (short)100, "ff:ee:dd:cc:bb:aa");
+		assertFalse("first packet in goes out", dedup.isDuplicate(key, 0));
+		assertTrue("repeat is held back", dedup.isDuplicate(buildKey((short)1, (short)100, "ff:ee:dd:cc:bb:aa"), 50 * MS));
+		assertFalse("other in_port is a different flow", dedup.isDuplicate(buildKey((short)2, (short)100, "ff:ee:dd:cc:bb:aa"), 50 * MS));
+		assertFalse("other vlan is a different flow", dedup.isDuplicate(buildKey((short)1, (short)101, "ff:ee:dd:cc:bb:aa"), 50 * MS));
+		assertFalse("window ran out", dedup.isDuplicate(key, 100 * MS));
+		assertTrue("new window started", dedup.isDuplicate(key, 150 * MS));
+		assertEquals(2, dedup.getSuppressed());
+	}
+
+	@Test
+	public void testClear(){
+		PacketInDedup dedup = new PacketInDedup(1000, PacketInDedup.DEFAULT_MAX_FLOWS);
+		OFMatch key = buildKey((short)1, (short)100, "ff:ee:dd:cc:bb:aa");
+		OFMatch other = buildKey((short)2, (short)100, "ff:ee:dd:cc:bb:aa");
+		dedup.isDuplicate(key, 0);
+		dedup.isDuplicate(other, 0);
+
+		//an exact flow mod only ends its own window
+		assertEquals(1, dedup.clear(key.clone()));
+		assertFalse("flow mod ended the window", dedup.isDuplicate(key, MS));
+		assertTrue("other flow still held back", dedup.isDuplicate(other, MS));
+
+		//a wildcarded flow mod ends every window it covers
+		OFMatch vlanMatch = new OFMatch();
+		vlanMatch.fromString("dl_vlan=100");
+		assertEquals(2, dedup.clear(vlanMatch));
+		assertEquals(0, dedup.size());
+
+		OFMatch otherVlan = new OFMatch();
+		otherVlan.fromString("dl_vlan=200");
+		dedup.isDuplicate(key, 2 * MS);
+		assertEquals("flow mod for another vlan ends nothing", 0, dedup.clear(otherVlan));
+	}
+
+	@Test
+	public void testClearByPortAndType(){
+		PacketInDedup dedup = new PacketInDedup(1000, PacketInDedup.DEFAULT_MAX_FLOWS);
+		for(short port = 1; port <= 3; port++){
+			dedup.isDuplicate(buildKey(port, (short)100, "00:00:00:00:00:01"), 0);
+			dedup.isDuplicate(buildKey(port, (short)100, "00:00:00:00:00:02"), 0);
+		}
+		assertEquals(6, dedup.size());
+
+		OFMatch portAndType = new OFMatch();
+		portAndType.setInputPort((short)1);
+		portAndType.setDataLayerType((short)0x0806);
+		portAndType.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_TYPE);
+		assertEquals("only port 1's flows", 2, dedup.clear(portAndType));
+		assertFalse(dedup.isDuplicate(buildKey((short)1, (short)100, "00:00:00:00:00:01"), MS));
+
+		OFMatch otherType = portAndType.clone();
+		otherType.setInputPort((short)2);
+		otherType.setDataLayerType((short)0x0800);
+		assertEquals("no ipv4 flows on port 2", 0, dedup.clear(otherType));
+
+		OFMatch portOnly = new OFMatch();
+		portOnly.fromString("in_port=2");
+		assertEquals("every type on port 2", 2, dedup.clear(portOnly));
+
+		OFMatch src = new OFMatch();
+		src.fromString("dl_src=00:00:00:00:00:02");
+		assertEquals("any port", 1, dedup.clear(src));
+		assertEquals(2, dedup.size());
+	}
+
+	@Test
+	public void testMaxFlows(){
+		PacketInDedup dedup = new PacketInDedup(1000, 2);
+		dedup.isDuplicate(buildKey((short)1, (short)100, "00:00:00:00:00:01"), 0);
+		dedup.isDuplicate(buildKey((short)1, (short)100, "00:00:00:00:00:02"), 0);
+		dedup.isDuplicate(buildKey((short)1, (short)100, "00:00:00:00:00:03"), 0);
+		assertEquals(2, dedup.size());
+		assertFalse("oldest flow was forgotten", dedup.isDuplicate(buildKey((short)1, (short)100, "00:00:00:00:00:01"), MS));
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openflow.protocol.OFPacketIn;
+
+import edu.iu.grnoc.flowspace_firewall.PacketInQueue.DropPolicy;
+
+public class PacketInQueueTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private OFPacketIn buildPacketIn(int bufferId){
+		OFPacketIn packetIn = new OFPacketIn();
+		packetIn.setBufferId(bufferId);
+		return packetIn;
+	}
+
+	@Test
+	public void testTailDrop(){
+		PacketInQueue queue = new PacketInQueue(2, DropPolicy.TAIL, 10);
+		assertTrue(queue.offer(buildPacketIn(1), 0));
+		assertTrue(queue.offer(buildPacketIn(2), 0));
+		assertFalse("full queue drops the new packet", queue.offer(buildPacketIn(3), 0));
+		assertEquals(1, queue.getShed());
+		assertEquals(2, queue.getQueued());
+		assertEquals("oldest packet is still first", 1, queue.poll().getBufferId());
+		assertEquals(2, queue.poll().getBufferId());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testHeadDrop(){
+		PacketInQueue queue = new PacketInQueue(2, DropPolicy.HEAD, 10);
+		queue.offer(buildPacketIn(1), 0);
+		queue.offer(buildPacketIn(2), 0);
+		assertTrue("full queue makes room for the new packet", queue.offer(buildPacketIn(3), 0));
+		assertEquals(1, queue.getShed());
+		assertEquals(2, queue.size());
+		assertEquals("oldest packet was dropped", 2, queue.poll().getBufferId());
+		assertEquals(3, queue.poll().getBufferId());
+	}
+
+	@Test
+	public void testOfferOrShed(){
+		PacketInQueue tail = new PacketInQueue(1, DropPolicy.TAIL, 10);
+		OFPacketIn first = buildPacketIn(1);
+		OFPacketIn second = buildPacketIn(2);
+		assertNull("nothing shed while there is room", tail.offerOrShed(first, 0, true));
+		assertSame("tail drop sheds the new packet", second, tail.offerOrShed(second, 0, true));
+
+		PacketInQueue head = new PacketInQueue(1, DropPolicy.HEAD, 10);
+		head.offerOrShed(first, 0, true);
+		assertSame("head drop sheds the oldest", first, head.offerOrShed(second, 0, true));
+		assertSame(second, head.poll());
+	}
+
+	@Test
+	public void testBackpressureNotOverload(){
+		PacketInQueue queue = new PacketInQueue(0, DropPolicy.TAIL, 1);
+		//the controller is backed up for 20 seconds
+		for(int i = 0; i < 200; i++){
+			assertNotNull(queue.offerOrShed(buildPacketIn(i), i * SECOND / 10, false));
+		}
+		assertEquals("still counted as shed", 200, queue.getShed());
+		assertFalse("but the slice is not overloaded", queue.isOverloaded(20 * SECOND));
+		assertFalse(queue.isSustainedOverload(20 * SECOND));
+	}
+
+	@Test
+	public void testSample(){
+		PacketInQueue queue = new PacketInQueue(10, DropPolicy.SAMPLE, 10);
+		for(int i = 0; i < 10; i++){
+			assertTrue("nothing sampled while there is room", queue.offer(buildPacketIn(i), 0));
+		}
+		assertEquals(0, queue.getShed());
+		assertFalse("not overloaded while there is room", queue.isOverloaded(0));
+
+		int sampled = 0;
+		for(int i = 10; i < 110; i++){
+			if(queue.offer(buildPacketIn(i), 0)){
+				sampled++;
+			}
+		}
+		assertEquals("one in every sample rate packets is queued when full", 100 / PacketInQueue.SAMPLE_RATE, sampled);
+		assertEquals("each sampled packet sheds the oldest", 100, queue.getShed());
+		assertEquals(10, queue.size());
+		assertEquals("the oldest were replaced by the samples", 10, queue.poll().getBufferId());
+	}
+
+	@Test
+	public void testOverloadHysteresis(){
+		PacketInQueue queue = new PacketInQueue(0, DropPolicy.TAIL, 10);
+		long start = 5 * SECOND;
+		assertFalse("not overloaded before shedding", queue.isOverloaded(start));
+		//shed a packet every second for 9 seconds
+		for(int i = 0; i < 10; i++){
+			queue.offer(buildPacketIn(i), start + i * SECOND);
+		}
+		assertTrue(queue.isOverloaded(start + 9 * SECOND));
+		assertFalse("not overloaded long enough yet", queue.isSustainedOverload(start + 9 * SECOND));
+		//a one second lull does not reset the overload
+		queue.offer(buildPacketIn(10), start + 11 * SECOND);
+		assertTrue("sustained overload", queue.isSustainedOverload(start + 11 * SECOND));
+
+		//quiet for longer than the clear period starts over
+		assertFalse("overload cleared", queue.isOverloaded(start + 20 * SECOND));
+		queue.offer(buildPacketIn(11), start + 20 * SECOND);
+		assertTrue(queue.isOverloaded(start + 20 * SECOND));
+		assertFalse("overload time starts over", queue.isSustainedOverload(start + 20 * SECOND));
+	}
+
+	@Test
+	public void testNeverDisable(){
+		PacketInQueue queue = new PacketInQueue(0, DropPolicy.TAIL, 0);
+		for(int i = 0; i < 100; i++){
+			queue.offer(buildPacketIn(i), i * SECOND);
+		}
+		assertTrue(queue.isOverloaded(99 * SECOND));
+		assertFalse("disable time of 0 never disables", queue.isSustainedOverload(99 * SECOND));
+	}
+
+	@Test
+	public void testConfigure(){
+		PacketInQueue queue = new PacketInQueue(4, DropPolicy.TAIL, 10);
+		for(int i = 0; i < 4; i++){
+			queue.offer(buildPacketIn(i), 0);
+		}
+		queue.configure(2, DropPolicy.HEAD, 5);
+		assertEquals("shrunk to the new capacity", 2, queue.size());
+		assertEquals(2, queue.getShed());
+		assertEquals(DropPolicy.HEAD, queue.getPolicy());
+		assertEquals("oldest were shed", 2, queue.poll().getBufferId());
+	}
+}
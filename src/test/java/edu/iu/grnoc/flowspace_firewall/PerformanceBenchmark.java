@@ -0,0 +1,126 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+/**
+ * Rough timings of the hot paths at production sizes.  These are
+ * kept out of the unit tests (ant test skips *Benchmark), run them
+ * with ant benchmark.  Each one fails if it blows well past its budget
+ * @author aragusa
+ *
+ */
+
+public class PerformanceBenchmark {
+
+	private static final long MS = 1000000L;
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * packing + encoding the replies for a 50k flow slice
+	 */
+	@Test
+	public void benchmarkEncode50kFlows(){
+		List<OFStatistics> flows = StatsReplyPackerTest.buildFlows(50000, 2);
+		int runs = 10;
+		int messages = 0;
+		//warm up
+		StatsReplyPackerTest.encode(StatsReplyPacker.pack(flows, OFStatisticsType.FLOW, 1, StatsReplyPacker.MAX_LENGTH));
+		long start = System.nanoTime();
+		for(int i = 0; i < runs; i++){
+			List<OFMessage> replies = StatsReplyPacker.pack(flows, OFStatisticsType.FLOW, i, StatsReplyPacker.MAX_LENGTH);
+			messages = replies.size();
+			StatsReplyPackerTest.encode(replies);
+		}
+		long elapsed = System.nanoTime() - start;
+		//10 flows per message was 5000 messages
+		assertTrue(messages < 5000);
+		assertTrue("packing 50k flows took " + (elapsed / runs / MS) + " ms", elapsed / runs < 500 * MS);
+	}
+
+	/**
+	 * scheduling 100k flow timeouts and ticking through 10 minutes of wheel
+	 */
+	@Test
+	public void benchmark100kTimeouts(){
+		FlowTimeoutWheel wheel = new FlowTimeoutWheel(FlowTimeoutWheel.DEFAULT_RESOLUTION, FlowTimeoutWheel.DEFAULT_WHEEL_SIZE);
+		Random random = new Random(100000);
+		long now = System.nanoTime();
+		long start = System.nanoTime();
+		for(int i = 0; i < 100000; i++){
+			wheel.schedule(new FlowTimeout(new OFFlowMod(), 1 + random.nextInt(600), random.nextBoolean(), null));
+		}
+		long scheduled = System.nanoTime() - start;
+
+		//tick through 10 minutes of wheel at the default resolution
+		int expired = 0;
+		long tick = TimeUnit.MILLISECONDS.toNanos(FlowTimeoutWheel.DEFAULT_RESOLUTION);
+		start = System.nanoTime();
+		for(long t = tick; t <= 601 * SECOND; t += tick){
+			expired += wheel.advance(now + t).size();
+		}
+		long ticked = System.nanoTime() - start;
+		assertEquals("everything expired", 100000, expired);
+		assertEquals(0, wheel.size());
+		assertTrue("scheduling took " + (scheduled / MS) + " ms", scheduled < 1000 * MS);
+		assertTrue("ticking took " + (ticked / MS) + " ms", ticked < 1000 * MS);
+	}
+
+	/**
+	 * the per packet in cost of the rate limiter
+	 */
+	@Test
+	public void benchmarkOkToProcess(){
+		RateTracker tracker = new RateTracker(10000, Integer.MAX_VALUE);
+		int events = 5000000;
+		long start = System.nanoTime();
+		for(int i = 0; i < events; i++){
+			tracker.okToProcess();
+		}
+		long elapsed = System.nanoTime() - start;
+		assertTrue("okToProcess took " + (elapsed / events) + " ns per event", elapsed / events < 1000);
+	}
+
+	/**
+	 * put/containsKey/remove of the xid translation map
+	 */
+	@Test
+	public void benchmarkXidPutGet(){
+		XidMap mapper = new XidMap();
+		int iterations = 10000000;
+		long start = System.nanoTime();
+		for(int i = 0; i < iterations; i++){
+			mapper.put(i, i);
+			if(mapper.containsKey(i - 512)){
+				mapper.remove(i - 512);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		assertEquals(512, mapper.size());
+		assertTrue("XidMap took " + (elapsed / iterations) + " ns per xid", elapsed / iterations < 1000);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+
+import edu.iu.grnoc.flowspace_firewall.PortCounterHistory.Counter;
+
+public class PortCounterHistoryTest {
+
+	private OFPortStatisticsReply buildStat(long rxBytes, long txBytes){
+		OFPortStatisticsReply stat = new OFPortStatisticsReply();
+		stat.setPortNumber((short)1);
+		stat.setReceiveBytes(rxBytes);
+		stat.setTransmitBytes(txBytes);
+		return stat;
+	}
+
+	@Test
+	public void testRate(){
+		PortCounterHistory history = new PortCounterHistory(10);
+		assertEquals("no rate without samples", 0, history.getRate(Counter.RX_BYTES), 0.0);
+		history.record(0, buildStat(0, 0));
+		assertEquals("no rate with a single sample", 0, history.getRate(Counter.RX_BYTES), 0.0);
+		history.record(10000, buildStat(10000, 5000));
+		assertEquals("rx rate", 1000, history.getRate(Counter.RX_BYTES), 0.001);
+		assertEquals("tx rate", 500, history.getRate(Counter.TX_BYTES), 0.001);
+		history.record(20000, buildStat(30000, 5000));
+		assertEquals("rate is over the last interval", 2000, history.getRate(Counter.RX_BYTES), 0.001);
+		assertEquals("tx is idle", 0, history.getRate(Counter.TX_BYTES), 0.001);
+	}
+
+	@Test
+	public void testCounterReset(){
+		PortCounterHistory history = new PortCounterHistory(10);
+		history.record(0, buildStat(1000000, 0));
+		history.record(10000, buildStat(20000, 0));
+		assertEquals("reset counts from zero", 2000, history.getRate(Counter.RX_BYTES), 0.001);
+	}
+
+	@Test
+	public void testUnsupportedCounter(){
+		PortCounterHistory history = new PortCounterHistory(10);
+		history.record(0, buildStat(1000, 0));
+		history.record(10000, buildStat(-1, 0));
+		assertTrue("-1 is unsupported, not a reset", Double.isNaN(history.getRate(Counter.RX_BYTES)));
+		history.record(20000, buildStat(-1, 0));
+		assertTrue(Double.isNaN(history.getPercentileRate(Counter.RX_BYTES, 50)));
+		history.record(30000, buildStat(2000, 0));
+		history.record(40000, buildStat(12000, 0));
+		assertEquals("unsupported intervals are skipped", 1000, history.getPercentileRate(Counter.RX_BYTES, 0), 0.001);
+		history.record(50000, buildStat(-1, 0));
+		@SuppressWarnings("unchecked")
+		HashMap<String, Object> rx = (HashMap<String, Object>) history.toMap().get("rx_bytes");
+		assertNull("no rate for an unsupported counter", rx.get("rate"));
+	}
+
+	@Test
+	public void testWrapAround(){
+		PortCounterHistory history = new PortCounterHistory(4);
+		for(int i = 0; i < 10; i++){
+			//rate is i * 100 bytes/s for the interval ending at sample i
+			history.record(i * 1000L, buildStat(i * (i + 1) * 50L, 0));
+		}
+		assertEquals("only capacity samples kept", 4, history.size());
+		assertEquals("latest rate", 900, history.getRate(Counter.RX_BYTES), 0.001);
+		//the kept intervals have rates 700, 800 and 900
+		assertEquals("median", 800, history.getPercentileRate(Counter.RX_BYTES, 50), 0.001);
+		assertEquals("p99", 900, history.getPercentileRate(Counter.RX_BYTES, 99), 0.001);
+		assertEquals("p0", 700, history.getPercentileRate(Counter.RX_BYTES, 0), 0.001);
+	}
+
+	@Test
+	public void testToMap(){
+		PortCounterHistory history = new PortCounterHistory(10);
+		history.record(0, buildStat(0, 0));
+		history.record(1000, buildStat(100, 0));
+		HashMap<String, Object> results = history.toMap();
+		assertEquals("samples", 2, results.get("samples"));
+		@SuppressWarnings("unchecked")
+		HashMap<String, Object> rx = (HashMap<String, Object>) results.get("rx_bytes");
+		assertEquals("rx value", 100L, rx.get("value"));
+		assertEquals("rx rate", 100.0, (Double)rx.get("rate"), 0.001);
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import net.floodlightcontroller.core.FloodlightContext;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFError;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPortStatus;
+
+public class ProxyInboxTest {
+
+	private List<Runnable> tasks;
+	private Executor executor;
+	private Capture<OFMessage> delivered;
+	private Proxy proxy;
+
+	@Before
+	public void setup(){
+		//the test runs the workers itself
+		tasks = new ArrayList<Runnable>();
+		executor = new Executor(){
+			public void execute(Runnable task){
+				tasks.add(task);
+			}
+		};
+		delivered = new Capture<OFMessage>(CaptureType.ALL);
+		proxy = createNiceMock(Proxy.class);
+		proxy.toController(capture(delivered), (FloodlightContext)anyObject());
+		expectLastCall().anyTimes();
+		replay(proxy);
+	}
+
+	private OFMessage buildMessage(OFMessage msg, int xid){
+		msg.setXid(xid);
+		return msg;
+	}
+
+	@Test
+	public void testInOrder(){
+		ProxyInbox inbox = new ProxyInbox(proxy, executor, 10);
+		inbox.offer(buildMessage(new OFPacketIn(), 1), null);
+		inbox.offer(buildMessage(new OFPortStatus(), 2), null);
+		inbox.offer(buildMessage(new OFPacketIn(), 3), null);
+		assertEquals(3, inbox.size());
+		assertEquals("one worker for the whole inbox", 1, tasks.size());
+		assertTrue("nothing handled on the switch thread", delivered.getValues().isEmpty());
+
+		tasks.remove(0).run();
+		assertEquals(0, inbox.size());
+		assertEquals(3, delivered.getValues().size());
+		for(int i = 0; i < 3; i++){
+			assertEquals("in the order they came in", i + 1, delivered.getValues().get(i).getXid());
+		}
+		assertTrue("nothing left to schedule", tasks.isEmpty());
+
+		inbox.offer(buildMessage(new OFPacketIn(), 4), null);
+		assertEquals("idle inbox gets a worker again", 1, tasks.size());
+	}
+
+	@Test
+	public void testBatch(){
+		ProxyInbox inbox = new ProxyInbox(proxy, executor, 1000);
+		for(int i = 0; i < 100; i++){
+			inbox.offer(buildMessage(new OFPacketIn(), i), null);
+		}
+		tasks.remove(0).run();
+		assertTrue("worker gave the thread back", delivered.getValues().size() < 100);
+		assertEquals("and rescheduled the rest", 1, tasks.size());
+		while(!tasks.isEmpty()){
+			tasks.remove(0).run();
+		}
+		assertEquals(100, delivered.getValues().size());
+		assertEquals(99, delivered.getValues().get(99).getXid());
+	}
+
+	@Test
+	public void testFull(){
+		ProxyInbox inbox = new ProxyInbox(proxy, executor, 2);
+		assertTrue(inbox.offer(new OFPacketIn(), null));
+		assertTrue(inbox.offer(new OFPacketIn(), null));
+		assertFalse("packet in dropped when full", inbox.offer(new OFPacketIn(), null));
+		assertTrue("errors always fit", inbox.offer(new OFError(), null));
+		assertEquals(3, inbox.size());
+		assertEquals(1, inbox.getDropped());
+	}
+
+	@Test
+	public void testLag() throws Exception{
+		ProxyInbox inbox = new ProxyInbox(proxy, executor, 10);
+		assertEquals(0, inbox.getLag());
+		inbox.offer(new OFPacketIn(), null);
+		Thread.sleep(50);
+		assertTrue("oldest message has been waiting", inbox.getLag() >= 40);
+		tasks.remove(0).run();
+		assertEquals(0, inbox.getLag());
+	}
+}
@@ -24,6 +24,7 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IOFSwitch;
@@ -68,6 +69,9 @@ public class ProxyTest {
 	private List<OFMessage> messagesSentToController;
 	private List<OFMessage> messagesSentToSwitch;
 	private List<Proxy> proxies;
+	//set if anything went to the controller while a proxy's packet in queue was locked
+	private boolean sentUnderQueueLock;
+	private FlowTimeoutWheel wheel;
 	
 	public void setupChannel() throws IOException{
 		ChannelFuture future = createMock(org.jboss.netty.channel.ChannelFuture.class);
@@ -89,13 +93,17 @@ public class ProxyTest {
 		handler.setProxy(EasyMock.isA(edu.iu.grnoc.flowspace_firewall.Proxy.class));
 		EasyMock.expectLastCall().anyTimes();
 		
-		handler.sendMessage(EasyMock.isA(org.openflow.protocol.OFMessage.class));
-		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
-		    public Object answer() {
+		EasyMock.expect(handler.sendMessage(EasyMock.isA(org.openflow.protocol.OFMessage.class))).andAnswer(new IAnswer<Boolean>() {
+		    public Boolean answer() {
 		        //supply your mock implementation here...
 		        messagesSentToController.add((OFMessage)EasyMock.getCurrentArguments()[0]);
-		        //return the value to be returned by the method (null for void)
-		        return null;
+		        for(Proxy p : proxies){
+		        	if(Thread.holdsLock(p.getPacketInQueue())){
+		        		sentUnderQueueLock = true;
+		        	}
+		        }
+		        //the message was sent
+		        return true;
 		    }
 		}).anyTimes();
 		
@@ -317,6 +325,9 @@ public class ProxyTest {
 		expect(fsfw.getStats(EasyMock.anyLong())).andReturn(stats).anyTimes();
 		
 		expect(fsfw.getSwitchProxies(EasyMock.anyLong())).andReturn(proxies).anyTimes();
+		//not scheduled, the tests drive it
+		wheel = new FlowTimeoutWheel(100, 64);
+		expect(fsfw.getTimeoutWheel()).andReturn(wheel).anyTimes();
 		fsfw.removeProxy(EasyMock.anyLong(), EasyMock.isA(Proxy.class));
 		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
 			public Object answer(){
@@ -358,6 +369,48 @@ public class ProxyTest {
 		assertNotNull("Proxy can find portConfig by ID",proxy.getSlicer().getPortConfig((short)1));
 	}
 	
+	@Test
+	public void testFeaturesReply(){
+		ArrayList <ImmutablePort> ports = new ArrayList <ImmutablePort>();
+		ImmutablePort inSlice = ImmutablePort.create("foo", (short)1);
+		ImmutablePort notInSlice = ImmutablePort.create("foo4", (short)4);
+		ports.add(inSlice);
+		ports.add(notInSlice);
+		
+		IOFSwitch sw2 = EasyMock.createNiceMock(IOFSwitch.class);
+		expect(sw2.getId()).andReturn(5L).anyTimes();
+		expect(sw2.getPort((short)1)).andReturn(inSlice).anyTimes();
+		expect(sw2.getPort((short)4)).andReturn(notInSlice).anyTimes();
+		expect(sw2.getBuffers()).andReturn(256).anyTimes();
+		expect(sw2.getTables()).andReturn((byte)1).anyTimes();
+		//once to encode it and once more after it is invalidated
+		expect(sw2.getPorts()).andReturn(ports).times(2);
+		EasyMock.replay(sw2);
+		
+		Proxy proxy = new Proxy(sw2, slicer, fsfw);
+		OFFeaturesReply reply = new OFFeaturesReply();
+		reply.readFrom(proxy.getFeaturesReply(42));
+		assertEquals(42, reply.getXid());
+		assertEquals(5L, reply.getDatapathId());
+		assertEquals(256, reply.getBuffers());
+		assertEquals("only the slice's ports", 1, reply.getPorts().size());
+		assertEquals("foo", reply.getPorts().get(0).getName());
+		
+		reply = new OFFeaturesReply();
+		reply.readFrom(proxy.getFeaturesReply(43));
+		assertEquals("cached reply gets the new xid", 43, reply.getXid());
+		assertEquals(1, reply.getPorts().size());
+		reply = new OFFeaturesReply();
+		reply.readFrom(proxy.getFeaturesReply(44));
+		assertEquals("the cached copy was not patched", 44, reply.getXid());
+		
+		proxy.invalidateFeaturesReply();
+		reply = new OFFeaturesReply();
+		reply.readFrom(proxy.getFeaturesReply(45));
+		assertEquals(45, reply.getXid());
+		EasyMock.verify(sw2);
+	}
+	
 	@Test
 	public void testConnect(){
 		expect(channel.isConnected()).andReturn(true).once().andReturn(false).once();
@@ -733,6 +786,8 @@ public class ProxyTest {
 		log.debug(messagesSentToSwitch.toString());
 		assertTrue("Message was sent to Switch", messagesSentToSwitch.size() == 1);
 		assertTrue("Message was sent to Controller", messagesSentToController.size() == 1);
+		assertEquals("controller gets its own xid", 10, messagesSentToController.get(0).getXid());
+		assertEquals("the switch's reply is not changed", 1, barrierReply.getXid());
 		
 		messagesSentToSwitch.clear();
 		messagesSentToController.clear();
@@ -1023,6 +1078,42 @@ public class ProxyTest {
 		
 	}
 	
+	@Test
+	public void testPacketINDroppedEndsDedupWindow(){
+		setupSlicer();
+		messagesSentToSwitch.clear();
+		messagesSentToController.clear();
+		slicer.setPacketInDedupWindow(60000);
+		Proxy proxy = new Proxy(sw, slicer, fsfw);
+		expect(channel.isConnected()).andReturn(true).anyTimes();
+		expect(handler.isHandshakeComplete()).andReturn(true).anyTimes();
+		EasyMock.replay(handler);
+		EasyMock.replay(channel);
+		proxy.connect(channel);
+		
+		OFPacketIn packetIn = new OFPacketIn();
+		packetIn.setInPort((short)1);
+		
+		Ethernet pkt = new Ethernet();
+		pkt.setVlanID((short)100);
+		pkt.setDestinationMACAddress("aa:bb:cc:dd:ee:ff");
+		pkt.setSourceMACAddress("ff:ee:dd:cc:bb:aa");
+		pkt.setEtherType((short)33024);
+		
+		packetIn.setPacketData(pkt.serialize());
+
+		proxy.toController(packetIn, cntx);
+		proxy.toController(packetIn, cntx);
+		assertEquals("repeat is suppressed", 1, messagesSentToController.size());
+		assertEquals(1, proxy.getPacketInDedup().size());
+		
+		//the first one never made it to the controller
+		proxy.packetInDropped(packetIn);
+		assertEquals("window ended", 0, proxy.getPacketInDedup().size());
+		proxy.toController(packetIn, cntx);
+		assertEquals("next packet in goes to the controller", 2, messagesSentToController.size());
+	}
+	
 	@Test
 	public void testPacketINRateLimit(){
 		setupSlicer();
@@ -1066,6 +1157,84 @@ public class ProxyTest {
 		assertFalse("Slice is now disconnected", proxy.connected());
 	}
 	
+	@Test
+	public void testPacketINBackedUpControllerNotDisabled(){
+		setupSlicer();
+		messagesSentToSwitch.clear();
+		messagesSentToController.clear();
+		slicer.setPacketInQueueSize(10);
+		slicer.setPacketInDisableTime(1);
+		Proxy proxy = new Proxy(sw, slicer, fsfw);
+		proxies.add(proxy);
+		
+		expect(channel.isConnected()).andReturn(true).anyTimes();
+		expect(handler.isHandshakeComplete()).andReturn(true).anyTimes();
+		//the controller never catches up
+		expect(handler.isBackedUp()).andReturn(true).anyTimes();
+		EasyMock.replay(handler);
+		EasyMock.replay(channel);
+		proxy.connect(channel);
+		
+		OFPacketIn packetIn = new OFPacketIn();
+		packetIn.setInPort((short)1);
+		
+		Ethernet pkt = new Ethernet();
+		pkt.setVlanID((short)100);
+		pkt.setDestinationMACAddress("aa:bb:cc:dd:ee:ff");
+		pkt.setSourceMACAddress("ff:ee:dd:cc:bb:aa");
+		pkt.setEtherType((short)33024);
+		
+		packetIn.setPacketData(pkt.serialize());
+		
+		//twice the disable time of shedding
+		for(int i = 0; i < 200; i++){
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			proxy.toController(packetIn, cntx);
+		}
+		assertEquals("nothing sent to a backed up controller", 0, messagesSentToController.size());
+		assertTrue("packet ins were shed", proxy.getPacketInQueue().getShed() > 0);
+		assertTrue("Slice is still enabled", proxy.getAdminStatus());
+		assertTrue("Slice is still connected", proxy.connected());
+	}
+	
+	@Test
+	public void testPacketINSentOutsideQueueLock(){
+		setupSlicer();
+		messagesSentToSwitch.clear();
+		messagesSentToController.clear();
+		sentUnderQueueLock = false;
+		Proxy proxy = new Proxy(sw, slicer, fsfw);
+		proxies.add(proxy);
+		
+		expect(channel.isConnected()).andReturn(true).anyTimes();
+		expect(handler.isHandshakeComplete()).andReturn(true).anyTimes();
+		EasyMock.replay(handler);
+		EasyMock.replay(channel);
+		proxy.connect(channel);
+		
+		OFPacketIn packetIn = new OFPacketIn();
+		packetIn.setInPort((short)1);
+		
+		Ethernet pkt = new Ethernet();
+		pkt.setVlanID((short)100);
+		pkt.setDestinationMACAddress("aa:bb:cc:dd:ee:ff");
+		pkt.setSourceMACAddress("ff:ee:dd:cc:bb:aa");
+		pkt.setEtherType((short)33024);
+		
+		packetIn.setPacketData(pkt.serialize());
+		
+		for(int i = 0; i < 10; i++){
+			proxy.toController(packetIn, cntx);
+		}
+		proxy.drainPacketIns();
+		assertTrue("packet ins went to the controller", messagesSentToController.size() > 0);
+		assertFalse("the controller was written to outside the queue lock", sentUnderQueueLock);
+	}
+	
 	@Test
 	public void testPacketINNotPartofSlice(){
 		setupSlicer();
@@ -1196,12 +1365,12 @@ public class ProxyTest {
 		flow.setHardTimeout((short)0);
 		log.error("Received message: " + sentFlow.toString());
 		assertTrue("Sent Flow matches what we actually sent", sentFlow.equals(flow));
-		List<FlowTimeout> timeouts = proxy.getTimeouts();
+		Set<FlowTimeout> timeouts = proxy.getTimeouts();
 		assertTrue("Slice has a flow to timeout", timeouts.size() == 1);
-		proxy.checkExpiredFlows();
+		wheel.expire(System.nanoTime());
 		assertTrue("Flow was not removed from the switch yet", messagesSentToSwitch.size() == 1);
 		Thread.sleep(11000);
-		proxy.checkExpiredFlows();
+		wheel.expire(System.nanoTime());
 		log.error("Messages to Controller size: " + messagesSentToController.size());
 		log.error("Messages to Switch size: " + messagesSentToSwitch.size());
 		assertTrue("Flow was removed from the switch", messagesSentToSwitch.size() == 2);
@@ -1210,6 +1379,7 @@ public class ProxyTest {
 		sentFlow = (OFFlowMod) msg;
 		assertTrue("Flow is a remove", sentFlow.getCommand() == OFFlowMod.OFPFC_DELETE_STRICT);
 		assertTrue("No more flows to expire",proxy.getTimeouts().size() == 0);
+		assertTrue("Nothing left in the wheel", wheel.size() == 0);
 	}
 	
 	@Test
@@ -1257,23 +1427,24 @@ public class ProxyTest {
 		flow.setIdleTimeout((short)0);
 		log.error("Received message: " + sentFlow.toString());
 		assertTrue("Sent Flow matches what we actually sent", sentFlow.equals(flow));
-		List<FlowTimeout> timeouts = proxy.getTimeouts();
+		Set<FlowTimeout> timeouts = proxy.getTimeouts();
 		assertTrue("Slice has a flow to timeout", timeouts.size() == 1);
 		Thread.sleep(5000);
-		timeouts.get(0).updateLastUsed();
+		timeouts.iterator().next().updateLastUsed();
 		Thread.sleep(6000);
-		proxy.checkExpiredFlows();
+		wheel.expire(System.nanoTime());
 		log.error("Messages to Controller size: " + messagesSentToController.size());
 		log.error("Messages to Switch size: " + messagesSentToSwitch.size());
 		assertTrue("Flow was not removed from the switch", messagesSentToSwitch.size() == 1);
 		Thread.sleep(5000);
-		proxy.checkExpiredFlows();
+		wheel.expire(System.nanoTime());
 		assertTrue("Flow was removed from the switch", messagesSentToSwitch.size() == 2);
 		msg = messagesSentToSwitch.get(1);
 		assertTrue("Message is a FlowMod", msg.getType().getTypeValue() == OFMessageType.FLOW_MOD.getValue());
 		sentFlow = (OFFlowMod) msg;
 		assertTrue("Flow is a remove", sentFlow.getCommand() == OFFlowMod.OFPFC_DELETE_STRICT);
 		assertTrue("No more flows to expire",proxy.getTimeouts().size() == 0);
+		assertTrue("Nothing left in the wheel", wheel.size() == 0);
 	}
 	
 	@Test
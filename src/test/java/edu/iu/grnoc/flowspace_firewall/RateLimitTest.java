@@ -18,11 +18,12 @@ package edu.iu.grnoc.flowspace_firewall;
 
 import static org.junit.Assert.*;
 
-import java.util.Date;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-
-
-import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -79,19 +80,66 @@ public class RateLimitTest {
 	}
 	
 	@Test
-	public void testRateLimitFast(){
-		RateTracker tracker = new RateTracker(2000,10000);
-	
-		CircularFifoQueue<Date> fifo = tracker.getFifo();
-		Date now = new Date();
-		for(int i =0; i< 1000;i++){
-			fifo.add(now);
+	public void testRateLimitBurst(){
+		//a tenth of the size can go back to back
+		RateTracker tracker = new RateTracker(100,1);
+		assertEquals(10, tracker.getBurst());
+		long now = System.nanoTime();
+		for(int i = 0; i < 10; i++){
+			assertTrue("burst allowed", tracker.okToProcess(now));
 		}
+		assertFalse("over the burst", tracker.okToProcess(now));
+		assertFalse("still over half a second later", tracker.okToProcess(now + TimeUnit.MILLISECONDS.toNanos(500)));
+		assertTrue("a token comes back after a second", tracker.okToProcess(now + TimeUnit.SECONDS.toNanos(1)));
 		
-		assertTrue("Tracker Rate is " + tracker.getRate(), tracker.getRate() == (1000 * 1000));
-		
+		tracker.setRate(0);
+		assertFalse("rate 0 allows nothing", tracker.okToProcess(now + TimeUnit.SECONDS.toNanos(100)));
 	}
 	
+	@Test
+	public void testRefund(){
+		RateTracker tracker = new RateTracker(10,1);
+		long now = System.nanoTime();
+		assertTrue("first event allowed", tracker.okToProcess(now));
+		assertFalse("burst of 1 used up", tracker.okToProcess(now));
+		tracker.refund();
+		assertTrue("refunded token can be used again", tracker.okToProcess(now));
+		assertFalse("only one token was refunded", tracker.okToProcess(now));
+	}
 	
+	@Test
+	public void testRateLimitMeasured(){
+		RateTracker tracker = new RateTracker(2000,10000);
+		long second = TimeUnit.SECONDS.toNanos(1);
+		long start = (System.nanoTime() / second + 1) * second;
+		//offer twice the rate for a whole second
+		for(int i = 0; i < 20000; i++){
+			tracker.okToProcess(start + i * (second / 20000));
+		}
+		double rate = tracker.getRate(start + second);
+		//the burst plus a second at the rate
+		assertTrue("Tracker Rate is " + rate, rate >= 10000 && rate <= 10000 + tracker.getBurst());
+		assertTrue("nothing measured two seconds later", tracker.getRate(start + 3 * second) == 0);
+	}
+	
+	/**
+	 * a tracker per proxy and slicer has to stay a few fields no
+	 * matter the window size, the old ones preallocated a queue slot
+	 * per event in the window
+	 */
+	@Test
+	public void testNoPerEventStorage(){
+		for(Field field : RateTracker.class.getDeclaredFields()){
+			if(Modifier.isStatic(field.getModifiers())){
+				continue;
+			}
+			Class<?> type = field.getType();
+			assertFalse(field.getName() + " is an array", type.isArray());
+			assertFalse(field.getName() + " is a collection", Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type));
+		}
+		//would not fit in the heap if the window was preallocated
+		RateTracker tracker = new RateTracker(Integer.MAX_VALUE, 10);
+		assertTrue(tracker.okToProcess());
+	}
 	
 }
@@ -0,0 +1,78 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReconnectBackoffTest {
+
+	@Test
+	public void testOnePendingAttempt(){
+		ReconnectBackoff backoff = new ReconnectBackoff();
+		assertTrue(backoff.startAttempt());
+		assertFalse("already pending", backoff.startAttempt());
+		backoff.cancelAttempt();
+		assertTrue(backoff.startAttempt());
+		backoff.attemptDone(false);
+		assertFalse(backoff.isPending());
+		assertTrue(backoff.startAttempt());
+	}
+
+	@Test
+	public void testBackoff(){
+		Random random = new Random(1);
+		ReconnectBackoff backoff = new ReconnectBackoff();
+		assertEquals("first attempt goes right away", 0, backoff.nextDelay(random));
+
+		long last = 0;
+		for(int i = 1; i <= 20; i++){
+			backoff.startAttempt();
+			backoff.attemptDone(false);
+			long base = Math.min(ReconnectBackoff.INITIAL_DELAY << Math.min(i - 1, 16), ReconnectBackoff.MAX_DELAY);
+			long delay = backoff.nextDelay(random);
+			assertTrue("at least half the backoff", delay >= base / 2);
+			assertTrue("no more than the backoff", delay <= base);
+			assertTrue("never past the max", delay <= ReconnectBackoff.MAX_DELAY);
+			last = delay;
+		}
+		assertTrue("backed all the way off", last >= ReconnectBackoff.MAX_DELAY / 2);
+		assertEquals(20, backoff.getFailures());
+
+		backoff.startAttempt();
+		backoff.attemptDone(true);
+		assertEquals("a working connection resets the backoff", 0, backoff.getFailures());
+		assertEquals(0, backoff.nextDelay(random));
+	}
+
+	@Test
+	public void testJitter(){
+		Random random = new Random(1);
+		ReconnectBackoff backoff = new ReconnectBackoff();
+		for(int i = 0; i < 5; i++){
+			backoff.attemptDone(false);
+		}
+		long first = backoff.nextDelay(random);
+		boolean differs = false;
+		for(int i = 0; i < 10 && !differs; i++){
+			differs = backoff.nextDelay(random) != first;
+		}
+		assertTrue("slices that failed together do not retry together", differs);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.action.OFActionVirtualLanIdentifier;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+public class StatsReplyPackerTest {
+
+	static List<OFStatistics> buildFlows(int count, int numActions){
+		List<OFStatistics> flows = new ArrayList<OFStatistics>();
+		for(int i = 0; i < count; i++){
+			OFFlowStatisticsReply stat = new OFFlowStatisticsReply();
+			OFMatch match = new OFMatch();
+			match.setInputPort((short)(i % 48 + 1));
+			match.setDataLayerVirtualLan((short)(i % 4000 + 1));
+			match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_VLAN);
+			stat.setMatch(match);
+			stat.setPriority((short)i);
+			stat.setCookie(i);
+			stat.setByteCount(i * 100L);
+			stat.setPacketCount(i);
+			List<OFAction> actions = new ArrayList<OFAction>();
+			int actLength = 0;
+			for(int j = 0; j < numActions; j++){
+				OFActionVirtualLanIdentifier setVlan = new OFActionVirtualLanIdentifier();
+				setVlan.setVirtualLanIdentifier((short)(j + 1));
+				actions.add(setVlan);
+				actLength += setVlan.getLengthU();
+				OFActionOutput out = new OFActionOutput();
+				out.setPort((short)(j % 48 + 1));
+				actions.add(out);
+				actLength += out.getLengthU();
+			}
+			stat.setActions(actions);
+			stat.setLength((short)(OFFlowStatisticsReply.MINIMUM_LENGTH + actLength));
+			flows.add(stat);
+		}
+		return flows;
+	}
+
+	static int encode(List<OFMessage> replies){
+		int total = 0;
+		for(OFMessage msg : replies){
+			ChannelBuffer buf = ChannelBuffers.buffer(msg.getLengthU());
+			msg.writeTo(buf);
+			assertEquals(msg.getLengthU(), buf.writerIndex());
+			total += buf.writerIndex();
+		}
+		return total;
+	}
+
+	/**
+	 * tests that replies are packed by size and every
+	 * reply but the last is flagged as having more
+	 */
+	@Test
+	public void testPackBySize(){
+		List<OFStatistics> flows = buildFlows(1000, 1);
+		List<OFMessage> replies = StatsReplyPacker.pack(flows, OFStatisticsType.FLOW, 42, StatsReplyPacker.MAX_LENGTH);
+		assertTrue(replies.size() > 1);
+		//the old slicer sent 10 flows per message
+		assertTrue(replies.size() < 100);
+
+		int total = 0;
+		for(int i = 0; i < replies.size(); i++){
+			OFStatisticsReply reply = (OFStatisticsReply) replies.get(i);
+			assertTrue(reply.getLengthU() <= StatsReplyPacker.MAX_LENGTH);
+			assertEquals(42, reply.getXid());
+			assertEquals(OFStatisticsType.FLOW, reply.getStatisticType());
+			if(i == replies.size() - 1){
+				assertEquals(StatsReplyPacker.REPLY_LAST, reply.getFlags());
+			}else{
+				assertEquals(StatsReplyPacker.REPLY_MORE, reply.getFlags());
+			}
+			total += reply.getStatistics().size();
+		}
+		assertEquals(1000, total);
+		encode(replies);
+	}
+
+	/**
+	 * a flow with a long action list used to overflow the short length
+	 */
+	@Test
+	public void testLargeActionLists(){
+		//each flow is 88 + 50 * 16 = 888 bytes, 100 of them is way over 32k
+		List<OFStatistics> flows = buildFlows(100, 50);
+		List<OFMessage> replies = StatsReplyPacker.pack(flows, OFStatisticsType.FLOW, 1, 4096);
+		int total = 0;
+		for(OFMessage msg : replies){
+			assertTrue(msg.getLengthU() > 0);
+			assertTrue(msg.getLengthU() <= 4096);
+			total += ((OFStatisticsReply)msg).getStatistics().size();
+		}
+		assertEquals(100, total);
+		assertEquals(OFStatisticsReply.MINIMUM_LENGTH * replies.size() + 100 * 888, encode(replies));
+	}
+
+	/**
+	 * an empty result still gets a single (empty) reply
+	 */
+	@Test
+	public void testEmpty(){
+		List<OFMessage> replies = StatsReplyPacker.pack(new ArrayList<OFStatistics>(), OFStatisticsType.FLOW, 7, StatsReplyPacker.MAX_LENGTH);
+		assertEquals(1, replies.size());
+		OFStatisticsReply reply = (OFStatisticsReply) replies.get(0);
+		assertEquals(OFStatisticsReply.MINIMUM_LENGTH, reply.getLengthU());
+		assertEquals(StatsReplyPacker.REPLY_LAST, reply.getFlags());
+		assertEquals(0, reply.getStatistics().size());
+	}
+
+	/**
+	 * the pre-encoded reply must be byte for byte what encoding
+	 * the packed replies with the requested xid would give
+	 */
+	@Test
+	public void testEncodedReply(){
+		List<OFStatistics> flows = buildFlows(2000, 3);
+		EncodedStatsReply encoded = EncodedStatsReply.encode(flows, OFStatisticsType.FLOW, false, 8192);
+		List<OFMessage> replies = StatsReplyPacker.pack(flows, OFStatisticsType.FLOW, 12345, 8192);
+		assertEquals(replies.size(), encoded.getChunkCount());
+		assertTrue(encoded.isEncodedFor(false, 8192));
+		assertFalse(encoded.isEncodedFor(true, 8192));
+
+		ChannelBuffer expected = ChannelBuffers.dynamicBuffer();
+		for(OFMessage msg : replies){
+			msg.writeTo(expected);
+		}
+		ChannelBuffer actual = encoded.toReply(12345);
+		assertEquals(expected.readableBytes(), actual.readableBytes());
+		assertEquals(0, ChannelBuffers.compare(expected, actual));
+
+		//a second request gets its own xid and does not change the first
+		ChannelBuffer other = encoded.toReply(99);
+		assertEquals(99, other.getInt(4));
+		assertEquals(12345, actual.getInt(4));
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ Copyright 2014 Trustees of Indiana University
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package edu.iu.grnoc.flowspace_firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.openflow.protocol.OFMatch;
+
+public class TopFlowsTest {
+
+	private TopFlows.Flow buildFlow(short port, long bytes, long packets){
+		OFMatch match = new OFMatch();
+		match.setInputPort(port);
+		return new TopFlows.Flow(match, null, bytes, packets);
+	}
+
+	@Test
+	public void testKeepsHeaviest(){
+		TopFlows top = new TopFlows(3);
+		for(short i = 1; i <= 100; i++){
+			//bytes grow with the port number, packets shrink
+			top.offer(buildFlow(i, i * 1000L, 101 - i));
+		}
+		List<TopFlows.Flow> byBytes = top.getTopByBytes(10);
+		assertEquals("only capacity flows kept", 3, byBytes.size());
+		assertEquals("heaviest first", 100000L, byBytes.get(0).getBytes());
+		assertEquals("second", 99000L, byBytes.get(1).getBytes());
+		assertEquals("third", 98000L, byBytes.get(2).getBytes());
+
+		List<TopFlows.Flow> byPackets = top.getTopByPackets(2);
+		assertEquals("count limits the result", 2, byPackets.size());
+		assertEquals("most packets first", 100L, byPackets.get(0).getPackets());
+		assertEquals((short)1, byPackets.get(0).getMatch().getInputPort());
+	}
+
+	@Test
+	public void testIdleFlowsNotRanked(){
+		TopFlows top = new TopFlows(3);
+		top.offer(buildFlow((short)1, 0, 0));
+		top.offer(buildFlow((short)2, 100, 0));
+		assertEquals(1, top.getTopByBytes(3).size());
+		assertEquals(0, top.getTopByPackets(3).size());
+	}
+
+	@Test
+	public void testManyFlows(){
+		TopFlows top = new TopFlows(FlowSpaceFirewallParams.DEFAULT_TOP_FLOWS);
+		long maxBytes = 0;
+		for(int i = 0; i < 50000; i++){
+			TopFlows.Flow flow = buildFlow((short)(i % 48), (i * 7919L) % 100000, (i * 104729L) % 1000);
+			maxBytes = Math.max(maxBytes, flow.getBytes());
+			top.offer(flow);
+		}
+		assertEquals(FlowSpaceFirewallParams.DEFAULT_TOP_FLOWS, top.getTopByBytes(Integer.MAX_VALUE).size());
+		assertEquals(maxBytes, top.getTopByBytes(1).get(0).getBytes());
+	}
+}
@@ -20,6 +20,7 @@ import static org.easymock.EasyMock.createMock;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static org.easymock.EasyMock.expect;
 import org.easymock.*;
@@ -36,6 +37,7 @@ import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketOut;
 import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFType;
 import org.openflow.protocol.Wildcards.Flag;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionOutput;
@@ -221,6 +223,38 @@ public class VLANSlicerTest {
 		
 	}
 	
+	/**
+	 * tests the snapshot of the slice's port ids
+	 */
+	@Test
+	public void testPortIds(){
+		Set<Short> ports = slicer.getPortIds();
+		assertTrue("Port 1 is part of slice", ports.contains((short)1));
+		assertFalse("Port 4 is not part of slice", ports.contains((short)4));
+		assertTrue("Port 5 is part of slice", ports.contains((short)5));
+		assertTrue("Port 59590 is part of slice", ports.contains((short)59590));
+		
+		try{
+			ports.add((short)4);
+			fail("port id snapshot should not be modifiable");
+		}catch(UnsupportedOperationException e){
+			//expected
+		}
+		
+		//learning a new port id gives a new snapshot and leaves the old one alone
+		slicer.setPortId("foo", (short)77);
+		assertTrue("new port id is part of slice", slicer.getPortIds().contains((short)77));
+		assertFalse("old snapshot is unchanged", ports.contains((short)77));
+		assertFalse("renumbered port's old id is gone", slicer.getPortIds().contains((short)1));
+		
+		//deleted ports leave the snapshot
+		slicer.removePortId("foo5", (short)5);
+		assertFalse("deleted port is not part of slice", slicer.getPortIds().contains((short)5));
+		assertTrue("deleted port is still configured", slicer.isPortPartOfSlice("foo5"));
+		slicer.setPortId("foo5", (short)5);
+		assertTrue("re-added port is part of slice", slicer.getPortIds().contains((short)5));
+	}
+	
 	/**
 	 * tests packetOut event slicing
 	 */
@@ -946,4 +980,36 @@ public class VLANSlicerTest {
 	}
 	
 	
+	/**
+	 * each message class has its own budget, control messages have none
+	 * and the switch wide budget is checked after the slice's
+	 */
+	@Test
+	public void testMessageClassBudgets(){
+		VLANSlicer slicer = new VLANSlicer();
+		slicer.setFlowRate(1000);
+		slicer.setPacketOutRate(1000);
+		slicer.setStatsRate(1);
+		assertEquals(1, slicer.getMaxStatsRate());
+		assertEquals(1000, slicer.getMaxPacketOutRate());
+		//a burst of 100 stats requests then the budget is gone
+		for(int i = 0; i < 100; i++){
+			assertTrue("stats request allowed", slicer.isOkToProcessMessage(OFType.STATS_REQUEST));
+		}
+		assertFalse("stats budget used up", slicer.isOkToProcessMessage(OFType.STATS_REQUEST));
+		assertTrue("flow mods have their own budget", slicer.isOkToProcessMessage(OFType.FLOW_MOD));
+		assertTrue("packet outs have their own budget", slicer.isOkToProcessMessage(OFType.PACKET_OUT));
+		
+		slicer.setFlowRate(0);
+		assertFalse("flow mods are denied", slicer.isOkToProcessMessage());
+		assertTrue("echo is never limited", slicer.isOkToProcessMessage(OFType.ECHO_REQUEST));
+		assertTrue("barrier is never limited", slicer.isOkToProcessMessage(OFType.BARRIER_REQUEST));
+		
+		//the switch only allows a single message
+		slicer.setSwitchRateTracker(new RateTracker(10,1));
+		assertTrue("first packet out fits the switch budget", slicer.isOkToProcessMessage(OFType.PACKET_OUT));
+		assertFalse("switch budget used up", slicer.isOkToProcessMessage(OFType.PACKET_OUT));
+		assertTrue("control messages skip the switch budget too", slicer.isOkToProcessMessage(OFType.ECHO_REPLY));
+	}
+	
 }
@@ -17,6 +17,9 @@ package edu.iu.grnoc.flowspace_firewall;
 
 
 import static org.junit.Assert.*;
+import static org.easymock.EasyMock.createMock;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -121,16 +124,145 @@ public class XidMapTest {
 	
 	@Test
 	public void testXidMax(){
-		XidMap mapper = new XidMap();
+		XidMap mapper = new XidMap(1024);
 		
 		for(int i=1;i<2000;i++){
 			mapper.put(i, i+2000);
 		}
 		
 		assertFalse("does not have 1", mapper.containsKey(1));
-		assertFalse("does not have 1000", mapper.containsKey(1000));
+		assertFalse("does not have 975", mapper.containsKey(975));
+		assertTrue("does contain 976", mapper.containsKey(976));
 		assertTrue("does contain 1022", mapper.containsKey(1022));
 		assertTrue("does contain 1999", mapper.containsKey(1999));
+		assertEquals("evictions are counted", 975, mapper.getEvictions());
+		assertEquals(1024, mapper.size());
+	}
+	
+	@Test
+	public void testXidOwners(){
+		XidMap mapper = new XidMap();
+		Proxy first = createMock(Proxy.class);
+		Proxy second = createMock(Proxy.class);
+		mapper.put(1, 100, first);
+		mapper.put(2, 200, second);
+		mapper.put(3, 300, first);
+		mapper.put(4, 400, second);
+		assertTrue("1 belongs to first", mapper.getOwner(1) == first);
+		assertTrue("2 belongs to second", mapper.getOwner(2) == second);
+		assertNull("5 is not mapped", mapper.getOwner(5));
+		
+		//a barrier from the first slice only truncates its own xids
+		assertTrue(mapper.removeToKey(3));
+		assertFalse("does not have 1", mapper.containsKey(1));
+		assertFalse("does not have 3", mapper.containsKey(3));
+		assertTrue("does contain 2", mapper.containsKey(2));
+		assertTrue("does contain 4", mapper.containsKey(4));
+		
+		mapper.put(5, 500, first);
+		assertTrue("first maps again after its barrier", mapper.getOwner(5) == first);
+		
+		mapper.removeOwner(second);
+		assertNull("second is gone", mapper.getOwner(2));
+		assertNull("second is gone", mapper.getOwner(4));
+		assertEquals(1, mapper.size());
+	}
+	
+	@Test
+	public void testXidOwnersIsolated(){
+		XidMap mapper = new XidMap(16);
+		Proxy quiet = createMock(Proxy.class);
+		Proxy busy = createMock(Proxy.class);
+		mapper.put(1, 100, quiet);
+		//the busy slice maps far more than a ring, and the index, worth of xids
+		for(int i = 2; i < 1000; i++){
+			mapper.put(i, i, busy);
+		}
+		assertTrue("quiet slice's mapping survives", mapper.getOwner(1) == quiet);
+		assertEquals(100, mapper.get(1));
+		assertEquals("the busy slice only evicts its own", 0, mapper.getEvictions(quiet));
+		assertTrue(mapper.getEvictions(busy) > 0);
+		assertTrue(mapper.getOwner(999) == busy);
+		assertFalse("busy slice's old xids are gone", mapper.containsKey(2));
+		assertNull("never mapped", mapper.getOwner(5000));
+
+		//a barrier from the quiet slice leaves the busy slice alone
+		assertTrue(mapper.removeToKey(1));
+		assertTrue(mapper.containsKey(999));
+		assertEquals(16, mapper.size());
+	}
+	
+	@Test
+	public void testXidCapacity(){
+		XidMap mapper = new XidMap(5000);
+		assertEquals("rounded up to a power of 2", 8192, mapper.getCapacity());
+		for(int i=1;i<5000;i++){
+			mapper.put(i, i+5000);
+		}
+		assertTrue("nothing dropped", mapper.containsKey(1));
+		assertEquals(0, mapper.getEvictions());
+		assertEquals(5006, mapper.get(6));
+		
+		thrown.expect(IllegalArgumentException.class);
+		new XidMap(XidMap.MAX_CAPACITY + 1);
+	}
+	
+	@Test
+	public void testXidWrap(){
+		XidMap mapper = new XidMap(16);
+		//switch xids wrap around
+		mapper.put(Integer.MAX_VALUE, 1);
+		mapper.put(Integer.MIN_VALUE, 2);
+		mapper.put(Integer.MIN_VALUE + 1, 3);
+		assertEquals(1, mapper.get(Integer.MAX_VALUE));
+		assertEquals(2, mapper.get(Integer.MIN_VALUE));
+		assertTrue(mapper.removeToKey(Integer.MIN_VALUE));
+		assertFalse(mapper.containsKey(Integer.MAX_VALUE));
+		assertTrue(mapper.containsKey(Integer.MIN_VALUE + 1));
+		assertFalse("not mapped", mapper.removeToKey(5));
+		
+		thrown.expect(java.util.NoSuchElementException.class);
+		mapper.get(Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * one thread maps xids while another translates replies
+	 * and truncates on barriers like the switch thread does
+	 */
+	@Test
+	public void testConcurrentAccess() throws InterruptedException{
+		final XidMap mapper = new XidMap(4096);
+		final int count = 200000;
+		final AtomicInteger errors = new AtomicInteger(0);
+		Thread writer = new Thread(){
+			public void run(){
+				for(int i=0;i<count;i++){
+					mapper.put(i, -i);
+				}
+			}
+		};
+		Thread reader = new Thread(){
+			public void run(){
+				for(int i=0;i<count;i++){
+					try{
+						if(mapper.containsKey(i) && mapper.get(i) != -i){
+							errors.incrementAndGet();
+						}
+					}catch(java.util.NoSuchElementException e){
+						//truncated between the calls
+					}
+					if(i % 1000 == 0){
+						mapper.removeToKey(i);
+					}
+				}
+			}
+		};
+		writer.start();
+		reader.start();
+		writer.join();
+		reader.join();
+		assertEquals("every translation matched its mapping", 0, errors.get());
+		assertTrue(mapper.size() <= mapper.getCapacity());
 	}
 	
 }